@@ -0,0 +1,144 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.benchmarks;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.TimeUnit;
+
+import org.infiniquery.benchmarks.model.Customer;
+import org.infiniquery.benchmarks.model.Region;
+import org.infiniquery.util.PropertyAccessor;
+import org.infiniquery.util.PropertyAccessors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The reading of the basic attributes of rowCount customers held in memory, as the row mapping does for every row: 
+ * through the compiled {@link PropertyAccessor}s, and through the two reflective baselines they replace, a cached 
+ * {@link Method} invoked for every value (methodInvoke), and the lookup of the getter for every value followed by 
+ * its invocation (reflectiveLookup), as the row mapping did before the accessors.
+ * 
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AttributeAccessBenchmark {
+
+	@Param({ "1000" })
+	public int rowCount;
+
+	private Customer[] rows;
+
+	private String[] attributeNames;
+
+	private Method[] getterMethods;
+
+	private PropertyAccessor[] accessors;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Region region = new Region();
+		region.setId(0L);
+		region.setName("region0");
+		long now = System.currentTimeMillis();
+		rows = new Customer[rowCount];
+		for(int i = 0; i < rowCount; i++) {
+			rows[i] = SyntheticModel.newCustomer(i, region, now);
+		}
+		attributeNames = SyntheticModel.basicAttributeNames();
+		getterMethods = new Method[attributeNames.length];
+		accessors = new PropertyAccessor[attributeNames.length];
+		for(int i = 0; i < attributeNames.length; i++) {
+			getterMethods[i] = PropertyAccessors.resolveGetterMethod(attributeNames[i], Customer.class);
+			accessors[i] = PropertyAccessors.forProperty(Customer.class, attributeNames[i]);
+		}
+	}
+
+	@Benchmark
+	public void propertyAccessor(Blackhole blackhole) {
+		for(Customer row : rows) {
+			for(PropertyAccessor accessor : accessors) {
+				blackhole.consume(accessor.read(row));
+			}
+		}
+	}
+
+	@Benchmark
+	public void methodInvoke(Blackhole blackhole) throws Exception {
+		for(Customer row : rows) {
+			for(Method getterMethod : getterMethods) {
+				blackhole.consume(getterMethod.invoke(row));
+			}
+		}
+	}
+
+	@Benchmark
+	public void reflectiveLookup(Blackhole blackhole) throws Exception {
+		for(Customer row : rows) {
+			for(String attributeName : attributeNames) {
+				Class<?> clazz = Class.forName(Customer.class.getName());
+				blackhole.consume(lookUpGetterMethod(attributeName, clazz).invoke(row));
+			}
+		}
+	}
+
+	/**
+	 * The lookup of the getter that the row mapping ran for every value before the accessors.
+	 */
+	private static Method lookUpGetterMethod(String propertyName, Class<?> clazz) throws NoSuchMethodException {
+		final String firstChar = propertyName.substring(0, 1);
+		final String nonPrefixedGetter = propertyName.replaceFirst(firstChar, firstChar.toUpperCase());
+		Method getterMethod;
+		try {
+			getterMethod = clazz.getDeclaredMethod("get".concat(nonPrefixedGetter));
+		} catch(NoSuchMethodException e) {
+			getterMethod = clazz.getDeclaredMethod("is".concat(nonPrefixedGetter));
+		}
+		if(!Modifier.isPublic(getterMethod.getModifiers())) {
+			throw new IllegalStateException("Method " + getterMethod + " is not public");
+		}
+		return getterMethod;
+	}
+
+}
@@ -0,0 +1,89 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.infiniquery.connector.JpaConnector;
+import org.infiniquery.model.InfiniqueryContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The loading of the configuration by {@link JpaConnector}: reading the configuration file of entityCount entities, 
+ * resolving the types, accessors and operators of their attributes. It needs no database.
+ * 
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConfigurationLoadingBenchmark {
+
+	@Param({ "10", "1000" })
+	public int entityCount;
+
+	private File configFile;
+
+	private URL configUrl;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		configFile = File.createTempFile("infiniquery-config", ".xml");
+		SyntheticModel.writeConfiguration(configFile, entityCount);
+		configUrl = configFile.toURI().toURL();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		configFile.delete();
+	}
+
+	@Benchmark
+	public InfiniqueryContext getDynamicQueryContext() {
+		return JpaConnector.getDynamicQueryContext(configUrl);
+	}
+
+}
@@ -0,0 +1,77 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.benchmarks;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run the benchmarks selected by the JMH command line options (all of them by default), with the GC profiler, 
+ * so that the report shows the allocation rate and the bytes allocated per operation next to the timings.
+ * The results are also written as JSON, to jmh-result.json unless the -rff option says otherwise.
+ * <p>
+ * Unless other -jvmArgsAppend are given, the forks open java.lang to the persistence provider, for running on Java 9 and later.
+ * 
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+public final class InfiniqueryBenchmarks {
+
+	private InfiniqueryBenchmarks() {
+	}
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+		CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+		if(commandLineOptions.shouldHelp()) {
+			commandLineOptions.showHelp();
+			return;
+		}
+		if(commandLineOptions.shouldList()) {
+			new Runner(commandLineOptions).list();
+			return;
+		}
+		OptionsBuilder options = new OptionsBuilder();
+		options.parent(commandLineOptions);
+		options.addProfiler(GCProfiler.class);
+		if(!commandLineOptions.getJvmArgsAppend().hasValue()) {
+			//Hibernate defines its proxy classes through ClassLoader.defineClass; the option is ignored by Java 8
+			options.jvmArgsAppend("-XX:+IgnoreUnrecognizedVMOptions", "--add-opens=java.base/java.lang=ALL-UNNAMED");
+		}
+		if(!commandLineOptions.getResultFormat().hasValue()) {
+			options.resultFormat(ResultFormatType.JSON);
+		}
+		new Runner(options.build()).run();
+	}
+
+}
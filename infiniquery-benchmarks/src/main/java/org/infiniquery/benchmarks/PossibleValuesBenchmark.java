@@ -0,0 +1,80 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.infiniquery.model.view.PossibleValuesView;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The possible values of the attributes having a possibleValuesQuery: the regions of a customer (to-one), 
+ * and the tags of the customers (one row per tag, as many as the customers times {@link SyntheticModel#TAGS_PER_CUSTOMER}).
+ * Without cachedReferenceData, every request runs the possibleValuesQuery, and extracts the labels of its results 
+ * (preparePossibleValues).
+ * 
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PossibleValuesBenchmark {
+
+	@Param({ "true", "false" })
+	public boolean cachedReferenceData;
+
+	@Setup(Level.Trial)
+	public void setUp(QueryModelState state) {
+		state.queryModelService.setReferenceDataCacheSize(cachedReferenceData ? 500 : 0);
+	}
+
+	@Benchmark
+	public PossibleValuesView regions(QueryModelState state) {
+		return state.queryModelService.getEntityAttributeOperatorValue(state.entityDisplayName, "region", "in");
+	}
+
+	@Benchmark
+	public PossibleValuesView tags(QueryModelState state) {
+		return state.queryModelService.getEntityAttributeOperatorValue(state.entityDisplayName, "tags", "in");
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.infiniquery.model.ExecutableQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The compilation of a query: the security checks of its entity and attributes (performSecurityChecks), and its 
+ * translation to JPQL (compileJpql), as run by compileQuery before every execution.
+ * With cachedPlans, the JPQL is taken from the plan cache, so mostly the security checks and the decoding of the 
+ * values are measured.
+ * 
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryCompilationBenchmark {
+
+	@Param({ "true", "false" })
+	public boolean cachedPlans;
+
+	private ExecutableQuery query;
+
+	@Setup(Level.Trial)
+	public void setUp(QueryModelState state) {
+		state.queryModelService.setQueryPlanCacheSize(cachedPlans ? 1000 : 0);
+		query = QueryModelState.query(state.entityDisplayName, 
+				"name", "like", "customer1%", 
+				"email", "like", "%@example.org", 
+				"age", "greater than", "30", 
+				"city", "in", "city1, city2, city3", 
+				"registered on", "after", "01-1-2015 00:00:00", 
+				"region", "in", "region1, region2", 
+				"tags", "in", "tag1, tag2");
+	}
+
+	@Benchmark
+	public String compileQuery(QueryModelState state) {
+		return state.queryModelService.compileQuery(query);
+	}
+
+}
@@ -0,0 +1,165 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.infiniquery.connector.JpaConnector;
+import org.infiniquery.model.ExecutableQuery;
+import org.infiniquery.model.LogicalQueryItem;
+import org.infiniquery.service.DefaultDatabaseAccessService;
+import org.infiniquery.service.DefaultQueryModelService;
+import org.infiniquery.service.SecurityService;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The state shared by the benchmarks running queries: the {@link SyntheticModel} configuration of entityCount entities, 
+ * an in-memory database of rowCount customers, and a {@link DefaultQueryModelService} reading them on behalf of a user 
+ * having the {@link SyntheticModel#USER_ROLES}.
+ * <p>
+ * The configuration is read from a temporary file, through the {@value JpaConnector#CONFIG_LOCATION_PROPERTY} system 
+ * property. Since JMH runs each combination of parameters in a fresh fork, the property is set once per JVM.
+ * 
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+@State(Scope.Benchmark)
+public class QueryModelState {
+
+	/** Keep a reference to the logger, so that its level is not lost when the logger is garbage collected */
+	private static final Logger HIBERNATE_LOGGER = Logger.getLogger("org.hibernate");
+
+	@Param({ "10", "1000" })
+	public int entityCount;
+
+	@Param({ "1000" })
+	public int rowCount;
+
+	DefaultDatabaseAccessService databaseAccessService;
+
+	DefaultQueryModelService queryModelService;
+
+	/** The display name of the entity the benchmarks query, in the middle of the configuration */
+	String entityDisplayName;
+
+	private File configFile;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		HIBERNATE_LOGGER.setLevel(java.util.logging.Level.WARNING);
+		configFile = File.createTempFile("infiniquery-config", ".xml");
+		SyntheticModel.writeConfiguration(configFile, entityCount);
+		System.setProperty(JpaConnector.CONFIG_LOCATION_PROPERTY, configFile.toURI().toString());
+		entityDisplayName = SyntheticModel.entityDisplayName(entityCount / 2);
+
+		databaseAccessService = new DefaultDatabaseAccessService();
+		databaseAccessService.setPersistenceUnitName("InfiniqueryBenchmarks");
+		SyntheticModel.populate(databaseAccessService.getEntityManagerFactory(), rowCount);
+
+		queryModelService = new DefaultQueryModelService();
+		queryModelService.setDatabaseAccessService(databaseAccessService);
+		queryModelService.setSecurityService(new BenchmarkSecurityService());
+		//load the query context before the first measurement
+		queryModelService.getEntityDisplayNames();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		databaseAccessService.shutdown();
+		System.clearProperty(JpaConnector.CONFIG_LOCATION_PROPERTY);
+		configFile.delete();
+	}
+
+	/**
+	 * Build the logical form of a query, as the user interface sends it.
+	 * @param entityDisplayName the entity to find
+	 * @param conditions triplets of attribute display name, operator display name and value, joined by "and"
+	 * @return the executable query
+	 */
+	static ExecutableQuery query(String entityDisplayName, String... conditions) {
+		List<LogicalQueryItem> items = new ArrayList<>();
+		items.add(item(LogicalQueryItem.Type.findKeyword, "find"));
+		items.add(item(LogicalQueryItem.Type.entityName, entityDisplayName));
+		for(int i = 0; i + 2 < conditions.length; i += 3) {
+			items.add(i == 0 ? item(LogicalQueryItem.Type.havingKeyword, "having") : item(LogicalQueryItem.Type.conditionSeparatorKeyword, "and"));
+			items.add(item(LogicalQueryItem.Type.entityAttributeName, conditions[i]));
+			items.add(item(LogicalQueryItem.Type.operatorKeyword, conditions[i + 1]));
+			items.add(item(LogicalQueryItem.Type.entityAttributeValue, conditions[i + 2]));
+		}
+		ExecutableQuery executableQuery = new ExecutableQuery();
+		executableQuery.setLogicalDimension(items.toArray(new LogicalQueryItem[items.size()]));
+		return executableQuery;
+	}
+
+	private static LogicalQueryItem item(LogicalQueryItem.Type type, String displayValue) {
+		LogicalQueryItem item = new LogicalQueryItem();
+		item.setType(type.name());
+		item.setDisplayValue(displayValue);
+		return item;
+	}
+
+	/**
+	 * The security service of the user running the benchmarks.
+	 */
+	private static final class BenchmarkSecurityService implements SecurityService {
+
+		private final Set<String> userRoles = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(SyntheticModel.USER_ROLES)));
+
+		/*
+		 * (non-Javadoc)
+		 * @see org.infiniquery.service.SecurityService#getCurrentUserRoles()
+		 */
+		@Override
+		public Set<String> getCurrentUserRoles() {
+			return userRoles;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see org.infiniquery.service.SecurityService#getGlobalScopeAttributes()
+		 */
+		@Override
+		public Map<String, Object> getGlobalScopeAttributes() {
+			return Collections.emptyMap();
+		}
+	}
+
+}
@@ -0,0 +1,140 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.benchmarks;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.infiniquery.model.EntityAttribute;
+import org.infiniquery.model.RoleDictionary;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The authorization checks of the basic attributes of a configured entity, for each of rowCount rows, as the 
+ * row mapping runs them: through the role masks (roleMask, the mask of the user roles being computed once, as 
+ * it is once per request), and through the baseline they replace, which upper-cased the roles of the user and of 
+ * the attribute into two new {@link HashSet}s for every check (hashSetRoles).
+ * 
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoleCheckBenchmark {
+
+	@Param({ "1000" })
+	public int rowCount;
+
+	private EntityAttribute[] attributes;
+
+	private Set<String> userRoles;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		String[] attributeNames = SyntheticModel.basicAttributeNames();
+		attributes = new EntityAttribute[attributeNames.length];
+		for(int i = 0; i < attributeNames.length; i++) {
+			attributes[i] = new EntityAttribute(attributeNames[i], attributeNames[i], SyntheticModel.basicAttributeRoles(i), null, null, null, false, null);
+		}
+		//the roles as returned by a security service, not necessarily upper-cased
+		userRoles = new HashSet<>();
+		for(String role : SyntheticModel.USER_ROLES) {
+			userRoles.add(role.toLowerCase());
+		}
+	}
+
+	@Benchmark
+	public void roleMask(Blackhole blackhole) {
+		BitSet userRoleMask = RoleDictionary.maskOf(userRoles);
+		for(int row = 0; row < rowCount; row++) {
+			for(EntityAttribute attribute : attributes) {
+				blackhole.consume(attribute.isAccessibleTo(userRoleMask));
+			}
+		}
+	}
+
+	@Benchmark
+	public void hashSetRoles(Blackhole blackhole) {
+		for(int row = 0; row < rowCount; row++) {
+			for(EntityAttribute attribute : attributes) {
+				blackhole.consume(currentUserMatchesAllowedRoles(attribute.getRoleValues()));
+			}
+		}
+	}
+
+	/**
+	 * The check that the row mapping ran for every attribute of every row before the role masks.
+	 */
+	private boolean currentUserMatchesAllowedRoles(final Set<String> allowedRoles) {
+		@SuppressWarnings("serial")
+		final Set<String> userRolesUppercased = new HashSet<String>() {{
+			for(String role : userRoles) {
+				if(role != null) {
+					add(role.toUpperCase());
+				}
+			}
+		}};
+		@SuppressWarnings("serial")
+		final Set<String> allowedRolesUppercased = new HashSet<String>() {{
+			for(String role : allowedRoles) {
+				if(role != null) {
+					add(role.toUpperCase());
+				}
+			}
+		}};
+		return allowedRoles.isEmpty() || allowedRolesUppercased.contains("ALL") 
+				|| !disjoint(allowedRolesUppercased, userRolesUppercased);
+	}
+
+	private static boolean disjoint(Set<String> set1, Set<String> set2) {
+		for(String value : set1) {
+			if(set2.contains(value)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,226 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Date;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.infiniquery.benchmarks.model.Customer;
+import org.infiniquery.benchmarks.model.CustomerTag;
+import org.infiniquery.benchmarks.model.Region;
+
+/**
+ * The synthetic model the benchmarks run on: a configuration of any number of entities, all of them mapped on 
+ * {@link Customer}, and the rows of the in-memory database.
+ * <p>
+ * Each configured entity has the same attributes, a quarter of them allowed only to the {@link #HIDDEN_ROLE}, 
+ * and another quarter allowed to the {@link #USER_ROLES}, so that the authorization checks filter some of the 
+ * attributes out of the results.
+ * 
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+final class SyntheticModel {
+
+	/** The roles of the user running the benchmarks */
+	static final String[] USER_ROLES = { "ANALYST", "AUDITOR" };
+
+	/** The role allowed access to the attributes the user running the benchmarks cannot see */
+	static final String HIDDEN_ROLE = "ADMIN";
+
+	static final int REGION_COUNT = 50;
+
+	static final int TAGS_PER_CUSTOMER = 2;
+
+	/** The attribute names and display names of each configured entity */
+	private static final String[][] BASIC_ATTRIBUTES = {
+		{ "name", "name" }, { "email", "email" }, { "phone", "phone" }, { "street", "street" }, 
+		{ "city", "city" }, { "country", "country" }, { "postalCode", "postal code" }, { "status", "status" }, 
+		{ "segment", "segment" }, { "age", "age" }, { "score", "score" }, { "balance", "balance" }, 
+		{ "creditLimit", "credit limit" }, { "active", "active" }, { "registeredOn", "registered on" }, 
+		{ "lastLogin", "last login" }, { "notes", "notes" }
+	};
+
+	private static final int PERSIST_BATCH_SIZE = 500;
+
+	private SyntheticModel() {
+	}
+
+	/**
+	 * 
+	 * @param index the index of the configured entity, from 0
+	 * @return the display name of the configured entity
+	 */
+	static String entityDisplayName(int index) {
+		return "customers " + index;
+	}
+
+	/**
+	 * Write the configuration of the given number of entities, as an infiniquery-config.xml file.
+	 * @param file the file to write
+	 * @param entityCount the number of entities to configure
+	 * @throws IOException if the file cannot be written
+	 */
+	static void writeConfiguration(File file, int entityCount) throws IOException {
+		try (Writer writer = new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8)) {
+			writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+			writer.write("<query-context>\n");
+			writer.write("\t<findKeyword>find</findKeyword>\n");
+			writer.write("\t<entities>\n");
+			for(int i = 0; i < entityCount; i++) {
+				writer.write("\t\t<entity className=\"" + Customer.class.getName() + "\" displayName=\"" + entityDisplayName(i) + "\"" 
+						+ (i % 2 == 0 ? "" : " roles=\"" + String.join(",", USER_ROLES) + "\"") + ">\n");
+				for(int j = 0; j < BASIC_ATTRIBUTES.length; j++) {
+					writer.write("\t\t\t<attribute attributeName=\"" + BASIC_ATTRIBUTES[j][0] + "\" displayName=\"" + BASIC_ATTRIBUTES[j][1] + "\"" 
+							+ attributeRoles(j) + "/>\n");
+				}
+				writer.write("\t\t\t<attribute attributeName=\"region\" displayName=\"region\" possibleValuesQuery=\"SELECT r FROM " 
+						+ Region.class.getSimpleName() + " r\" possibleValueLabelAttribute=\"name\"/>\n");
+				writer.write("\t\t\t<attribute attributeName=\"tags\" displayName=\"tags\" possibleValuesQuery=\"SELECT t FROM " 
+						+ CustomerTag.class.getSimpleName() + " t\" possibleValueLabelAttribute=\"label\"" + attributeRoles(1) + "/>\n");
+				writer.write("\t\t</entity>\n");
+			}
+			writer.write("\t</entities>\n");
+			writer.write("</query-context>\n");
+		}
+	}
+
+	private static String attributeRoles(int attributeIndex) {
+		String roles = basicAttributeRoles(attributeIndex);
+		return roles == null ? "" : " roles=\"" + roles + "\"";
+	}
+
+	/**
+	 * 
+	 * @return the attribute names of the basic attributes of each configured entity
+	 */
+	static String[] basicAttributeNames() {
+		String[] attributeNames = new String[BASIC_ATTRIBUTES.length];
+		for(int i = 0; i < BASIC_ATTRIBUTES.length; i++) {
+			attributeNames[i] = BASIC_ATTRIBUTES[i][0];
+		}
+		return attributeNames;
+	}
+
+	/**
+	 * 
+	 * @param attributeIndex the index of a basic attribute
+	 * @return the comma separated roles allowed access to the basic attribute, or null if it is allowed to all
+	 */
+	static String basicAttributeRoles(int attributeIndex) {
+		switch (attributeIndex % 4) {
+		case 1:
+			return String.join(",", USER_ROLES);
+		case 3:
+			return HIDDEN_ROLE;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Create, without persisting it, the customer of the given index, as inserted by {@link #populate(EntityManagerFactory, int)}.
+	 * @param i the index of the customer
+	 * @param region the region of the customer
+	 * @param now the current time, in milliseconds
+	 * @return the customer, without tags
+	 */
+	static Customer newCustomer(int i, Region region, long now) {
+		Customer customer = new Customer();
+		customer.setId((long) i);
+		customer.setName("customer" + i);
+		customer.setEmail("customer" + i + "@example.org");
+		customer.setPhone("+40 700 " + (100000 + i));
+		customer.setStreet("street " + (i % 997));
+		customer.setCity("city" + (i % 100));
+		customer.setCountry("country" + (i % 20));
+		customer.setPostalCode(String.valueOf(10000 + i % 9000));
+		customer.setStatus(i % 10 == 0 ? "INACTIVE" : "ACTIVE");
+		customer.setSegment("segment" + (i % 5));
+		customer.setAge(18 + i % 60);
+		customer.setScore((i % 1000) / 10.0);
+		customer.setBalance(BigDecimal.valueOf(i * 37L % 100000, 2));
+		customer.setCreditLimit(1000L * (i % 50));
+		customer.setActive(i % 10 != 0);
+		customer.setRegisteredOn(new Date(now - (i % 3650) * 86400000L));
+		customer.setLastLogin(new Date(now - (i % 1440) * 60000L));
+		customer.setNotes(i % 3 == 0 ? null : "notes of customer " + i);
+		customer.setRegion(region);
+		return customer;
+	}
+
+	/**
+	 * Insert the regions, and the given number of customers, with their tags.
+	 * @param entityManagerFactory the factory of the entity managers of the benchmarks' persistence unit
+	 * @param customerCount the number of customers to insert
+	 */
+	static void populate(EntityManagerFactory entityManagerFactory, int customerCount) {
+		EntityManager entityManager = entityManagerFactory.createEntityManager();
+		try {
+			entityManager.getTransaction().begin();
+			Region[] regions = new Region[REGION_COUNT];
+			for(int i = 0; i < REGION_COUNT; i++) {
+				regions[i] = new Region();
+				regions[i].setId((long) i);
+				regions[i].setName("region" + i);
+				entityManager.persist(regions[i]);
+			}
+			long now = System.currentTimeMillis();
+			for(int i = 0; i < customerCount; i++) {
+				Customer customer = newCustomer(i, regions[i % REGION_COUNT], now);
+				entityManager.persist(customer);
+				for(int j = 0; j < TAGS_PER_CUSTOMER; j++) {
+					CustomerTag tag = new CustomerTag();
+					tag.setId((long) i * TAGS_PER_CUSTOMER + j);
+					tag.setLabel("tag" + (i + j) % 200);
+					tag.setCustomer(customer);
+					entityManager.persist(tag);
+				}
+				if((i + 1) % PERSIST_BATCH_SIZE == 0) {
+					entityManager.flush();
+					entityManager.clear();
+					for(int r = 0; r < REGION_COUNT; r++) {
+						regions[r] = entityManager.getReference(Region.class, (long) r);
+					}
+				}
+			}
+			entityManager.getTransaction().commit();
+		} finally {
+			entityManager.close();
+		}
+	}
+
+}
@@ -0,0 +1,424 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.infiniquery.connector.JpaConnector;
+import org.infiniquery.model.ExecutableQuery;
+import org.infiniquery.service.DatabaseAccessService;
+import org.infiniquery.service.DefaultDatabaseAccessService;
+import org.infiniquery.service.DefaultQueryModelService;
+import org.infiniquery.service.QueryMetrics;
+import org.infiniquery.service.QueryMetricsHistogram;
+import org.infiniquery.service.QueryModelService;
+import org.infiniquery.service.RecordedQuery;
+import org.infiniquery.service.SecurityService;
+import org.infiniquery.service.WorkloadRecorder;
+
+/**
+ * Replay a workload recorded by a {@link WorkloadRecorder} against the {@link SyntheticModel}, on an in-memory database 
+ * of the given number of customers, from the given number of threads, and report the throughput and the latency 
+ * percentiles of each shape of query.
+ * <p>
+ * Each thread takes the next query of the workload, runs it with the recorded roles, and takes the next one, until 
+ * the workload has been replayed the given number of times; the warm-up passes are run the same way, before, and 
+ * are not measured. The implementations of {@link QueryModelService} and {@link DatabaseAccessService} are given 
+ * by class name, so that two versions can be compared on the same workload and the same data.
+ * <p>
+ * The workload must query the entities and attributes of the synthetic configuration: the --generate option writes 
+ * such a workload, with a mix of query shapes and roles.
+ * 
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+public final class WorkloadReplay {
+
+	/** Keep a reference to the logger, so that its level is not lost when the logger is garbage collected */
+	private static final Logger HIBERNATE_LOGGER = Logger.getLogger("org.hibernate");
+
+	private static final String PERSISTENCE_UNIT_NAME = "InfiniqueryBenchmarks";
+
+	private static final String USAGE = "Usage: java -cp benchmarks.jar " + WorkloadReplay.class.getName() + " --workload <file> [options]\n"
+			+ "  --workload <file>       the workload file to replay\n"
+			+ "  --generate <count>      first write a synthetic workload of count queries to the workload file\n"
+			+ "  --threads <count>       the number of threads replaying the workload (default 4)\n"
+			+ "  --rows <count>          the number of customers in the database (default 10000)\n"
+			+ "  --entities <count>      the number of entities of the synthetic configuration (default 10)\n"
+			+ "  --passes <count>        the number of measured replays of the workload (default 3)\n"
+			+ "  --warmup <count>        the number of replays of the workload before measuring (default 1)\n"
+			+ "  --service <class>       the QueryModelService implementation (default " + DefaultQueryModelService.class.getName() + ")\n"
+			+ "  --database <class>      the DatabaseAccessService implementation (default " + DefaultDatabaseAccessService.class.getName() + ")\n"
+			+ "  --report <file>         also write the report as CSV to the given file\n"
+			+ "  --seed <number>         the seed of the generated workload (default 1)";
+
+	private final Map<String, String> options;
+
+	private WorkloadReplay(Map<String, String> options) {
+		this.options = options;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<>();
+		for(int i = 0; i < args.length; i++) {
+			if(!args[i].startsWith("--") || i + 1 == args.length) {
+				System.err.println(USAGE);
+				System.exit(1);
+			}
+			options.put(args[i].substring(2), args[++ i]);
+		}
+		if(!options.containsKey("workload")) {
+			System.err.println(USAGE);
+			System.exit(1);
+		}
+		new WorkloadReplay(options).run();
+	}
+
+	private void run() throws Exception {
+		Path workloadFile = Paths.get(options.get("workload"));
+		int threads = intOption("threads", 4);
+		int rows = intOption("rows", 10000);
+		int entities = intOption("entities", 10);
+		int passes = intOption("passes", 3);
+		int warmupPasses = intOption("warmup", 1);
+		if(options.containsKey("generate")) {
+			generateWorkload(workloadFile, intOption("generate", 0), entities, Long.parseLong(options.getOrDefault("seed", "1")));
+		}
+		List<RecordedQuery> workload = WorkloadRecorder.read(workloadFile);
+		if(workload.isEmpty()) {
+			throw new IllegalArgumentException("The workload file holds no query: " + workloadFile);
+		}
+
+		HIBERNATE_LOGGER.setLevel(java.util.logging.Level.WARNING);
+		File configFile = File.createTempFile("infiniquery-config", ".xml");
+		SyntheticModel.writeConfiguration(configFile, entities);
+		System.setProperty(JpaConnector.CONFIG_LOCATION_PROPERTY, configFile.toURI().toString());
+		EntityManagerFactory entityManagerFactory = Persistence.createEntityManagerFactory(PERSISTENCE_UNIT_NAME);
+		try {
+			SyntheticModel.populate(entityManagerFactory, rows);
+			DatabaseAccessService databaseAccessService = newInstance(options.getOrDefault("database", DefaultDatabaseAccessService.class.getName()), DatabaseAccessService.class);
+			connect(databaseAccessService, entityManagerFactory);
+			QueryModelService queryModelService = newInstance(options.getOrDefault("service", DefaultQueryModelService.class.getName()), QueryModelService.class);
+			ReplaySecurityService securityService = new ReplaySecurityService();
+			queryModelService.setDatabaseAccessService(databaseAccessService);
+			queryModelService.setSecurityService(securityService);
+			//load the query context before the first query
+			queryModelService.getEntityDisplayNames();
+
+			Map<String, ShapeStatistics> shapes = new LinkedHashMap<>();
+			ShapeStatistics[] shapeOfQuery = new ShapeStatistics[workload.size()];
+			for(int i = 0; i < workload.size(); i++) {
+				RecordedQuery query = workload.get(i);
+				String key = query.getOperation() + " " + query.getLogicalShape();
+				shapeOfQuery[i] = shapes.computeIfAbsent(key, k -> new ShapeStatistics(query.getOperation(), query.getLogicalShape()));
+			}
+
+			replay(queryModelService, securityService, workload, null, threads, warmupPasses);
+			long start = System.nanoTime();
+			replay(queryModelService, securityService, workload, shapeOfQuery, threads, passes);
+			long elapsedNanos = System.nanoTime() - start;
+
+			printReport(workloadFile, workload.size(), queryModelService, databaseAccessService, threads, rows, entities, passes, warmupPasses, shapes, elapsedNanos);
+			if(options.containsKey("report")) {
+				writeCsvReport(Paths.get(options.get("report")), shapes, elapsedNanos);
+			}
+			if(databaseAccessService instanceof DefaultDatabaseAccessService) {
+				((DefaultDatabaseAccessService) databaseAccessService).shutdown();
+			}
+		} finally {
+			entityManagerFactory.close();
+			System.clearProperty(JpaConnector.CONFIG_LOCATION_PROPERTY);
+			configFile.delete();
+		}
+	}
+
+	/**
+	 * Replay the workload the given number of times, from the given number of threads.
+	 * @param shapeOfQuery the statistics to record the latency of each query of the workload into, or null for the warm-up
+	 */
+	private static void replay(QueryModelService queryModelService, ReplaySecurityService securityService, List<RecordedQuery> workload, 
+			ShapeStatistics[] shapeOfQuery, int threads, int passes) throws Exception {
+		final long total = (long) workload.size() * passes;
+		final AtomicLong next = new AtomicLong();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> workers = new ArrayList<>(threads);
+			for(int t = 0; t < threads; t++) {
+				workers.add(executor.submit(() -> {
+					long index;
+					while((index = next.getAndIncrement()) < total) {
+						int position = (int) (index % workload.size());
+						RecordedQuery query = workload.get(position);
+						securityService.currentRoles.set(query.getRoles());
+						long start = System.nanoTime();
+						boolean failed = false;
+						try {
+							runQuery(queryModelService, query);
+						} catch (RuntimeException e) {
+							failed = true;
+						}
+						if(shapeOfQuery != null) {
+							shapeOfQuery[position].record(System.nanoTime() - start, failed);
+						}
+					}
+					securityService.currentRoles.remove();
+				}));
+			}
+			for(Future<?> worker : workers) {
+				worker.get();
+			}
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		}
+	}
+
+	private static void runQuery(QueryModelService queryModelService, RecordedQuery query) {
+		ExecutableQuery executableQuery = query.toExecutableQuery();
+		switch (query.getOperation()) {
+		case EXECUTE:
+			if(query.getOffset() > 0 || query.getLimit() > 0) {
+				queryModelService.executeQuery(executableQuery, query.getOffset(), query.getLimit());
+			} else {
+				queryModelService.executeQuery(executableQuery);
+			}
+			break;
+		case STREAM:
+			queryModelService.executeQuery(executableQuery, resultItem -> {});
+			break;
+		case COUNT:
+			queryModelService.countQuery(executableQuery);
+			break;
+		default:
+			throw new IllegalArgumentException("Unsupported operation: " + query.getOperation());
+		}
+	}
+
+	/**
+	 * Write a workload of the given number of queries on the synthetic configuration: a mix of query shapes, 
+	 * with random values and entities, sent by users with or without the hidden role.
+	 */
+	private static void generateWorkload(Path workloadFile, int count, int entities, long seed) throws IOException {
+		Files.deleteIfExists(workloadFile);
+		Set<String> userRoles = new HashSet<>(Arrays.asList(SyntheticModel.USER_ROLES));
+		Set<String> adminRoles = new HashSet<>(userRoles);
+		adminRoles.add(SyntheticModel.HIDDEN_ROLE);
+		Random random = new Random(seed);
+		try (WorkloadRecorder recorder = new WorkloadRecorder(workloadFile)) {
+			for(int i = 0; i < count; i++) {
+				String entity = SyntheticModel.entityDisplayName(random.nextInt(entities));
+				int shape = random.nextInt(10);
+				if(shape < 3) {
+					recorder.record(QueryMetrics.Operation.EXECUTE, QueryModelState.query(entity, 
+							"name", "like", "customer" + random.nextInt(100) + "%").getLogicalDimension(), userRoles, 0, 0);
+				} else if(shape < 5) {
+					recorder.record(QueryMetrics.Operation.EXECUTE, QueryModelState.query(entity, 
+							"age", "greater than", String.valueOf(18 + random.nextInt(60)), 
+							"city", "in", values("city", 1 + random.nextInt(3), 100, random)).getLogicalDimension(), userRoles, 0, 0);
+				} else if(shape < 7) {
+					recorder.record(QueryMetrics.Operation.COUNT, QueryModelState.query(entity, 
+							"region", "in", values("region", 1 + random.nextInt(3), SyntheticModel.REGION_COUNT, random)).getLogicalDimension(), userRoles, 0, 0);
+				} else if(shape < 8) {
+					recorder.record(QueryMetrics.Operation.EXECUTE, QueryModelState.query(entity, 
+							"city", "in", values("city", 1, 100, random)).getLogicalDimension(), userRoles, 50 * random.nextInt(3), 50);
+				} else if(shape < 9) {
+					recorder.record(QueryMetrics.Operation.STREAM, QueryModelState.query(entity, 
+							"score", "lower than", String.valueOf(random.nextInt(100))).getLogicalDimension(), userRoles, 0, 0);
+				} else {
+					recorder.record(QueryMetrics.Operation.EXECUTE, QueryModelState.query(entity, 
+							"status", "=", "INACTIVE", 
+							"balance", "greater than", String.valueOf(random.nextInt(1000))).getLogicalDimension(), adminRoles, 0, 0);
+				}
+			}
+		}
+	}
+
+	private static String values(String prefix, int count, int bound, Random random) {
+		StringBuilder values = new StringBuilder();
+		for(int i = 0; i < count; i++) {
+			values.append(i == 0 ? "" : ", ").append(prefix).append(random.nextInt(bound));
+		}
+		return values.toString();
+	}
+
+	/**
+	 * Make the database access service read the database of the synthetic model: through the given factory, 
+	 * if the service accepts one (through a public setEntityManagerFactory method).
+	 */
+	private static void connect(DatabaseAccessService databaseAccessService, EntityManagerFactory entityManagerFactory) throws ReflectiveOperationException {
+		if(databaseAccessService instanceof DefaultDatabaseAccessService) {
+			((DefaultDatabaseAccessService) databaseAccessService).setEntityManagerFactory(entityManagerFactory);
+			return;
+		}
+		try {
+			Method setter = databaseAccessService.getClass().getMethod("setEntityManagerFactory", EntityManagerFactory.class);
+			setter.invoke(databaseAccessService, entityManagerFactory);
+		} catch (NoSuchMethodException e) {
+			System.err.println(databaseAccessService.getClass().getName() + " has no setEntityManagerFactory method: "
+					+ "it is expected to connect by itself to the database of the persistence unit " + PERSISTENCE_UNIT_NAME);
+		}
+	}
+
+	private static <T> T newInstance(String className, Class<T> type) throws ReflectiveOperationException {
+		return Class.forName(className).asSubclass(type).getConstructor().newInstance();
+	}
+
+	private int intOption(String name, int defaultValue) {
+		String value = options.get(name);
+		int intValue = value == null ? defaultValue : Integer.parseInt(value);
+		if(intValue < (name.equals("warmup") ? 0 : 1)) {
+			throw new IllegalArgumentException("Invalid value of --" + name + ": " + value);
+		}
+		return intValue;
+	}
+
+	private static void printReport(Path workloadFile, int workloadSize, QueryModelService queryModelService, DatabaseAccessService databaseAccessService, 
+			int threads, int rows, int entities, int passes, int warmupPasses, Map<String, ShapeStatistics> shapes, long elapsedNanos) {
+		long queries = 0;
+		long errors = 0;
+		for(ShapeStatistics shape : shapes.values()) {
+			queries += shape.latency.getCount();
+			errors += shape.errors.sum();
+		}
+		System.out.println("Workload:  " + workloadFile + " (" + workloadSize + " queries, " + shapes.size() + " shapes), replayed " 
+				+ passes + " times after " + warmupPasses + " warm-up replays");
+		System.out.println("Setup:     " + threads + " threads, " + rows + " customers, " + entities + " entities");
+		System.out.println("Services:  " + queryModelService.getClass().getName() + ", " + databaseAccessService.getClass().getName());
+		System.out.println(String.format("Total:     %d queries in %.3f s, %.1f queries/s, %d errors", 
+				queries, elapsedNanos / 1e9, queries / (elapsedNanos / 1e9), errors));
+		System.out.println();
+		System.out.println(String.format("%-8s %10s %8s %10s %10s %10s %10s %10s  %s", 
+				"op", "queries", "errors", "queries/s", "p50 ms", "p99 ms", "p999 ms", "max ms", "shape"));
+		for(ShapeStatistics shape : shapes.values()) {
+			QueryMetricsHistogram shapeLatency = shape.latency;
+			System.out.println(String.format("%-8s %10d %8d %10.1f %10.3f %10.3f %10.3f %10.3f  %s", 
+					shape.operation, shapeLatency.getCount(), shape.errors.sum(), shapeLatency.getCount() / (elapsedNanos / 1e9), 
+					millis(shapeLatency.getValueAtPercentile(50)), millis(shapeLatency.getValueAtPercentile(99)), 
+					millis(shapeLatency.getValueAtPercentile(99.9)), millis(shapeLatency.getMax()), shape.logicalShape));
+		}
+	}
+
+	private static void writeCsvReport(Path reportFile, Map<String, ShapeStatistics> shapes, long elapsedNanos) throws IOException {
+		try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(reportFile, StandardCharsets.UTF_8))) {
+			writer.println("operation,shape,queries,errors,queries_per_second,mean_ms,p50_ms,p99_ms,p999_ms,max_ms");
+			for(ShapeStatistics shape : shapes.values()) {
+				QueryMetricsHistogram shapeLatency = shape.latency;
+				writer.println(String.format(Locale.ROOT, "%s,\"%s\",%d,%d,%.1f,%.3f,%.3f,%.3f,%.3f,%.3f", 
+						shape.operation, shape.logicalShape.replace("\"", "\"\""), shapeLatency.getCount(), shape.errors.sum(), 
+						shapeLatency.getCount() / (elapsedNanos / 1e9), shapeLatency.getMean() / 1e6, 
+						millis(shapeLatency.getValueAtPercentile(50)), millis(shapeLatency.getValueAtPercentile(99)), 
+						millis(shapeLatency.getValueAtPercentile(99.9)), millis(shapeLatency.getMax())));
+			}
+		}
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1e6;
+	}
+
+	/**
+	 * The latencies of the queries of one shape.
+	 */
+	private static final class ShapeStatistics {
+
+		private final QueryMetrics.Operation operation;
+
+		private final String logicalShape;
+
+		private final QueryMetricsHistogram latency = new QueryMetricsHistogram();
+
+		private final LongAdder errors = new LongAdder();
+
+		private ShapeStatistics(QueryMetrics.Operation operation, String logicalShape) {
+			this.operation = operation;
+			this.logicalShape = logicalShape;
+		}
+
+		private void record(long latencyNanos, boolean failed) {
+			latency.record(latencyNanos);
+			if(failed) {
+				errors.increment();
+			}
+		}
+	}
+
+	/**
+	 * The security service of the replayed queries: the roles are those recorded with the query the current thread runs.
+	 * The global scope attributes are not recorded, so none are given.
+	 */
+	private static final class ReplaySecurityService implements SecurityService {
+
+		private final ThreadLocal<Set<String>> currentRoles = new ThreadLocal<>();
+
+		/*
+		 * (non-Javadoc)
+		 * @see org.infiniquery.service.SecurityService#getCurrentUserRoles()
+		 */
+		@Override
+		public Set<String> getCurrentUserRoles() {
+			Set<String> roles = currentRoles.get();
+			return roles != null ? roles : Collections.<String>emptySet();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see org.infiniquery.service.SecurityService#getGlobalScopeAttributes()
+		 */
+		@Override
+		public Map<String, Object> getGlobalScopeAttributes() {
+			return Collections.emptyMap();
+		}
+	}
+}
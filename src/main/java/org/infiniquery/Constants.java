@@ -41,8 +41,12 @@ public abstract class Constants {
 	
 	public static final String DEFAULT_DATE_TIME_PATTERN = "dd-M-yyyy HH:mm:ss";
 
+    /** @deprecated not thread-safe, when shared; use {@link #DEFAULT_DATE_FORMATTER}, or the codecs of {@link org.infiniquery.model.decoder.ValueCodecs}. */
+    @Deprecated
     public static final SimpleDateFormat DEFAULT_DATE_FORMAT = new SimpleDateFormat(DEFAULT_DATE_PATTERN);
     
+    /** @deprecated not thread-safe, when shared; use {@link #DEFAULT_DATE_TIME_FORMATTER}, or the codecs of {@link org.infiniquery.model.decoder.ValueCodecs}. */
+    @Deprecated
     public static final SimpleDateFormat DEFAULT_DATE_TIME_FORMAT = new SimpleDateFormat(DEFAULT_DATE_TIME_PATTERN);
     
     public static final DateTimeFormatter DEFAULT_DATE_FORMATTER = DateTimeFormatter.ofPattern(DEFAULT_DATE_PATTERN);
@@ -52,6 +56,9 @@ public abstract class Constants {
     /** Virtual user role suggesting all users should be allowed access to a resource, regardless of their role. */
     public static final String ROLES_ALL = "ALL";
 
+    /** The location, relative to infiniquery-config.xml, of the configuration fragment generated from the annotated entities. */
+    public static final String ANNOTATED_ENTITIES_FILE_NAME = "META-INF/infiniquery/annotated-entities.xml";
+
     private Constants() {};
 
 }
@@ -0,0 +1,94 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import org.infiniquery.model.EntityAttribute;
+
+/**
+ * Marks a field, or a getter, of a class annotated with {@link InfiniqueryEntity} as an attribute of the entity. 
+ * The annotation may be repeated, to expose the same property as several attributes (e.g. a relationship shown 
+ * through different label paths).
+ *
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target({ElementType.FIELD, ElementType.METHOD})
+@Repeatable(InfiniqueryAttributes.class)
+public @interface InfiniqueryAttribute {
+
+	/**
+	 * 
+	 * @return the displayable alias of the attribute; the name of the property, if empty.
+	 */
+	String displayName() default "";
+
+	/**
+	 * 
+	 * @return the roles allowed to use the attribute, comma separated; all the roles allowed to query the entity, if empty.
+	 */
+	String roles() default "";
+
+	/**
+	 * 
+	 * @return where the attribute is available: in the query conditions, in the results, or in both.
+	 */
+	EntityAttribute.Scope scope() default EntityAttribute.Scope.all;
+
+	/**
+	 * 
+	 * @return the JPQL query retrieving the possible values of the attribute; none, if empty.
+	 */
+	String possibleValuesQuery() default "";
+
+	/**
+	 * 
+	 * @return the attribute of the possible values used as their label.
+	 */
+	String possibleValueLabelAttribute() default "";
+
+	/**
+	 * 
+	 * @return the path, starting with this attribute, to the label of its values; the attribute followed by the possibleValueLabelAttribute, if empty.
+	 */
+	String possibleValueLabelAttributePath() default "";
+
+	/**
+	 * 
+	 * @return how long, in seconds, the possible values may be cached; the default of the service, if negative.
+	 */
+	int possibleValuesTtl() default -1;
+
+}
@@ -0,0 +1,82 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a JPA entity class as queryable through infiniquery, as an alternative to configuring it in infiniquery-config.xml.
+ * Its attributes are the fields and getters annotated with {@link InfiniqueryAttribute}, in declaration order 
+ * (the ones inherited from the superclasses first).
+ * <p>
+ * The annotations are read at compile time by {@link org.infiniquery.annotation.processing.InfiniqueryAnnotationProcessor}, 
+ * into a configuration fragment included automatically after the entities configured in infiniquery-config.xml, 
+ * so they are not retained at runtime.
+ *
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface InfiniqueryEntity {
+
+	/**
+	 * 
+	 * @return the displayable alias of the entity; the simple name of the class, if empty.
+	 */
+	String displayName() default "";
+
+	/**
+	 * 
+	 * @return the roles allowed to query the entity, comma separated; all the roles, if empty.
+	 */
+	String roles() default "";
+
+	/**
+	 * 
+	 * @return the JPQL condition added to every query on the entity, as the additionalFilter of the xml configuration; none, if empty.
+	 */
+	String additionalFilter() default "";
+
+	/**
+	 * 
+	 * @return the maximum number of results of a query on the entity; the global limit, if 0.
+	 */
+	int resultsLimit() default 0;
+
+	/**
+	 * 
+	 * @return the timeout, in seconds, of the queries on the entity; the global timeout, if 0.
+	 */
+	int queryTimeout() default 0;
+
+}
@@ -0,0 +1,332 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.annotation.processing;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.persistence.Entity;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+import org.infiniquery.Constants;
+import org.infiniquery.annotation.InfiniqueryAttribute;
+import org.infiniquery.annotation.InfiniqueryEntity;
+import org.infiniquery.model.EntityAttribute;
+
+/**
+ * Annotation processor turning the entities annotated with {@link InfiniqueryEntity} into a configuration fragment, 
+ * generated as {@link Constants#ANNOTATED_ENTITIES_FILE_NAME} in the root of the class output, which is included 
+ * automatically after the entities configured in infiniquery-config.xml (and which the {@link org.infiniquery.connector.QueryContextCompiler} 
+ * precompiles along with them).
+ * <p>
+ * The annotated classes are checked at compile time: they must be JPA entities, the annotated methods must be getters, 
+ * the display names must be unique within each entity, and the attributes shown in the results must have public getters.
+ * The entities are written in the order of their class names, so the fragment does not depend on the order of compilation.
+ * On a partial (incremental) compilation, the fragment left by the previous compilation is merged: its entities whose classes 
+ * are not compiled again are kept, as long as the classes still exist and are still annotated.
+ * <p>
+ * The processor is registered as a service, so it runs whenever infiniquery is on the compile classpath.
+ *
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+@SupportedAnnotationTypes("org.infiniquery.annotation.InfiniqueryEntity")
+public class InfiniqueryAnnotationProcessor extends AbstractProcessor {
+
+	/** The entity elements written by {@link #describeEntity(TypeElement)}, as found in a previously generated fragment */
+	private static final Pattern ENTITY_ELEMENT_PATTERN = Pattern.compile("  <entity className=\"([^\"]+)\".*?  </entity>\n", Pattern.DOTALL);
+
+	/** The entity elements of the fragment, by binary class name */
+	private final Map<String, String> entityElements = new TreeMap<>();
+
+	/*
+	 * (non-Javadoc)
+	 * @see javax.annotation.processing.AbstractProcessor#getSupportedSourceVersion()
+	 */
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see javax.annotation.processing.AbstractProcessor#process(java.util.Set, javax.annotation.processing.RoundEnvironment)
+	 */
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		for(Element element : roundEnv.getElementsAnnotatedWith(InfiniqueryEntity.class)) {
+			if(element.getKind() != ElementKind.CLASS) {
+				error(element, "@InfiniqueryEntity can only annotate classes.");
+				continue;
+			}
+			TypeElement type = (TypeElement) element;
+			String entityElement = describeEntity(type);
+			if(entityElement != null) {
+				entityElements.put(processingEnv.getElementUtils().getBinaryName(type).toString(), entityElement);
+			}
+		}
+		if(roundEnv.processingOver() && !entityElements.isEmpty()) {
+			mergePreviousFragment();
+			writeFragment();
+		}
+		return true;
+	}
+
+	/**
+	 * 
+	 * @return the entity element describing the given class, or null if the annotations of the class are not valid
+	 */
+	private String describeEntity(TypeElement type) {
+		boolean valid = true;
+		if(type.getAnnotation(Entity.class) == null) {
+			error(type, "@InfiniqueryEntity can only annotate JPA entities (classes annotated with @javax.persistence.Entity).");
+			valid = false;
+		}
+		InfiniqueryEntity entity = type.getAnnotation(InfiniqueryEntity.class);
+		if(entity.resultsLimit() < 0 || entity.queryTimeout() < 0) {
+			error(type, "The resultsLimit and the queryTimeout of @InfiniqueryEntity cannot be negative.");
+			valid = false;
+		}
+		StringBuilder xml = new StringBuilder("  <entity");
+		appendAttribute(xml, "className", processingEnv.getElementUtils().getBinaryName(type).toString());
+		appendAttribute(xml, "displayName", entity.displayName().isEmpty() ? type.getSimpleName().toString() : entity.displayName());
+		appendAttribute(xml, "roles", entity.roles());
+		appendAttribute(xml, "additionalFilter", entity.additionalFilter());
+		appendAttribute(xml, "resultsLimit", entity.resultsLimit() == 0 ? "" : String.valueOf(entity.resultsLimit()));
+		appendAttribute(xml, "queryTimeout", entity.queryTimeout() == 0 ? "" : String.valueOf(entity.queryTimeout()));
+		xml.append(">\n");
+		List<TypeElement> hierarchy = getHierarchy(type);
+		Set<String> displayNames = new HashSet<>();
+		for(TypeElement declaringType : hierarchy) {
+			for(Element member : declaringType.getEnclosedElements()) {
+				InfiniqueryAttribute[] attributes = member.getAnnotationsByType(InfiniqueryAttribute.class);
+				if(attributes.length == 0) {
+					continue;
+				}
+				String propertyName = getPropertyName(member);
+				if(propertyName == null) {
+					error(member, "@InfiniqueryAttribute can only annotate fields and getters.");
+					valid = false;
+					continue;
+				}
+				for(InfiniqueryAttribute attribute : attributes) {
+					valid &= describeAttribute(xml, hierarchy, member, propertyName, attribute, displayNames);
+				}
+			}
+		}
+		xml.append("  </entity>\n");
+		return valid ? xml.toString() : null;
+	}
+
+	private boolean describeAttribute(StringBuilder xml, List<TypeElement> hierarchy, Element member, String propertyName, InfiniqueryAttribute attribute, Set<String> displayNames) {
+		boolean valid = true;
+		String displayName = attribute.displayName().isEmpty() ? propertyName : attribute.displayName();
+		if(!displayNames.add(displayName)) {
+			error(member, "Duplicate attribute display name within the entity: " + displayName);
+			valid = false;
+		}
+		if(attribute.scope() != EntityAttribute.Scope.query && !hasPublicGetter(hierarchy, propertyName)) {
+			error(member, "No public getter found for property " + propertyName + ". Infiniquery exposes, in the results, only entity attributes that are exposed through public getter methods. Either add a public getter, or set the scope of the attribute to query.");
+			valid = false;
+		}
+		xml.append("   <attribute");
+		appendAttribute(xml, "attributeName", propertyName);
+		appendAttribute(xml, "displayName", displayName);
+		appendAttribute(xml, "roles", attribute.roles());
+		appendAttribute(xml, "scope", attribute.scope() == EntityAttribute.Scope.all ? "" : attribute.scope().name());
+		appendAttribute(xml, "possibleValuesQuery", attribute.possibleValuesQuery());
+		appendAttribute(xml, "possibleValueLabelAttribute", attribute.possibleValueLabelAttribute());
+		appendAttribute(xml, "possibleValueLabelAttributePath", attribute.possibleValueLabelAttributePath());
+		appendAttribute(xml, "possibleValuesTtl", attribute.possibleValuesTtl() < 0 ? "" : String.valueOf(attribute.possibleValuesTtl()));
+		xml.append("/>\n");
+		return valid;
+	}
+
+	/**
+	 * 
+	 * @return the given class and its superclasses, starting with the topmost one (below Object)
+	 */
+	private List<TypeElement> getHierarchy(TypeElement type) {
+		List<TypeElement> hierarchy = new ArrayList<>();
+		for(TypeElement crtType = type; crtType != null; ) {
+			hierarchy.add(crtType);
+			TypeMirror superclass = crtType.getSuperclass();
+			crtType = null;
+			if(superclass.getKind() == TypeKind.DECLARED) {
+				TypeElement superType = (TypeElement) ((DeclaredType) superclass).asElement();
+				if(!superType.getQualifiedName().contentEquals(Object.class.getName())) {
+					crtType = superType;
+				}
+			}
+		}
+		Collections.reverse(hierarchy);
+		return hierarchy;
+	}
+
+	/**
+	 * 
+	 * @return the name of the property of the given field or getter, or null if the member is neither
+	 */
+	private static String getPropertyName(Element member) {
+		if(member.getKind() == ElementKind.FIELD) {
+			return member.getSimpleName().toString();
+		}
+		if(member.getKind() != ElementKind.METHOD) {
+			return null;
+		}
+		ExecutableElement method = (ExecutableElement) member;
+		String methodName = method.getSimpleName().toString();
+		if(!method.getParameters().isEmpty() || method.getReturnType().getKind() == TypeKind.VOID) {
+			return null;
+		}
+		for(String prefix : new String[] {"get", "is"}) {
+			if(methodName.startsWith(prefix) && methodName.length() > prefix.length()) {
+				return Character.toLowerCase(methodName.charAt(prefix.length())) + methodName.substring(prefix.length() + 1);
+			}
+		}
+		return null;
+	}
+
+	private static boolean hasPublicGetter(List<TypeElement> hierarchy, String propertyName) {
+		String capitalizedName = Character.toUpperCase(propertyName.charAt(0)) + propertyName.substring(1);
+		for(TypeElement type : hierarchy) {
+			for(ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+				String methodName = method.getSimpleName().toString();
+				if((methodName.equals("get" + capitalizedName) || methodName.equals("is" + capitalizedName)) 
+						&& method.getParameters().isEmpty() && method.getModifiers().contains(Modifier.PUBLIC)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Add the entities of the fragment generated by a previous compilation whose classes were not compiled this time, 
+	 * so that a partial compilation does not drop them. The entities of the classes which no longer exist, or are no 
+	 * longer annotated, are left out.
+	 */
+	private void mergePreviousFragment() {
+		String previousFragment;
+		try {
+			FileObject fragment = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", Constants.ANNOTATED_ENTITIES_FILE_NAME);
+			try (Reader reader = fragment.openReader(true)) {
+				StringBuilder content = new StringBuilder();
+				char[] buffer = new char[8192];
+				for(int read; (read = reader.read(buffer)) != -1; ) {
+					content.append(buffer, 0, read);
+				}
+				previousFragment = content.toString();
+			}
+		} catch (IOException e) {
+			return; // no previous fragment
+		}
+		Matcher matcher = ENTITY_ELEMENT_PATTERN.matcher(previousFragment);
+		while(matcher.find()) {
+			String className = matcher.group(1);
+			if(entityElements.containsKey(className)) {
+				continue;
+			}
+			TypeElement type = processingEnv.getElementUtils().getTypeElement(className.replace('$', '.'));
+			if(type != null && type.getAnnotation(InfiniqueryEntity.class) != null) {
+				entityElements.put(className, matcher.group());
+			}
+		}
+	}
+
+	private void writeFragment() {
+		try {
+			FileObject fragment = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", Constants.ANNOTATED_ENTITIES_FILE_NAME);
+			try (Writer writer = new OutputStreamWriter(fragment.openOutputStream(), StandardCharsets.UTF_8)) {
+				writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+				writer.write("<!-- Generated by " + getClass().getName() + " from the classes annotated with @InfiniqueryEntity. Do not edit. -->\n");
+				writer.write("<entities>\n");
+				for(String entityElement : entityElements.values()) {
+					writer.write(entityElement);
+				}
+				writer.write("</entities>\n");
+			}
+		} catch (IOException e) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Unable to write " + Constants.ANNOTATED_ENTITIES_FILE_NAME + ": " + e.getMessage());
+		}
+	}
+
+	private void error(Element element, String message) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+	}
+
+	/**
+	 * Append the given xml attribute, unless its value is empty.
+	 */
+	private static void appendAttribute(StringBuilder xml, String name, String value) {
+		if(value.isEmpty()) {
+			return;
+		}
+		xml.append(' ').append(name).append("=\"");
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch(c) {
+				case '&' : xml.append("&amp;"); break;
+				case '<' : xml.append("&lt;"); break;
+				case '>' : xml.append("&gt;"); break;
+				case '"' : xml.append("&quot;"); break;
+				case '\n' : xml.append("&#10;"); break;
+				case '\r' : xml.append("&#13;"); break;
+				case '\t' : xml.append("&#9;"); break;
+				default : xml.append(c);
+			}
+		}
+		xml.append('"');
+	}
+}
@@ -26,30 +26,13 @@
 
 package org.infiniquery.connector;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.net.MalformedURLException;
+import java.net.URL;
 
 import javax.persistence.EntityManager;
-import javax.persistence.EntityManagerFactory;
-import javax.persistence.Persistence;
-import javax.persistence.Query;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
-import org.infiniquery.model.EntityAttribute;
 import org.infiniquery.model.InfiniqueryContext;
-import org.infiniquery.model.JpaEntity;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 /**
  * Connector of the Infiniquery framework for working with Java Persistence API Query Language.
@@ -59,151 +42,84 @@ import org.w3c.dom.NodeList;
  */
 public class JpaConnector {
 
-	private static String DEFAULT_PERSISTENCE_UNIT_NAME = "TestUnit";
-	private static EntityManager em;
-	private static boolean setUpCompleted = false;
-	
-	private static void lazyInit() {
-		if(! setUpCompleted) {
-			EntityManagerFactory factory = Persistence.createEntityManagerFactory(DEFAULT_PERSISTENCE_UNIT_NAME);
-			em = factory.createEntityManager();
-		}
-	}
-	
+	private static final String CONFIG_FILE_NAME = "infiniquery-config.xml";
+	/** The system property overriding the location of the configuration file: a URL, or the name of a classpath resource */
+	public static final String CONFIG_LOCATION_PROPERTY = "infiniquery.config";
+	static final String PRECOMPILED_CONFIG_FILE_NAME = "META-INF/infiniquery/infiniquery-config.idx";
+
+	/**
+	 * @deprecated Infiniquery no longer reads the configuration through an entity manager: the possible values 
+	 * of the attributes are read by the {@link org.infiniquery.service.DatabaseAccessService}. This method has no effect.
+	 * @param entityManager ignored
+	 */
+	@Deprecated
 	public static void setEntityManager(EntityManager entityManager) {
-		if(entityManager != null ) {
-			em = entityManager;
-			setUpCompleted = true;
-		}
-		
+	}
+
+	/**
+	 * @deprecated This connector no longer creates an entity manager factory, so there is nothing to close. 
+	 * This method has no effect.
+	 */
+	@Deprecated
+	public static void shutdown() {
 	}
 
 	/**
 	 * Retrieve the {@link InfiniqueryContext}, by reading the infiniquery-config.xml configuration file. 
 	 * This file is expected to be found in the root of the application's classpath.
+	 * <p>
+	 * If the configuration has been precompiled at build time by {@link QueryContextCompiler}, the context is read from 
+	 * the precompiled index instead, without parsing the configuration. If the configuration files have changed since 
+	 * the index was written, they are read as usual.
+	 * <p>
+	 * The location of the configuration file can be overridden by the {@value #CONFIG_LOCATION_PROPERTY} system property, 
+	 * holding either a URL or the name of a classpath resource.
 	 * 
 	 * @return an instance of {@link InfiniqueryContext} representing the content of the configuration file.
 	 * @throws ParserConfigurationException if the xml file is invalid
 	 */
 	public static InfiniqueryContext getDynamicQueryContext() throws ParserConfigurationException {
-		lazyInit();
-		
-		InputStream configInputStream = JpaConnector.class.getClassLoader().getResourceAsStream("infiniquery-config.xml");
-
-		DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-	    DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-	    Document doc = null;
-	    try {
-	        doc = dBuilder.parse(configInputStream);
-		    Element documentElement = doc.getDocumentElement();
-		    documentElement.normalize();
-		    
-		    InfiniqueryContext context = new InfiniqueryContext();
-		    context.setFindKeyword(extractFindKeyword(doc));
-		    context.setEntities(Collections.unmodifiableList(extractEntities(doc)));
-		    
-		    return context;
-	    } catch (Exception e) {
-	        throw new RuntimeException(e.getMessage(), e);
-	    }
-
-	}
-	
-	private static String extractFindKeyword(Document doc) {
-		NodeList nodeList = doc.getElementsByTagName("findKeyword");
-		if(nodeList == null || nodeList.getLength() == 0) {
-			throw new RuntimeException("Invalid configuration file! No definition for findKeyword could be found.");
-		} else if(nodeList.getLength() != 1) {
-			throw new RuntimeException("Invalid configuration file! More than one findKeyword found.");
-		} else {
-			final String findKeyword = nodeList.item(0).getTextContent();
-			if(findKeyword == null || findKeyword.isEmpty()) {
-				throw new RuntimeException("Invalid configuration file! Empty findKeyword tag. You need to specify a value.");
-			} else {
-				return findKeyword;
+		URL configUrl = resolveConfigUrl();
+		URL indexUrl = JpaConnector.class.getClassLoader().getResource(PRECOMPILED_CONFIG_FILE_NAME);
+		if(indexUrl != null) {
+			InfiniqueryContext precompiledContext = QueryContextIndex.read(indexUrl, configUrl, JpaConnector.class.getClassLoader());
+			if(precompiledContext != null) {
+				return precompiledContext;
 			}
 		}
-	}
-	
-	private static List<JpaEntity> extractEntities(Document doc) {
-	    NodeList entityNodes = doc.getElementsByTagName("entity");
-	    final int entitiesCount = entityNodes.getLength();
-		List<JpaEntity> entities = new ArrayList<>(entitiesCount);
-	    for(int i=0; i<entitiesCount; i++) {
-	    	Node entityNode = entityNodes.item(i);
-	    	NamedNodeMap attributes = entityNode.getAttributes();
-	    	final Node rolesNode = attributes.getNamedItem("roles");
-	    	final Node additionalFilterNode = attributes.getNamedItem("additionalFilter");
-	    	JpaEntity entity = JpaEntity.newBuilder()
-	    		.withClassName(attributes.getNamedItem("className").getNodeValue())
-	    		.withDisplayName(attributes.getNamedItem("displayName").getNodeValue())
-	    		.withRoles(rolesNode == null ? null : rolesNode.getNodeValue())
-	    		.withAttributes(extractAttributes(entityNode))
-	    		.withAdditionalFilter(additionalFilterNode == null ? null : additionalFilterNode.getNodeValue())
-	    		.build();
-	    	entities.add(entity);
-	    }
-	    return entities;
+		return getDynamicQueryContext(configUrl);
 	}
 
-	private static List<EntityAttribute> extractAttributes(Node entityNode) {
-		NodeList attributeNodes = ((Element)entityNode).getElementsByTagName("attribute");
-		List<EntityAttribute> attributeList = new ArrayList<>(attributeNodes.getLength());
-		for(int i=0; i<attributeNodes.getLength(); i++) {
-			Node attributeNode = attributeNodes.item(i);
-			NamedNodeMap attributes = attributeNode.getAttributes();
-			EntityAttribute entityAttribute = new EntityAttribute(
-					attributes.getNamedItem("attributeName").getNodeValue(),
-					attributes.getNamedItem("displayName").getNodeValue(),
-					attributes.getNamedItem("roles") == null ? null : attributes.getNamedItem("roles").getNodeValue(),
-					attributes.getNamedItem("possibleValuesQuery") == null ? null : attributes.getNamedItem("possibleValuesQuery").getNodeValue(),
-					attributes.getNamedItem("possibleValueLabelAttribute") == null ? null : attributes.getNamedItem("possibleValueLabelAttribute").getNodeValue(),
-					attributes.getNamedItem("possibleValueLabelAttributePath") == null ? null : attributes.getNamedItem("possibleValueLabelAttributePath").getNodeValue(),
-					new Boolean(attributes.getNamedItem("displayOnly") == null ? null : attributes.getNamedItem("displayOnly").getNodeValue()),
-					attributes.getNamedItem("scope") == null ? null : attributes.getNamedItem("scope").getNodeValue()
-					);
-			attributeList.add(entityAttribute);
+	private static URL resolveConfigUrl() {
+		String configLocation = System.getProperty(CONFIG_LOCATION_PROPERTY);
+		if(configLocation == null || configLocation.trim().isEmpty()) {
+			URL configUrl = JpaConnector.class.getClassLoader().getResource(CONFIG_FILE_NAME);
+			if(configUrl == null) {
+				throw new RuntimeException("Invalid configuration! No " + CONFIG_FILE_NAME + " could be found in the root of the classpath.");
+			}
+			return configUrl;
 		}
-		return attributeList;
-	}
-
-	private static List<String> extractHardcodedAttributePossibleValues(NamedNodeMap attributes) {
-		String[] possibleValuesArray = attributes.getNamedItem("possibleValues").getNodeValue().split(",");
-		List<String> possibleValues = new ArrayList<>(possibleValuesArray.length);
-		for(String possibleValue : possibleValuesArray) {
-			possibleValues.add(possibleValue.trim());
+		try {
+			return new URL(configLocation.trim());
+		} catch (MalformedURLException e) {
+			URL configUrl = JpaConnector.class.getClassLoader().getResource(configLocation.trim());
+			if(configUrl == null) {
+				throw new RuntimeException("Invalid configuration! The " + CONFIG_LOCATION_PROPERTY + " system property is neither a URL, nor a classpath resource: " + configLocation, e);
+			}
+			return configUrl;
 		}
-		return possibleValues;
-	}
-
-	private static List<?> extractAttributePossibleValuesFromSource(NamedNodeMap attributes) {
-		String sourceEntityName = attributes.getNamedItem("possibleValuesSource").getNodeValue().trim();
-		Query query = em.createQuery("select e from " + sourceEntityName + " e");
-		return query.getResultList();
-	}
-
-	private static List<?> extractAttributePossibleValuesFromQuery(NamedNodeMap attributes) {
-		String possibleValuesQuery = attributes.getNamedItem("possibleValuesQuery").getNodeValue().trim();
-		Query query = em.createQuery(possibleValuesQuery);
-		return query.getResultList();
 	}
 
-    /**
-     * Read the content from an InputStream, assuming it is a stream serving only text.
-     * @param inputStream
-     * @return the full text from the given InputStream
-     */
-	private static String readResourceContent(InputStream inputStream) {
-		try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream));) {
-			StringBuilder stringBuilder = new StringBuilder();
-			String line;
-			while ((line = bufferedReader.readLine()) != null) {
-				stringBuilder.append(line).append("\n");
-			}
-			return stringBuilder.toString();
-		}
-		catch (IOException e) {
-			throw new RuntimeException(e.getMessage(), e);
-		}
+	/**
+	 * Retrieve the {@link InfiniqueryContext}, by reading the configuration file at the given location, and the configuration 
+	 * fragments it includes. The configuration is read by a streaming parser, and without bootstrapping the persistence unit.
+	 * The entities which cannot be built (e.g. because their class cannot be loaded) are left out of the context, with their 
+	 * problems recorded in {@link InfiniqueryContext#getEntityLoadErrors()}.
+	 * 
+	 * @param configUrl the location of the configuration file
+	 * @return an instance of {@link InfiniqueryContext} representing the content of the configuration file.
+	 */
+	public static InfiniqueryContext getDynamicQueryContext(URL configUrl) {
+		return QueryContextReader.read(configUrl);
 	}
 }
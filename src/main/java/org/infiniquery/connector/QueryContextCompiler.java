@@ -0,0 +1,246 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.connector;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.infiniquery.model.EntityAttribute;
+import org.infiniquery.model.InfiniqueryContext;
+import org.infiniquery.model.JpaEntity;
+import org.infiniquery.util.PropertyAccessors;
+
+/**
+ * Build-time compiler of the infiniquery configuration into a precompiled, compact binary index.
+ * <p>
+ * The compiler reads the configuration file and the fragments it includes, validates it against the entity classes 
+ * (which must be on its classpath), and writes the index of the resulting context, which is then read at startup instead 
+ * of the configuration, as long as the configuration files have not changed since.
+ * The configuration is invalid if any entity class cannot be loaded, if the type of any attribute cannot be resolved, 
+ * if any attribute shown in the results has no public getter, or if no operators are defined for the type of any 
+ * attribute available in queries, or if any of its values is longer than the index supports. All the problems found 
+ * in the entities and their attributes are reported together; a configuration file which cannot be parsed fails on its 
+ * first error.
+ * <p>
+ * It is meant to run in the build of the application, after the entity classes are compiled, e.g. by exec-maven-plugin 
+ * (goal java, phase process-classes) with the arguments:
+ * <pre>
+ * ${project.build.outputDirectory}/infiniquery-config.xml  ${project.build.outputDirectory}
+ * </pre>
+ *
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+public final class QueryContextCompiler {
+
+	private QueryContextCompiler() {
+	}
+
+	/**
+	 * Compile the configuration file into an index, written as META-INF/infiniquery/infiniquery-config.idx
+	 * in the given output directory.
+	 * @param args the configuration file, and the output directory (the root of the classpath, next to the configuration file).
+	 * @throws IOException if the index cannot be written
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length != 2) {
+			throw new IllegalArgumentException("Usage: QueryContextCompiler <configuration file> <output directory>");
+		}
+		Path indexFile = Paths.get(args[1], JpaConnector.PRECOMPILED_CONFIG_FILE_NAME);
+		Files.createDirectories(indexFile.getParent());
+		try (OutputStream outputStream = Files.newOutputStream(indexFile)) {
+			compile(new File(args[0]).toURI().toURL(), outputStream);
+		}
+	}
+
+	/**
+	 * Read and validate the configuration at the given location, and write the index of the context it configures.
+	 * @param configUrl the location of the main configuration file
+	 * @param outputStream the stream to write the index to
+	 * @throws IllegalArgumentException if the configuration is not valid against the entity classes
+	 * @throws IOException if the index cannot be written
+	 */
+	public static void compile(URL configUrl, OutputStream outputStream) throws IOException {
+		List<String> errors = new ArrayList<>();
+		InfiniqueryContext context = QueryContextReader.read(configUrl);
+		for(Map.Entry<String, String> loadError : context.getEntityLoadErrors().entrySet()) {
+			errors.add("entity " + loadError.getKey() + ": " + loadError.getValue());
+		}
+		checkWritable("findKeyword: ", context.getFindKeyword(), errors);
+		for(JpaEntity entity : context.getEntities()) {
+			validate(entity, errors);
+			for(EntityAttribute attribute : entity.getAttributes()) {
+				validate(entity, attribute, errors);
+			}
+		}
+		if(!errors.isEmpty()) {
+			StringBuilder message = new StringBuilder("Invalid configuration file! ").append(errors.size()).append(" problem(s) found:");
+			for(String error : errors) {
+				message.append("\n  ").append(error);
+			}
+			throw new IllegalArgumentException(message.toString());
+		}
+		QueryContextIndex.write(context, relativeSources(configUrl, context.getConfigurationSources()), digest(context.getConfigurationSources()), outputStream);
+	}
+
+	/**
+	 * Compute the digest identifying the content of the given configuration files.
+	 * @param sources the locations of the configuration files, in the order they are read
+	 * @return the hexadecimal SHA-256 digest of their content, or null if any of them cannot be read
+	 */
+	public static String digest(List<URL> sources) {
+		MessageDigest messageDigest;
+		try {
+			messageDigest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e.getMessage(), e);
+		}
+		byte[] buffer = new byte[8192];
+		for(URL source : sources) {
+			try (InputStream inputStream = source.openStream()) {
+				for(int read = inputStream.read(buffer); read != -1; read = inputStream.read(buffer)) {
+					messageDigest.update(buffer, 0, read);
+				}
+			} catch (IOException e) {
+				return null;
+			}
+			//separate the files, so moving content from one to another changes the digest
+			messageDigest.update((byte) 0);
+		}
+		StringBuilder hex = new StringBuilder();
+		for(byte b : messageDigest.digest()) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Resolve the locations of the configuration files compiled into an index, relative to the main configuration file found at runtime.
+	 * @param configUrl the location of the main configuration file
+	 * @param relativeSources the locations relative to the main configuration file, as recorded in the index
+	 * @return the resolved locations
+	 */
+	static List<URL> resolveSources(URL configUrl, List<String> relativeSources) {
+		List<URL> sources = new ArrayList<>(relativeSources.size());
+		for(String relativeSource : relativeSources) {
+			try {
+				sources.add(new URL(configUrl, relativeSource));
+			} catch (MalformedURLException e) {
+				throw new RuntimeException("Invalid configuration source: " + relativeSource, e);
+			}
+		}
+		return sources;
+	}
+
+	private static List<String> relativeSources(URL configUrl, List<URL> sources) {
+		List<String> relativeSources = new ArrayList<>(sources.size());
+		try {
+			URI directory = configUrl.toURI().resolve(".");
+			for(URL source : sources) {
+				URI relativeSource = directory.relativize(source.toURI());
+				if(relativeSource.isAbsolute()) {
+					throw new IllegalArgumentException("Invalid configuration file! The included fragment " + source + " is outside the directory of the configuration file, so it cannot be precompiled.");
+				}
+				relativeSources.add(relativeSource.toString());
+			}
+		} catch (URISyntaxException e) {
+			throw new IllegalArgumentException("Invalid configuration source: " + e.getInput(), e);
+		}
+		return relativeSources;
+	}
+
+	private static void validate(JpaEntity entity, List<String> errors) {
+		String location = "entity " + entity.getDisplayName() + ": ";
+		checkWritable(location, entity.getClassName(), errors);
+		checkWritable(location, entity.getDisplayName(), errors);
+		checkWritable(location, entity.getRoles(), errors);
+		checkWritable(location, entity.getAdditionalFilter(), errors);
+	}
+
+	private static void validate(JpaEntity entity, EntityAttribute attribute, List<String> errors) {
+		String location = "attribute " + attribute.getDisplayName() + " of entity " + entity.getDisplayName() + ": ";
+		checkWritable(location, attribute.getAttributeName(), errors);
+		checkWritable(location, attribute.getDisplayName(), errors);
+		checkWritable(location, attribute.getRoles(), errors);
+		checkWritable(location, attribute.getPossibleValuesQuery(), errors);
+		checkWritable(location, attribute.getPossibleValueLabelAttribute(), errors);
+		checkWritable(location, attribute.getPossibleValueLabelAttributePath(), errors);
+		if(attribute.getType() == null) {
+			errors.add(location + "no field or public getter found for " + attribute.getAttributeName() + " in class " + entity.getClassName());
+			return;
+		}
+		if(isAvailableForResults(attribute)) {
+			try {
+				PropertyAccessors.resolveGetterMethod(attribute.getAttributeName(), entity.getEntityClass());
+			} catch (RuntimeException e) {
+				errors.add(location + e.getMessage());
+			}
+		}
+		if(attribute.getAssociationPath().size() >= Integer.SIZE) {
+			errors.add(location + "the label path navigates too many relationships");
+		}
+		if(isAvailableForQuery(attribute)) {
+			try {
+				attribute.getApplicableOperatorNames();
+			} catch (RuntimeException e) {
+				errors.add(location + "no operators are defined for the type " + attribute.getType().getName());
+			}
+		}
+	}
+
+	/**
+	 * The strings of the index are written in modified UTF-8, which limits their encoded length.
+	 */
+	private static void checkWritable(String location, String value, List<String> errors) {
+		if(!QueryContextIndex.isWritable(value)) {
+			errors.add(location + "the value starting with \"" + value.substring(0, 40) + "\" is too long to be precompiled (" 
+					+ value.length() + " characters, while at most " + QueryContextIndex.MAX_STRING_BYTES + " bytes are supported)");
+		}
+	}
+
+	private static boolean isAvailableForResults(EntityAttribute attribute) {
+		return attribute.getScope() != EntityAttribute.Scope.query;
+	}
+
+	static boolean isAvailableForQuery(EntityAttribute attribute) {
+		return attribute.getScope() != EntityAttribute.Scope.results;
+	}
+}
@@ -0,0 +1,365 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.connector;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.infiniquery.model.EntityAttribute;
+import org.infiniquery.model.InfiniqueryContext;
+import org.infiniquery.model.JpaEntity;
+import org.infiniquery.util.PropertyAccessors;
+
+/**
+ * Compact binary index of a query context, written at build time by {@link QueryContextCompiler} and read at startup 
+ * instead of the configuration files it was compiled from.
+ * <p>
+ * The index holds the content of the configuration together with the metadata resolved from the entity classes 
+ * (the id attributes, the attribute types, the relationship paths and the applicable operators), so reading it involves 
+ * neither parsing the configuration, nor any reflective lookups: the classes are loaded by name, and the getters are 
+ * resolved only when first used. Each distinct string is written once, and then referred to by its position.
+ * <p>
+ * The index also records the configuration files it was compiled from, relative to the main configuration file, and 
+ * the digest of their content, so it is ignored if they have changed since.
+ *
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+final class QueryContextIndex {
+
+	private static final int MAGIC = 0x49514958;
+
+	private static final int VERSION = 2;
+
+	/** The maximum length of the strings of the index, once encoded in modified UTF-8 (by DataOutputStream.writeUTF) */
+	static final int MAX_STRING_BYTES = 65535;
+
+	private static final byte ACCESSOR_GETTER = 0;
+
+	private static final byte ACCESSOR_UNRESOLVED = 1;
+
+	private static final Map<String, Class<?>> PRIMITIVE_TYPES = new HashMap<>();
+
+	static {
+		for(Class<?> primitiveType : Arrays.<Class<?>>asList(boolean.class, byte.class, char.class, short.class, int.class, long.class, float.class, double.class, void.class)) {
+			PRIMITIVE_TYPES.put(primitiveType.getName(), primitiveType);
+		}
+	}
+
+	private QueryContextIndex() {
+	}
+
+	/**
+	 * Write the index of the given context.
+	 * @param context the context read from the configuration files, with its entities built against the entity classes
+	 * @param relativeSources the locations of the configuration files, relative to the main configuration file
+	 * @param digest the digest of the content of the configuration files
+	 * @param outputStream the stream to write to
+	 * @throws IOException if the index cannot be written
+	 */
+	static void write(InfiniqueryContext context, List<String> relativeSources, String digest, OutputStream outputStream) throws IOException {
+		IndexWriter out = new IndexWriter(new DataOutputStream(new BufferedOutputStream(outputStream)));
+		out.data.writeInt(MAGIC);
+		out.data.writeShort(VERSION);
+		out.writeStrings(relativeSources);
+		out.writeString(digest);
+		out.writeString(context.getFindKeyword());
+		out.writeInteger(context.getResultsLimit());
+		out.writeInteger(context.getQueryTimeout());
+		out.data.writeInt(context.getEntities().size());
+		for(JpaEntity entity : context.getEntities()) {
+			out.writeString(entity.getClassName());
+			out.writeString(entity.getDisplayName());
+			out.writeString(entity.getRoles());
+			out.writeString(entity.getAdditionalFilter());
+			out.writeInteger(entity.getResultsLimit());
+			out.writeInteger(entity.getQueryTimeout());
+			out.writeString(entity.getIdAttributeName());
+			out.data.writeInt(entity.getAttributes().size());
+			for(EntityAttribute attribute : entity.getAttributes()) {
+				writeAttribute(out, entity, attribute);
+			}
+		}
+		out.data.flush();
+	}
+
+	private static void writeAttribute(IndexWriter out, JpaEntity entity, EntityAttribute attribute) throws IOException {
+		out.writeString(attribute.getAttributeName());
+		out.writeString(attribute.getDisplayName());
+		out.writeString(attribute.getRoles());
+		out.writeString(attribute.getPossibleValuesQuery());
+		out.writeString(attribute.getPossibleValueLabelAttribute());
+		out.writeString(attribute.getPossibleValueLabelAttributePath());
+		out.writeString(attribute.getScope() == null ? null : attribute.getScope().name());
+		out.writeInteger(attribute.getPossibleValuesTtl());
+		out.writeString(attribute.getType().getName());
+		out.writeString(attribute.getElementType().getName());
+		out.data.writeBoolean(attribute.isRelationship());
+		out.writeStrings(attribute.getSelectablePath());
+		out.writeStrings(attribute.getAssociationPath());
+		int toManyAssociations = 0;
+		for(int i = 0; i < attribute.getAssociationPath().size(); i++) {
+			if(attribute.isToManyAssociation(i)) {
+				toManyAssociations |= 1 << i;
+			}
+		}
+		out.data.writeInt(toManyAssociations);
+		try {
+			PropertyAccessors.resolveGetterMethod(attribute.getAttributeName(), entity.getEntityClass());
+			out.data.writeByte(ACCESSOR_GETTER);
+		} catch (RuntimeException e) {
+			//only the attributes not shown in the results may have no getter
+			out.data.writeByte(ACCESSOR_UNRESOLVED);
+			out.writeString(e.getMessage());
+		}
+		out.writeStrings(QueryContextCompiler.isAvailableForQuery(attribute) ? attribute.getApplicableOperatorNames() : null);
+	}
+
+	/**
+	 * 
+	 * @param value a string to write to the index, or null
+	 * @return true if the given string is short enough to be written to the index
+	 */
+	static boolean isWritable(String value) {
+		if(value == null || value.length() <= MAX_STRING_BYTES / 3) {
+			return true;
+		}
+		long length = 0;
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			length += c >= 0x0001 && c <= 0x007F ? 1 : c <= 0x07FF ? 2 : 3;
+		}
+		return length <= MAX_STRING_BYTES;
+	}
+
+	/**
+	 * Read the index at the given location, if it is up to date with the configuration files found at runtime.
+	 * @param indexUrl the location of the index
+	 * @param configUrl the location of the main configuration file found at runtime
+	 * @param classLoader the class loader to load the entity classes and the attribute types through
+	 * @return the context read from the index, or null if the configuration files have changed since the index was written, 
+	 * or if a class the index refers to cannot be loaded (the configuration is then read as usual, which leaves out only 
+	 * the entities that cannot be built)
+	 */
+	static InfiniqueryContext read(URL indexUrl, URL configUrl, ClassLoader classLoader) {
+		try (InputStream inputStream = indexUrl.openStream()) {
+			IndexReader in = new IndexReader(new DataInputStream(new BufferedInputStream(inputStream)), classLoader);
+			if(in.data.readInt() != MAGIC || in.data.readUnsignedShort() != VERSION) {
+				return null;
+			}
+			List<URL> sources = QueryContextCompiler.resolveSources(configUrl, in.readStrings());
+			if(!in.readString().equals(QueryContextCompiler.digest(sources))) {
+				return null;
+			}
+			InfiniqueryContext context = new InfiniqueryContext();
+			context.setFindKeyword(in.readString());
+			context.setResultsLimit(in.readInteger());
+			context.setQueryTimeout(in.readInteger());
+			int entityCount = in.data.readInt();
+			List<JpaEntity> entities = new ArrayList<>(entityCount);
+			for(int i = 0; i < entityCount; i++) {
+				entities.add(readEntity(in));
+			}
+			context.setEntities(entities);
+			context.setConfigurationSources(Collections.unmodifiableList(sources));
+			return context;
+		} catch (IllegalStateException e) {
+			return null;
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to read the precompiled query context " + indexUrl + ": " + e.getMessage(), e);
+		}
+	}
+
+	private static JpaEntity readEntity(IndexReader in) throws IOException {
+		JpaEntity.JpaEntityBuilder builder = JpaEntity.newBuilder();
+		String className = in.readString();
+		builder.withClassName(className)
+			.withDisplayName(in.readString())
+			.withRoles(in.readString())
+			.withAdditionalFilter(in.readString())
+			.withResultsLimit(in.readInteger())
+			.withQueryTimeout(in.readInteger());
+		Class<?> entityClass = in.loadClass(className);
+		builder.withPrecompiledEntityClass(entityClass, in.readString());
+		int attributeCount = in.data.readInt();
+		List<EntityAttribute> attributes = new ArrayList<>(attributeCount);
+		for(int i = 0; i < attributeCount; i++) {
+			attributes.add(readAttribute(in, entityClass));
+		}
+		return builder.withAttributes(attributes).build();
+	}
+
+	private static EntityAttribute readAttribute(IndexReader in, Class<?> entityClass) throws IOException {
+		String attributeName = in.readString();
+		EntityAttribute attribute = new EntityAttribute(attributeName, in.readString(), in.readString(), in.readString(), 
+				in.readString(), in.readString(), false, in.readString());
+		attribute.setPossibleValuesTtl(in.readInteger());
+		Class<?> type = in.loadClass(in.readString());
+		Class<?> elementType = in.loadClass(in.readString());
+		boolean relationship = in.data.readBoolean();
+		List<String> selectablePath = in.readStrings();
+		List<String> associationPath = in.readStrings();
+		int toManyAssociations = in.data.readInt();
+		int[] toManyIndexes = new int[Integer.bitCount(toManyAssociations)];
+		for(int i = 0, j = 0; i < associationPath.size(); i++) {
+			if((toManyAssociations & (1 << i)) != 0) {
+				toManyIndexes[j ++] = i;
+			}
+		}
+		byte accessorKind = in.data.readByte();
+		return attribute.withPrecompiledType(type, elementType, relationship, selectablePath, associationPath, toManyIndexes, 
+				accessorKind == ACCESSOR_GETTER ? PropertyAccessors.lazyForProperty(entityClass, attributeName) : PropertyAccessors.unresolved(in.readString()),
+				in.readStrings());
+	}
+
+	/**
+	 * Writer of the values of the index, each distinct string being written only once.
+	 */
+	private static final class IndexWriter {
+
+		final DataOutputStream data;
+
+		private final Map<String, Integer> stringIndexes = new HashMap<>();
+
+		IndexWriter(DataOutputStream data) {
+			this.data = data;
+		}
+
+		/**
+		 * A string is written as -1 followed by its content the first time, then as its position among the strings written, plus one. 
+		 * Null is written as 0.
+		 */
+		void writeString(String value) throws IOException {
+			if(value == null) {
+				data.writeInt(0);
+				return;
+			}
+			Integer index = stringIndexes.get(value);
+			if(index != null) {
+				data.writeInt(index + 1);
+			} else {
+				if(!isWritable(value)) {
+					throw new IllegalArgumentException("The value starting with \"" + value.substring(0, 40) + "\" is too long to be precompiled.");
+				}
+				stringIndexes.put(value, stringIndexes.size());
+				data.writeInt(-1);
+				data.writeUTF(value);
+			}
+		}
+
+		void writeStrings(List<String> values) throws IOException {
+			if(values == null) {
+				data.writeInt(-1);
+				return;
+			}
+			data.writeInt(values.size());
+			for(String value : values) {
+				writeString(value);
+			}
+		}
+
+		void writeInteger(Integer value) throws IOException {
+			data.writeBoolean(value != null);
+			if(value != null) {
+				data.writeInt(value);
+			}
+		}
+	}
+
+	/**
+	 * Reader of the values of the index, loading each distinct class only once.
+	 */
+	private static final class IndexReader {
+
+		final DataInputStream data;
+
+		private final ClassLoader classLoader;
+
+		private final List<String> strings = new ArrayList<>();
+
+		private final Map<String, Class<?>> classes = new HashMap<>(PRIMITIVE_TYPES);
+
+		IndexReader(DataInputStream data, ClassLoader classLoader) {
+			this.data = data;
+			this.classLoader = classLoader;
+		}
+
+		String readString() throws IOException {
+			int index = data.readInt();
+			if(index == 0) {
+				return null;
+			}
+			if(index > 0) {
+				return strings.get(index - 1);
+			}
+			String value = data.readUTF();
+			strings.add(value);
+			return value;
+		}
+
+		List<String> readStrings() throws IOException {
+			int size = data.readInt();
+			if(size == -1) {
+				return null;
+			}
+			List<String> values = new ArrayList<>(size);
+			for(int i = 0; i < size; i++) {
+				values.add(readString());
+			}
+			return values;
+		}
+
+		Integer readInteger() throws IOException {
+			return data.readBoolean() ? data.readInt() : null;
+		}
+
+		Class<?> loadClass(String className) {
+			Class<?> clazz = classes.get(className);
+			if(clazz == null) {
+				try {
+					clazz = Class.forName(className, false, classLoader);
+				} catch (ClassNotFoundException e) {
+					throw new IllegalStateException("Class not found: " + className, e);
+				}
+				classes.put(className, clazz);
+			}
+			return clazz;
+		}
+	}
+}
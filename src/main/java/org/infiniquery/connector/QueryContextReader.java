@@ -0,0 +1,383 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.connector;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.infiniquery.Constants;
+import org.infiniquery.model.EntityAttribute;
+import org.infiniquery.model.InfiniqueryContext;
+import org.infiniquery.model.JpaEntity;
+
+/**
+ * Streaming (StAX) reader of the infiniquery configuration. The configuration is read in one pass, element by element, 
+ * without building a DOM and without bootstrapping the persistence unit.
+ * <p>
+ * The entities may be split into per-module configuration fragments, included through 
+ * &lt;include resource="..."/&gt; elements within &lt;entities&gt;. The resource is resolved relative to the 
+ * including file (e.g. next to it on the classpath), and its root element is &lt;entities&gt;, which may include 
+ * other fragments in turn. The fragments are read in parallel, and their entities are merged in the order of 
+ * the include elements, as if their content was written in place of them.
+ *
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+final class QueryContextReader {
+
+	private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+	private QueryContextReader() {
+	}
+
+	/**
+	 * Read the configuration from the given location. If the fragment generated from the annotated entities 
+	 * ({@link Constants#ANNOTATED_ENTITIES_FILE_NAME}) is found next to the configuration file, it is included 
+	 * after the entities of the configuration file.
+	 * <p>
+	 * The entities which cannot be built (e.g. because their class cannot be loaded) are left out of the context, 
+	 * and their problems are recorded in it ({@link InfiniqueryContext#getEntityLoadErrors()}), so that they do not 
+	 * prevent the other entities from being queried.
+	 * @param configUrl the location of the configuration file
+	 * @return the context configured by the file and the fragments it includes
+	 */
+	static InfiniqueryContext read(URL configUrl) {
+		Set<String> includeChain = Collections.singleton(configUrl.toExternalForm());
+		ConfigDocument document = parse(configUrl, false, includeChain);
+		if(document.findKeyword == null) {
+			throw new RuntimeException("Invalid configuration file! No definition for findKeyword could be found.");
+		}
+		if(exists(configUrl, Constants.ANNOTATED_ENTITIES_FILE_NAME)) {
+			document.entities.add(include(configUrl, Constants.ANNOTATED_ENTITIES_FILE_NAME, includeChain));
+		}
+		List<JpaEntity> entities = new ArrayList<>();
+		List<URL> sources = new ArrayList<>();
+		Map<String, String> entityLoadErrors = new LinkedHashMap<>();
+		document.collect(entities, sources, entityLoadErrors);
+		InfiniqueryContext context = new InfiniqueryContext();
+		context.setFindKeyword(document.findKeyword);
+		context.setResultsLimit(document.resultsLimit);
+		context.setQueryTimeout(document.queryTimeout);
+		context.setEntities(Collections.unmodifiableList(entities));
+		context.setEntityLoadErrors(Collections.unmodifiableMap(entityLoadErrors));
+		context.setConfigurationSources(Collections.unmodifiableList(sources));
+		return context;
+	}
+
+	private static ConfigDocument parse(URL url, boolean fragment, Set<String> includeChain) {
+		try (InputStream inputStream = url.openStream()) {
+			XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(url.toExternalForm(), inputStream);
+			try {
+				return parse(reader, url, fragment, includeChain);
+			} finally {
+				reader.close();
+			}
+		} catch (IOException | XMLStreamException e) {
+			throw new RuntimeException("Invalid configuration file " + url + ": " + e.getMessage(), e);
+		}
+	}
+
+	private static ConfigDocument parse(XMLStreamReader reader, URL url, boolean fragment, Set<String> includeChain) throws XMLStreamException {
+		ConfigDocument document = new ConfigDocument(url);
+		boolean rootElement = true;
+		while(reader.hasNext()) {
+			if(reader.next() != XMLStreamConstants.START_ELEMENT) {
+				continue;
+			}
+			String elementName = reader.getLocalName();
+			if(rootElement) {
+				String expectedRootElement = fragment ? "entities" : "query-context";
+				if(!expectedRootElement.equals(elementName)) {
+					throw new RuntimeException("Invalid configuration file " + url + "! The root element must be " + expectedRootElement + ", not " + elementName + ".");
+				}
+				rootElement = false;
+				continue;
+			}
+			switch (elementName) {
+			case "findKeyword":
+				checkNotFragment(fragment, url, elementName);
+				if(document.findKeyword != null) {
+					throw new RuntimeException("Invalid configuration file! More than one findKeyword found.");
+				}
+				document.findKeyword = reader.getElementText();
+				if(document.findKeyword.isEmpty()) {
+					throw new RuntimeException("Invalid configuration file! Empty findKeyword tag. You need to specify a value.");
+				}
+				break;
+			case "results-limit":
+				checkNotFragment(fragment, url, elementName);
+				if(document.resultsLimitFound) {
+					throw new RuntimeException("Invalid configuration file! More than one results-limit found.");
+				}
+				document.resultsLimitFound = true;
+				document.resultsLimit = parseResultsLimit(reader.getElementText());
+				break;
+			case "query-timeout":
+				checkNotFragment(fragment, url, elementName);
+				if(document.queryTimeoutFound) {
+					throw new RuntimeException("Invalid configuration file! More than one query-timeout found.");
+				}
+				document.queryTimeoutFound = true;
+				document.queryTimeout = parseQueryTimeout(reader.getElementText());
+				break;
+			case "entity":
+				document.entities.add(readEntity(reader));
+				break;
+			case "include":
+				document.entities.add(include(url, requiredAttribute(reader, "resource"), includeChain));
+				break;
+			default:
+				//the containers (entities), and the elements of newer versions of the configuration, are skipped
+			}
+		}
+		return document;
+	}
+
+	private static boolean exists(URL baseUrl, String resource) {
+		try {
+			new URL(baseUrl, resource).openStream().close();
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static void checkNotFragment(boolean fragment, URL url, String elementName) {
+		if(fragment) {
+			throw new RuntimeException("Invalid configuration fragment " + url + "! " + elementName + " can only be set in the main configuration file.");
+		}
+	}
+
+	/**
+	 * Start reading the fragment of the given resource, in parallel with the including file.
+	 * @return the future of the content of the fragment
+	 */
+	private static CompletableFuture<ConfigDocument> include(URL includingUrl, String resource, Set<String> includeChain) {
+		final URL url;
+		try {
+			url = new URL(includingUrl, resource);
+		} catch (MalformedURLException e) {
+			throw new RuntimeException("Invalid configuration file " + includingUrl + "! Invalid include resource: " + resource, e);
+		}
+		if(includeChain.contains(url.toExternalForm())) {
+			throw new RuntimeException("Invalid configuration file " + includingUrl + "! Cyclic include of " + url);
+		}
+		final Set<String> fragmentIncludeChain = new HashSet<>(includeChain);
+		fragmentIncludeChain.add(url.toExternalForm());
+		return CompletableFuture.supplyAsync(() -> parse(url, true, fragmentIncludeChain));
+	}
+
+	/**
+	 * 
+	 * @return the entity read, or the {@link EntityLoadError} describing why it cannot be built
+	 */
+	private static Object readEntity(XMLStreamReader reader) throws XMLStreamException {
+		String className = requiredAttribute(reader, "className");
+		String displayName = requiredAttribute(reader, "displayName");
+		JpaEntity.JpaEntityBuilder builder = JpaEntity.newBuilder()
+			.withClassName(className)
+			.withDisplayName(displayName)
+			.withRoles(reader.getAttributeValue(null, "roles"))
+			.withAdditionalFilter(reader.getAttributeValue(null, "additionalFilter"))
+			.withResultsLimit(parseResultsLimit(reader.getAttributeValue(null, "resultsLimit")))
+			.withQueryTimeout(parseQueryTimeout(reader.getAttributeValue(null, "queryTimeout")));
+		List<EntityAttribute> attributes = new ArrayList<>();
+		while(reader.hasNext()) {
+			int event = reader.next();
+			if(event == XMLStreamConstants.START_ELEMENT && "attribute".equals(reader.getLocalName())) {
+				attributes.add(readAttribute(reader));
+			} else if(event == XMLStreamConstants.END_ELEMENT && "entity".equals(reader.getLocalName())) {
+				break;
+			}
+		}
+		try {
+			return builder.withAttributes(attributes).build();
+		} catch (IllegalStateException e) {
+			return new EntityLoadError(displayName, e.getMessage());
+		}
+	}
+
+	private static EntityAttribute readAttribute(XMLStreamReader reader) {
+		EntityAttribute entityAttribute = new EntityAttribute(
+				requiredAttribute(reader, "attributeName"),
+				requiredAttribute(reader, "displayName"),
+				reader.getAttributeValue(null, "roles"),
+				reader.getAttributeValue(null, "possibleValuesQuery"),
+				reader.getAttributeValue(null, "possibleValueLabelAttribute"),
+				reader.getAttributeValue(null, "possibleValueLabelAttributePath"),
+				Boolean.valueOf(reader.getAttributeValue(null, "displayOnly")),
+				reader.getAttributeValue(null, "scope")
+				);
+		entityAttribute.setPossibleValuesTtl(parsePossibleValuesTtl(reader.getAttributeValue(null, "possibleValuesTtl")));
+		return entityAttribute;
+	}
+
+	private static String requiredAttribute(XMLStreamReader reader, String attributeName) {
+		String value = reader.getAttributeValue(null, attributeName);
+		if(value == null) {
+			throw new RuntimeException("Invalid configuration file! Missing " + attributeName + " attribute of " + reader.getLocalName() 
+					+ " element at line " + reader.getLocation().getLineNumber() + ".");
+		}
+		return value;
+	}
+
+	private static Integer parseResultsLimit(String value) {
+		if(value == null || value.trim().isEmpty()) {
+			return null;
+		}
+		try {
+			int resultsLimit = Integer.parseInt(value.trim());
+			if(resultsLimit <= 0) {
+				throw new RuntimeException("Invalid configuration file! The results limit must be a positive number: " + value);
+			}
+			return resultsLimit;
+		} catch (NumberFormatException e) {
+			throw new RuntimeException("Invalid configuration file! The results limit must be a positive number: " + value, e);
+		}
+	}
+
+	private static Integer parseQueryTimeout(String value) {
+		if(value == null || value.trim().isEmpty()) {
+			return null;
+		}
+		try {
+			int queryTimeout = Integer.parseInt(value.trim());
+			if(queryTimeout <= 0) {
+				throw new RuntimeException("Invalid configuration file! The query timeout must be a positive number of seconds: " + value);
+			}
+			return queryTimeout;
+		} catch (NumberFormatException e) {
+			throw new RuntimeException("Invalid configuration file! The query timeout must be a positive number of seconds: " + value, e);
+		}
+	}
+
+	private static Integer parsePossibleValuesTtl(String value) {
+		if(value == null || value.trim().isEmpty()) {
+			return null;
+		}
+		try {
+			int possibleValuesTtl = Integer.parseInt(value.trim());
+			if(possibleValuesTtl < 0) {
+				throw new RuntimeException("Invalid configuration file! The possibleValuesTtl must be a number of seconds, not negative: " + value);
+			}
+			return possibleValuesTtl;
+		} catch (NumberFormatException e) {
+			throw new RuntimeException("Invalid configuration file! The possibleValuesTtl must be a number of seconds, not negative: " + value, e);
+		}
+	}
+
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+		//the DOCTYPE is only informative: neither the DTD nor external entities are loaded
+		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		inputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		return inputFactory;
+	}
+
+	/**
+	 * The content read from one configuration file.
+	 */
+	private static final class ConfigDocument {
+
+		final URL url;
+
+		String findKeyword;
+
+		boolean resultsLimitFound;
+
+		Integer resultsLimit;
+
+		boolean queryTimeoutFound;
+
+		Integer queryTimeout;
+
+		/** The entities (or their load errors), and the futures of the included fragments, in document order */
+		final List<Object> entities = new ArrayList<>();
+
+		ConfigDocument(URL url) {
+			this.url = url;
+		}
+
+		/**
+		 * Collect the entities of this document and of the fragments it includes, in document order, 
+		 * waiting for the fragments still being read.
+		 * @param collectedEntities the list to add the entities to
+		 * @param sources the list to add the locations of this document and of its fragments to
+		 * @param entityLoadErrors the map to add the problems of the entities which cannot be built to, by display name
+		 */
+		@SuppressWarnings("unchecked")
+		void collect(List<JpaEntity> collectedEntities, List<URL> sources, Map<String, String> entityLoadErrors) {
+			sources.add(url);
+			for(Object entity : entities) {
+				if(entity instanceof CompletableFuture) {
+					try {
+						((CompletableFuture<ConfigDocument>) entity).join().collect(collectedEntities, sources, entityLoadErrors);
+					} catch (CompletionException e) {
+						throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+					}
+				} else if(entity instanceof EntityLoadError) {
+					EntityLoadError loadError = (EntityLoadError) entity;
+					entityLoadErrors.putIfAbsent(loadError.displayName, loadError.message);
+				} else {
+					collectedEntities.add((JpaEntity) entity);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The problem of an entity which cannot be built.
+	 */
+	private static final class EntityLoadError {
+
+		final String displayName;
+
+		final String message;
+
+		EntityLoadError(String displayName, String message) {
+			this.displayName = displayName;
+			this.message = message;
+		}
+	}
+}
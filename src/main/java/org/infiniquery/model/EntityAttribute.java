@@ -27,11 +27,34 @@
 package org.infiniquery.model;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import javax.persistence.ElementCollection;
+import javax.persistence.ManyToMany;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import javax.persistence.OneToOne;
+import javax.persistence.Transient;
+
+import org.infiniquery.Constants;
+import org.infiniquery.model.decoder.Type2OperatorMap;
+import org.infiniquery.model.decoder.ValueCodec;
+import org.infiniquery.model.decoder.ValueCodecs;
+import org.infiniquery.util.PropertyAccessor;
+import org.infiniquery.util.PropertyAccessors;
+import org.infiniquery.util.PropertyPathNavigator;
+
 /**
  * Value object bean representing an attribute of a JPA entity.
  * @author Daniel Doboga
@@ -53,18 +76,53 @@ public class EntityAttribute {
 
 	private Set<String> roleSet;
 
+	private boolean accessibleToAll;
+
+	private BitSet allowedRoleMask;
+
 	private Set<String> applicableRoles;
 
 	private String possibleValuesQuery;
 
+	/** How long (in seconds) the possible values read by possibleValuesQuery may be cached, or null for the default of the service */
+	private Integer possibleValuesTtl;
+
 	private String possibleValueLabelAttribute;
 
 	private String possibleValueLabelAttributePath;
-	
-	private boolean displayOnly;
+
+	private PropertyPathNavigator possibleValueLabelPathNavigator;
 	
 	private Scope scope;
 
+	private Class<?> type;
+
+	private Class<?> elementType;
+
+	private boolean relationship;
+
+	private boolean collectionValued;
+
+	/** The property path selecting the value of this attribute in a JPQL projection, or null if it cannot be selected as one column */
+	private List<String> selectablePath;
+
+	/** The relationships navigated to reach the value shown in the results for this attribute, starting with the attribute itself */
+	private List<String> associationPath = Collections.emptyList();
+
+	/** The positions, within the association path, of the to-many relationships */
+	private BitSet toManyAssociations = new BitSet();
+
+	private PropertyAccessor accessor;
+
+	/** The codec parsing the values entered for this attribute, or null if they are compared by their labels (collections and entities) */
+	private ValueCodec<?> valueCodec;
+
+	/** True if the type and the accessor of this attribute have been resolved at build time, by a precompiled query context */
+	private boolean precompiled;
+
+	/** The display names of the operators applicable for filtering this attribute, resolved on first use unless precompiled */
+	private volatile List<String> applicableOperatorNames;
+
 	/**
 	 * 
 	 * @param attributeName the name of the java attribute of the entity class
@@ -74,6 +132,7 @@ public class EntityAttribute {
 	 * @param possibleValueLabelAttribute the object attribute to consider as label for representation of the objects retrieved by executing possibleValuesQuery
 	 * @param possibleValueLabelAttributePath the path within the object tree, deep to the possibleValuesLabelAttribute
 	 * @param displayOnly boolean flag dictating whether or not the attribute should be displayed only in the results, or also added as search filter.
+	 * If no scope is given, true sets the results scope; otherwise the scope prevails.
 	 * @param scope the scope of this attribute (value is expected to be either null or to match the name of one EntityAttribute.Scope predefined values).
 	 */
 	public EntityAttribute(String attributeName, String displayName, final String roles, String possibleValuesQuery, String possibleValueLabelAttribute, String possibleValueLabelAttributePath, boolean displayOnly, String scope) {
@@ -81,7 +140,6 @@ public class EntityAttribute {
 		this.attributeName = attributeName;
 		this.displayName = displayName;
 		this.roles = roles;
-		this.displayOnly = displayOnly;
 		this.roleSet = Collections.unmodifiableSet(new HashSet<String>() {
 			{
 				if (roles != null && !roles.isEmpty()) {
@@ -92,13 +150,18 @@ public class EntityAttribute {
 				}
 			}
 		});
+		Set<String> normalizedRoles = RoleDictionary.normalizeAll(roleSet);
+		this.accessibleToAll = normalizedRoles.isEmpty() || normalizedRoles.contains(Constants.ROLES_ALL);
+		this.allowedRoleMask = RoleDictionary.register(normalizedRoles);
 		this.possibleValuesQuery = possibleValuesQuery;
 		this.possibleValueLabelAttribute = possibleValueLabelAttribute;
 		if(possibleValuesQuery != null) {
 			this.possibleValueLabelAttributePath = possibleValueLabelAttributePath != null ? possibleValueLabelAttributePath : attributeName + "." + possibleValueLabelAttribute;
+			this.possibleValueLabelPathNavigator = PropertyPathNavigator.compile(this.possibleValueLabelAttributePath);
 		}
 		if(scope == null) {
-			this.scope = null;
+			//displayOnly is the former way of configuring the results scope
+			this.scope = displayOnly ? Scope.results : null;
 		} else {
 			this.scope = Scope.valueOf(scope);
 		}
@@ -107,6 +170,76 @@ public class EntityAttribute {
 	void setParentEntity(JpaEntity parentEntity) {
 		this.parentEntity = parentEntity;
 	}
+
+	/**
+	 * Resolve, once, the java type of this attribute against the class of its parent entity.
+	 * The field is searched also in the superclasses of the entity class. When no field exists
+	 * (e.g. a display only attribute exposed through a computed getter), the return type of the
+	 * public getter is used instead. If neither can be found, the type remains unresolved.
+	 * The accessor used for reading the attribute value from query results is also created here.
+	 * 
+	 * @param entityClass the class of the parent entity
+	 */
+	void resolveType(Class<?> entityClass) {
+		if(precompiled) {
+			return;
+		}
+		this.accessor = PropertyAccessors.forProperty(entityClass, attributeName);
+		Field field = findField(entityClass, attributeName);
+		if(field != null) {
+			this.type = field.getType();
+			this.relationship = field.isAnnotationPresent(OneToOne.class)
+					|| field.isAnnotationPresent(OneToMany.class)
+					|| field.isAnnotationPresent(ManyToOne.class)
+					|| field.isAnnotationPresent(ManyToMany.class);
+			this.collectionValued = Collection.class.isAssignableFrom(type);
+			this.elementType = collectionValued ? resolveCollectionElementType(field.getGenericType()) : type;
+			this.selectablePath = resolveSelectablePath(field);
+			resolveAssociationPath();
+		} else {
+			Method getter = findPublicGetter(entityClass, attributeName);
+			if(getter != null) {
+				this.type = getter.getReturnType();
+				this.collectionValued = Collection.class.isAssignableFrom(type);
+				this.elementType = collectionValued ? resolveCollectionElementType(getter.getGenericReturnType()) : type;
+			}
+		}
+		this.valueCodec = type != null && !relationship && !collectionValued ? ValueCodecs.forType(type) : null;
+	}
+
+	/**
+	 * Set the metadata resolved, at build time, by the query context compiler, instead of resolving it by reflection
+	 * when the parent entity is built. This is meant to be called only when reading the precompiled query context index.
+	 * 
+	 * @param type the java type of the attribute
+	 * @param elementType the type of the collection elements for collection valued attributes, otherwise the same as type
+	 * @param relationship true if the attribute is mapped as a JPA relationship
+	 * @param selectablePath the property path selecting the value of the attribute in a JPQL projection, or null
+	 * @param associationPath the relationships navigated to reach the value shown in the results, starting with the attribute itself
+	 * @param toManyAssociations the positions, within the association path, of the to-many relationships
+	 * @param accessor the accessor reading the value of the attribute from instances of the parent entity
+	 * @param applicableOperatorNames the display names of the operators applicable for filtering the attribute, or null to resolve them on first use
+	 * @return this attribute
+	 * @since 1.4.0
+	 */
+	public EntityAttribute withPrecompiledType(Class<?> type, Class<?> elementType, boolean relationship, List<String> selectablePath, 
+			List<String> associationPath, int[] toManyAssociations, PropertyAccessor accessor, List<String> applicableOperatorNames) {
+		this.type = type;
+		this.elementType = elementType;
+		this.relationship = relationship;
+		this.collectionValued = type != null && Collection.class.isAssignableFrom(type);
+		this.selectablePath = selectablePath != null ? Collections.unmodifiableList(selectablePath) : null;
+		this.associationPath = Collections.unmodifiableList(associationPath);
+		for(int index : toManyAssociations) {
+			this.toManyAssociations.set(index);
+		}
+		this.accessor = accessor;
+		this.applicableOperatorNames = applicableOperatorNames != null ? Collections.unmodifiableList(applicableOperatorNames) : null;
+		this.valueCodec = type != null && !relationship && !collectionValued ? ValueCodecs.forType(type) : null;
+		this.precompiled = true;
+		return this;
+	}
+
 	/**
 	 * 
 	 * @return parentEntity
@@ -147,12 +280,23 @@ public class EntityAttribute {
 		return roleSet;
 	}
 
+	/**
+	 * Check if a user having the roles denoted by the given mask is allowed access to this attribute.
+	 * Access is allowed to everybody if no roles are configured, or if the configured roles contain the virtual role ALL.
+	 * 
+	 * @param userRoleMask the mask of the user roles, as computed by {@link RoleDictionary#maskOf(java.util.Collection)}
+	 * @return true if access is allowed, false otherwise
+	 */
+	public boolean isAccessibleTo(BitSet userRoleMask) {
+		return accessibleToAll || allowedRoleMask.intersects(userRoleMask);
+	}
+
 	/**
 	 * @deprecated Use getScope() to check instead.
-	 * @return displayOnly
+	 * @return true if the attribute is displayed only in the results, i.e. its scope is results
 	 */
 	public boolean isDisplayOnly() {
-		return displayOnly;
+		return scope == Scope.results;
 	}
 
 	/**
@@ -174,6 +318,27 @@ public class EntityAttribute {
 		return possibleValuesQuery;
 	}
 
+	/**
+	 * 
+	 * @return how long (in seconds) the possible values read by possibleValuesQuery may be cached (0 meaning not cached), 
+	 * or null if not configured, in which case the default time to live of the query model service applies.
+	 */
+	public Integer getPossibleValuesTtl() {
+		return possibleValuesTtl;
+	}
+
+	/**
+	 * 
+	 * @param possibleValuesTtl how long (in seconds) the possible values read by possibleValuesQuery may be cached 
+	 * (0 meaning not cached), or null for the default time to live of the query model service.
+	 */
+	public void setPossibleValuesTtl(Integer possibleValuesTtl) {
+		if(possibleValuesTtl != null && possibleValuesTtl < 0) {
+			throw new IllegalArgumentException("The time to live of the possible values cannot be negative: " + possibleValuesTtl);
+		}
+		this.possibleValuesTtl = possibleValuesTtl;
+	}
+
 	/**
 	 * 
 	 * @return possibleValueLabelAttribute
@@ -190,6 +355,14 @@ public class EntityAttribute {
 		return possibleValueLabelAttributePath;
 	}
 
+	/**
+	 * 
+	 * @return the compiled form of possibleValueLabelAttributePath, or null if the attribute has no such path.
+	 */
+	public PropertyPathNavigator getPossibleValueLabelPathNavigator() {
+		return possibleValueLabelPathNavigator;
+	}
+
 	/**
 	 * 
 	 * @return EntityAttribute.Scope - the scope of this attribute
@@ -198,6 +371,219 @@ public class EntityAttribute {
 		return scope;
 	}
 
+	/**
+	 * 
+	 * @return the java type of this attribute, or null if it could not be resolved from the entity class.
+	 */
+	public Class<?> getType() {
+		return type;
+	}
+
+	/**
+	 * 
+	 * @return for collection valued attributes, the type of the collection elements (if declared through generics); 
+	 * for any other attribute, the same as getType().
+	 */
+	public Class<?> getElementType() {
+		return elementType;
+	}
+
+	/**
+	 * 
+	 * @return true if the attribute is mapped as a JPA relationship (OneToOne, OneToMany, ManyToOne or ManyToMany).
+	 */
+	public boolean isRelationship() {
+		return relationship;
+	}
+
+	/**
+	 * 
+	 * @return true if the type of the attribute is a {@link Collection}.
+	 */
+	public boolean isCollectionValued() {
+		return collectionValued;
+	}
+
+	/**
+	 * 
+	 * @return the property path (starting with the attribute name) selecting the value shown in the results for this attribute 
+	 * in a JPQL projection query, through to-one relationships only, or null if the value cannot be selected as one column.
+	 */
+	public List<String> getSelectablePath() {
+		return selectablePath;
+	}
+
+	/**
+	 * 
+	 * @return the relationships navigated, starting with this attribute, to reach the value shown in the results 
+	 * for this attribute (e.g. [owner, address] for the label path owner.address.street), or an empty list if 
+	 * this attribute is not a relationship.
+	 */
+	public List<String> getAssociationPath() {
+		return associationPath;
+	}
+
+	/**
+	 * 
+	 * @param index a position within the association path
+	 * @return true if the relationship found at the given position of the association path is to-many.
+	 */
+	public boolean isToManyAssociation(int index) {
+		return toManyAssociations.get(index);
+	}
+
+	/**
+	 * 
+	 * @return the accessor reading the value of this attribute from instances of the parent entity.
+	 */
+	public PropertyAccessor getAccessor() {
+		return accessor;
+	}
+
+	/**
+	 * 
+	 * @return the codec parsing the values entered for this attribute, or null if the values are compared by their labels 
+	 * (for collections and entities), or if the type of the attribute is not resolved.
+	 * @since 1.4.0
+	 */
+	public ValueCodec<?> getValueCodec() {
+		return valueCodec;
+	}
+
+	/**
+	 * 
+	 * @return the display names of the operators applicable for filtering the values of this attribute.
+	 * @throws RuntimeException if the type of the attribute is not resolved, or if no operators are defined for it.
+	 * @since 1.4.0
+	 */
+	public List<String> getApplicableOperatorNames() {
+		List<String> operatorNames = applicableOperatorNames;
+		if(operatorNames == null) {
+			if(type == null) {
+				throw new RuntimeException("No field or public getter found for attribute " + attributeName + " in class " + parentEntity.getClassName());
+			}
+			operatorNames = Collections.unmodifiableList(Type2OperatorMap.getApplicableOperatorDisplayNames(type, possibleValuesQuery != null));
+			applicableOperatorNames = operatorNames;
+		}
+		return operatorNames;
+	}
+
+	/**
+	 * An attribute can be selected as one column if it is a persistent basic attribute, or a to-one relationship 
+	 * shown through a label path made only of to-one relationships.
+	 */
+	private List<String> resolveSelectablePath(Field field) {
+		if(!isPersistent(field) || collectionValued) {
+			return null;
+		}
+		if(possibleValueLabelPathNavigator == null) {
+			return relationship ? null : Collections.singletonList(attributeName);
+		}
+		List<String> path = possibleValueLabelPathNavigator.getPathFragments();
+		if(!relationship || !path.get(0).equals(attributeName)) {
+			return null;
+		}
+		Class<?> hopClass = type;
+		for(int i = 1; i < path.size(); i++) {
+			Field hopField = findField(hopClass, path.get(i));
+			if(hopField == null || !isPersistent(hopField)) {
+				return null;
+			}
+			boolean lastHop = i == path.size() - 1;
+			if(lastHop ? isAssociation(hopField) : !isToOneRelationship(hopField)) {
+				return null;
+			}
+			hopClass = hopField.getType();
+		}
+		return path;
+	}
+
+	/**
+	 * Follow the label path (or only the attribute itself, if it has no label path) for as long as its 
+	 * fragments are relationships, recording which of them are to-many.
+	 */
+	private void resolveAssociationPath() {
+		if(!relationship) {
+			return;
+		}
+		List<String> path = possibleValueLabelPathNavigator != null ? possibleValueLabelPathNavigator.getPathFragments() : Collections.singletonList(attributeName);
+		if(!path.get(0).equals(attributeName)) {
+			return;
+		}
+		List<String> associations = new ArrayList<>(path.size());
+		associations.add(attributeName);
+		if(collectionValued) {
+			toManyAssociations.set(0);
+		}
+		Class<?> hopClass = elementType;
+		for(int i = 1; i < path.size() && hopClass != null; i++) {
+			Field hopField = findField(hopClass, path.get(i));
+			if(hopField == null) {
+				break;
+			}
+			if(isToOneRelationship(hopField)) {
+				hopClass = hopField.getType();
+			} else if(hopField.isAnnotationPresent(OneToMany.class) || hopField.isAnnotationPresent(ManyToMany.class)) {
+				toManyAssociations.set(associations.size());
+				hopClass = Collection.class.isAssignableFrom(hopField.getType()) ? resolveCollectionElementType(hopField.getGenericType()) : null;
+			} else {
+				break;
+			}
+			associations.add(path.get(i));
+		}
+		this.associationPath = Collections.unmodifiableList(associations);
+	}
+
+	private static boolean isPersistent(Field field) {
+		return !Modifier.isTransient(field.getModifiers()) && !Modifier.isStatic(field.getModifiers()) && !field.isAnnotationPresent(Transient.class);
+	}
+
+	private static boolean isToOneRelationship(Field field) {
+		return field.isAnnotationPresent(ManyToOne.class) || field.isAnnotationPresent(OneToOne.class);
+	}
+
+	private static boolean isAssociation(Field field) {
+		return field.isAnnotationPresent(OneToMany.class) || field.isAnnotationPresent(ManyToMany.class) 
+				|| field.isAnnotationPresent(ElementCollection.class) || Collection.class.isAssignableFrom(field.getType()) 
+				|| Map.class.isAssignableFrom(field.getType()) || isToOneRelationship(field);
+	}
+
+	private static Field findField(Class<?> clazz, String fieldName) {
+		for(Class<?> crtClass = clazz; crtClass != null && crtClass != Object.class; crtClass = crtClass.getSuperclass()) {
+			try {
+				return crtClass.getDeclaredField(fieldName);
+			} catch (NoSuchFieldException e) {
+				//continue with the superclass
+			}
+		}
+		return null;
+	}
+
+	private static Method findPublicGetter(Class<?> clazz, String propertyName) {
+		final String capitalizedName = Character.toUpperCase(propertyName.charAt(0)) + propertyName.substring(1);
+		for(String prefix : new String[] {"get", "is"}) {
+			try {
+				Method method = clazz.getMethod(prefix.concat(capitalizedName));
+				if(Modifier.isPublic(method.getModifiers())) {
+					return method;
+				}
+			} catch (NoSuchMethodException e) {
+				//try the next prefix
+			}
+		}
+		return null;
+	}
+
+	private static Class<?> resolveCollectionElementType(Type genericType) {
+		if(genericType instanceof ParameterizedType) {
+			Type[] typeArguments = ((ParameterizedType) genericType).getActualTypeArguments();
+			if(typeArguments.length == 1 && typeArguments[0] instanceof Class) {
+				return (Class<?>) typeArguments[0];
+			}
+		}
+		return Object.class;
+	}
+
 	private static Set<String> getIntersection(Set<String> set1, Set<String> set2) {
 	    boolean set1IsLarger = set1.size() > set2.size();
 	    Set<String> cloneSet = new HashSet<String>(set1IsLarger ? set2 : set1);
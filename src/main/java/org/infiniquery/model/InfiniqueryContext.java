@@ -26,7 +26,11 @@
 
 package org.infiniquery.model;
 
+import java.net.URL;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Bean representation of the context in which the queries will be generated and executed. 
@@ -39,6 +43,11 @@ public class InfiniqueryContext {
 
 	private String findKeyword;
 	private List<JpaEntity> entities;
+	private Map<String, JpaEntity> entitiesByDisplayName = Collections.emptyMap();
+	private Map<String, String> entityLoadErrors = Collections.emptyMap();
+	private Integer resultsLimit;
+	private Integer queryTimeout;
+	private List<URL> configurationSources = Collections.emptyList();
 
 	/**
 	 * 
@@ -56,6 +65,56 @@ public class InfiniqueryContext {
 		this.findKeyword = findKeyword;
 	}
 
+	/**
+	 * 
+	 * @return the maximum number of results any query may retrieve, unless a different limit is configured for the requested entity; 
+	 * null if there is no global limit.
+	 */
+	public Integer getResultsLimit() {
+		return resultsLimit;
+	}
+
+	/**
+	 * 
+	 * @param resultsLimit the maximum number of results any query may retrieve, unless a different limit is configured for the requested entity.
+	 */
+	public void setResultsLimit(Integer resultsLimit) {
+		this.resultsLimit = resultsLimit;
+	}
+
+	/**
+	 * 
+	 * @return the maximum number of seconds the execution of any query may take, unless a different timeout is configured 
+	 * for the requested entity; null if there is no global timeout.
+	 */
+	public Integer getQueryTimeout() {
+		return queryTimeout;
+	}
+
+	/**
+	 * 
+	 * @param queryTimeout the maximum number of seconds the execution of any query may take, unless a different timeout is configured for the requested entity.
+	 */
+	public void setQueryTimeout(Integer queryTimeout) {
+		this.queryTimeout = queryTimeout;
+	}
+
+	/**
+	 * 
+	 * @return the locations of the configuration files this context was read from (the main file, then the included fragments)
+	 */
+	public List<URL> getConfigurationSources() {
+		return configurationSources;
+	}
+
+	/**
+	 * 
+	 * @param configurationSources the locations of the configuration files this context was read from
+	 */
+	public void setConfigurationSources(List<URL> configurationSources) {
+		this.configurationSources = configurationSources;
+	}
+
 	/**
 	 * 
 	 * @return entities a List of {@link JpaEntity} objects representing the entities existing in this context
@@ -67,8 +126,44 @@ public class InfiniqueryContext {
 	/**
 	 * 
 	 * @param entities a List of {@link JpaEntity} objects representing the entities to set.
+	 * @throws IllegalArgumentException if two of the entities have the same display name
 	 */
 	public void setEntities(List<JpaEntity> entities) {
+		Map<String, JpaEntity> entitiesByDisplayName = new LinkedHashMap<>();
+		if(entities != null) {
+			for(JpaEntity entity : entities) {
+				if(entitiesByDisplayName.putIfAbsent(entity.getDisplayName(), entity) != null) {
+					throw new IllegalArgumentException("Duplicate entity display name in the configuration: " + entity.getDisplayName());
+				}
+			}
+		}
 		this.entities = entities;
+		this.entitiesByDisplayName = Collections.unmodifiableMap(entitiesByDisplayName);
+	}
+
+	/**
+	 * 
+	 * @return the problems of the configured entities which could not be built (e.g. because their class could not be loaded), 
+	 * by display name. These entities are left out of the context, so they cannot be queried, while the others can.
+	 */
+	public Map<String, String> getEntityLoadErrors() {
+		return entityLoadErrors;
+	}
+
+	/**
+	 * 
+	 * @param entityLoadErrors the problems of the configured entities which could not be built, by display name
+	 */
+	public void setEntityLoadErrors(Map<String, String> entityLoadErrors) {
+		this.entityLoadErrors = entityLoadErrors;
+	}
+
+	/**
+	 * 
+	 * @param entityDisplayName the displayable alias of the entity
+	 * @return the {@link JpaEntity} having the given display name, or null if there is no such entity in this context.
+	 */
+	public JpaEntity getEntity(String entityDisplayName) {
+		return entitiesByDisplayName.get(entityDisplayName);
 	}
 }
@@ -26,12 +26,22 @@
 
 package org.infiniquery.model;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import javax.persistence.EmbeddedId;
+import javax.persistence.Id;
+
+import org.infiniquery.Constants;
+
 /**
  * Value object representing a JPA entity.
  * @author Daniel Doboga
@@ -47,10 +57,26 @@ public class JpaEntity {
 
 	private Set<String> roleSet;
 
+	private boolean accessibleToAll;
+
+	private BitSet allowedRoleMask;
+
 	private String additionalFilter;
 
+	private Integer resultsLimit;
+
+	private Integer queryTimeout;
+
+	private String idAttributeName;
+
 	private List<EntityAttribute> attributes;
 
+	private List<EntityAttribute> attributesInReverseOrder;
+
+	private Map<String, EntityAttribute> attributesByDisplayName;
+
+	private Class<?> entityClass;
+
 	private JpaEntity() {
 		super();
 	}
@@ -87,6 +113,17 @@ public class JpaEntity {
 		return roleSet;
 	}
 
+	/**
+	 * Check if a user having the roles denoted by the given mask is allowed access to this entity.
+	 * Access is allowed to everybody if no roles are configured, or if the configured roles contain the virtual role ALL.
+	 * 
+	 * @param userRoleMask the mask of the user roles, as computed by {@link RoleDictionary#maskOf(java.util.Collection)}
+	 * @return true if access is allowed, false otherwise
+	 */
+	public boolean isAccessibleTo(BitSet userRoleMask) {
+		return accessibleToAll || allowedRoleMask.intersects(userRoleMask);
+	}
+
 	/**
 	 * 
 	 * @return the list of attributes to expose for this entity
@@ -95,14 +132,29 @@ public class JpaEntity {
 		return attributes;
 	}
 
+	/**
+	 * 
+	 * @param attributeDisplayName the displayable alias of the attribute
+	 * @return the attribute having the given display name, or null if this entity has no such attribute.
+	 */
+	public EntityAttribute getAttribute(String attributeDisplayName) {
+		return attributesByDisplayName.get(attributeDisplayName);
+	}
+
+	/**
+	 * 
+	 * @return the {@link Class} denoted by className, resolved when the entity was built.
+	 */
+	public Class<?> getEntityClass() {
+		return entityClass;
+	}
+
 	/**
 	 * 
 	 * @return the list of attributes to expose for this entity, in the reverse order.
 	 */
 	public List<EntityAttribute> getAttributesInReverseOrder() {
-		List<EntityAttribute> reverseList = new ArrayList<>(attributes);
-		Collections.reverse(reverseList);
-		return reverseList;
+		return attributesInReverseOrder;
 	}
 
 	/**
@@ -118,6 +170,49 @@ public class JpaEntity {
 		return additionalFilter;
 	}
 
+	/**
+	 * 
+	 * @return the maximum number of results a query on this entity may retrieve, or null if not configured for this entity.
+	 */
+	public Integer getResultsLimit() {
+		return resultsLimit;
+	}
+
+	/**
+	 * 
+	 * @return the maximum number of seconds the execution of a query on this entity may take, or null if not configured for this entity.
+	 */
+	public Integer getQueryTimeout() {
+		return queryTimeout;
+	}
+
+	/**
+	 * 
+	 * @return the name of the identifier attribute (annotated with {@link Id} or {@link EmbeddedId}) of the entity class, 
+	 * or null if none could be found.
+	 */
+	public String getIdAttributeName() {
+		return idAttributeName;
+	}
+
+	private static String findIdAttributeName(Class<?> entityClass) {
+		for(Class<?> crtClass = entityClass; crtClass != null && crtClass != Object.class; crtClass = crtClass.getSuperclass()) {
+			for(Field field : crtClass.getDeclaredFields()) {
+				if(field.isAnnotationPresent(Id.class) || field.isAnnotationPresent(EmbeddedId.class)) {
+					return field.getName();
+				}
+			}
+			for(Method method : crtClass.getDeclaredMethods()) {
+				if((method.isAnnotationPresent(Id.class) || method.isAnnotationPresent(EmbeddedId.class)) 
+						&& method.getName().startsWith("get") && method.getName().length() > 3) {
+					String propertyName = method.getName().substring(3);
+					return Character.toLowerCase(propertyName.charAt(0)) + propertyName.substring(1);
+				}
+			}
+		}
+		return null;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see java.lang.Object#equals(java.lang.Object)
@@ -192,6 +287,9 @@ public class JpaEntity {
 					}
 				}
 			});
+			Set<String> normalizedRoles = RoleDictionary.normalizeAll(jpaEntity.roleSet);
+			jpaEntity.accessibleToAll = normalizedRoles.isEmpty() || normalizedRoles.contains(Constants.ROLES_ALL);
+			jpaEntity.allowedRoleMask = RoleDictionary.register(normalizedRoles);
 			return this;
 		}
 		
@@ -205,13 +303,48 @@ public class JpaEntity {
 			return this;
 		}
 		
+		/**
+		 * 
+		 * @param resultsLimit the maximum number of results a query on this entity may retrieve, or null for the global limit to apply.
+		 * @return the builder object it is called on.
+		 */
+		public JpaEntityBuilder withResultsLimit(Integer resultsLimit) {
+			jpaEntity.resultsLimit = resultsLimit;
+			return this;
+		}
+		
+		/**
+		 * 
+		 * @param queryTimeout the maximum number of seconds the execution of a query on this entity may take, or null for the global timeout to apply.
+		 * @return the builder object it is called on.
+		 */
+		public JpaEntityBuilder withQueryTimeout(Integer queryTimeout) {
+			jpaEntity.queryTimeout = queryTimeout;
+			return this;
+		}
+		
+		/**
+		 * Set the entity class and the name of its id attribute, as resolved at build time by the query context compiler, 
+		 * instead of loading the class by name and searching its id attribute when the entity is built.
+		 * This is meant to be called only when reading the precompiled query context index.
+		 * 
+		 * @param entityClass the entity class
+		 * @param idAttributeName the name of the id attribute of the entity class, or null if it has none
+		 * @return the builder object it is called on.
+		 * @since 1.4.0
+		 */
+		public JpaEntityBuilder withPrecompiledEntityClass(Class<?> entityClass, String idAttributeName) {
+			jpaEntity.entityClass = entityClass;
+			jpaEntity.idAttributeName = idAttributeName;
+			return this;
+		}
+		
 		/**
 		 * 
 		 * @param attributes
 		 * @return the builder object it is called on.
 		 */
 		public JpaEntityBuilder withAttributes(List<EntityAttribute> attributes) {
-			jpaEntity.attributes = attributes;
 			jpaEntity.attributes = attributes;
 			for(EntityAttribute attribute : attributes) {
 				attribute.setParentEntity(jpaEntity);
@@ -226,6 +359,7 @@ public class JpaEntity {
 		 * 
 		 * @return the constructed JpaEntity
 		 * @throws IllegalStateException if one of the required attributes are not yet set in the constructed object,
+		 * if the entity class cannot be loaded, if two of its attributes have the same display name,
 		 * or if the builder has already been consumed (which is one successful invocation off this method
 		 * has already happened.
 		 */
@@ -239,6 +373,30 @@ public class JpaEntity {
 			if(jpaEntity == null) {
 				throw new IllegalStateException("This builder has aleady been consumed.");
 			}
+			if(jpaEntity.entityClass == null) {
+				try {
+					jpaEntity.entityClass = Class.forName(jpaEntity.className);
+				} catch (ClassNotFoundException e) {
+					throw new IllegalStateException("Entity class not found: " + jpaEntity.className, e);
+				}
+				jpaEntity.idAttributeName = findIdAttributeName(jpaEntity.entityClass);
+			}
+			if(jpaEntity.roleSet == null) {
+				withRoles(null);
+			}
+			List<EntityAttribute> attributes = jpaEntity.attributes == null ? Collections.<EntityAttribute>emptyList() : jpaEntity.attributes;
+			Map<String, EntityAttribute> attributesByDisplayName = new LinkedHashMap<>();
+			for(EntityAttribute attribute : attributes) {
+				if(attributesByDisplayName.putIfAbsent(attribute.getDisplayName(), attribute) != null) {
+					throw new IllegalStateException("Duplicate attribute display name in entity " + jpaEntity.displayName + ": " + attribute.getDisplayName());
+				}
+				attribute.resolveType(jpaEntity.entityClass);
+			}
+			jpaEntity.attributes = Collections.unmodifiableList(new ArrayList<>(attributes));
+			List<EntityAttribute> reverseList = new ArrayList<>(attributes);
+			Collections.reverse(reverseList);
+			jpaEntity.attributesInReverseOrder = Collections.unmodifiableList(reverseList);
+			jpaEntity.attributesByDisplayName = Collections.unmodifiableMap(attributesByDisplayName);
 			final JpaEntity finalEntity = jpaEntity;
 			jpaEntity = null;
 			return finalEntity;
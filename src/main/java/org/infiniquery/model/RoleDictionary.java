@@ -0,0 +1,124 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.model;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Dictionary assigning a stable index to every (upper-cased) role name found in the configuration, so that sets 
+ * of roles can be represented as {@link BitSet}s and access checks become bit set intersections.
+ * Indexes are never reassigned, so masks computed before a reload of the configuration remain valid after it.
+ *
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+public final class RoleDictionary {
+
+	private static final ConcurrentMap<String, Integer> roleIndexes = new ConcurrentHashMap<>();
+
+	private RoleDictionary() {}
+
+	/**
+	 * 
+	 * @param role a role name
+	 * @return the normalized (upper-cased) role name, as used for comparing roles
+	 */
+	public static String normalize(String role) {
+		return role.toUpperCase();
+	}
+
+	/**
+	 * 
+	 * @param roles role names
+	 * @return an unmodifiable set with the normalized names of the given roles (null elements are ignored)
+	 */
+	static Set<String> normalizeAll(Collection<String> roles) {
+		Set<String> normalizedRoles = new HashSet<>();
+		for(String role : roles) {
+			if(role != null) {
+				normalizedRoles.add(normalize(role));
+			}
+		}
+		return Collections.unmodifiableSet(normalizedRoles);
+	}
+
+	/**
+	 * Compute the mask of the given roles of a user. Roles not used in the configuration are ignored, as they
+	 * cannot grant access to anything.
+	 * 
+	 * @param roles the role names, not necessarily normalized (null elements are ignored)
+	 * @return a {@link BitSet} having set the indexes of the given roles
+	 */
+	public static BitSet maskOf(Collection<String> roles) {
+		BitSet mask = new BitSet();
+		if(roles != null) {
+			for(String role : roles) {
+				if(role != null) {
+					Integer index = roleIndexes.get(normalize(role));
+					if(index != null) {
+						mask.set(index);
+					}
+				}
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * Compute the mask of the given configured roles, registering the roles not yet known.
+	 * 
+	 * @param roles the normalized role names
+	 * @return a {@link BitSet} having set the indexes of the given roles
+	 */
+	static BitSet register(Collection<String> roles) {
+		BitSet mask = new BitSet();
+		for(String role : roles) {
+			mask.set(indexOf(role));
+		}
+		return mask;
+	}
+
+	private static int indexOf(String normalizedRole) {
+		Integer index = roleIndexes.get(normalizedRole);
+		if(index == null) {
+			synchronized (roleIndexes) {
+				index = roleIndexes.get(normalizedRole);
+				if(index == null) {
+					index = roleIndexes.size();
+					roleIndexes.put(normalizedRole, index);
+				}
+			}
+		}
+		return index;
+	}
+}
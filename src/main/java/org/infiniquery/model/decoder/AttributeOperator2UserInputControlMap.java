@@ -67,6 +67,9 @@ public class AttributeOperator2UserInputControlMap {
         put(java.sql.Date.class, UserInputControlType.DATE_INPUT);
         put(java.time.LocalDate.class, UserInputControlType.DATE_INPUT);
         put(java.sql.Timestamp.class, UserInputControlType.DATE_TIME_INPUT);
+        put(java.time.LocalDateTime.class, UserInputControlType.DATE_TIME_INPUT);
+        put(java.time.Instant.class, UserInputControlType.DATE_TIME_INPUT);
+        put(java.util.UUID.class, UserInputControlType.FREE_TEXT_INPUT_SINGLE_VALUE);
         Class<?> jodaDateTimeClass = resolveClass("org.joda.time.DateTime");
         if(jodaDateTimeClass != null) {
             put(jodaDateTimeClass, UserInputControlType.DATE_TIME_INPUT);
@@ -103,6 +106,10 @@ public class AttributeOperator2UserInputControlMap {
         	//if this is an entity, then the same applies as for collections of entities
         	decoded = mappedByTypeAndOperator.get(new AttributeTypeOperatorKey(Collection.class, operator.getType()));
         }
+        if(decoded == null && (attributeType.isEnum() || ValueCodecs.isRegistered(attributeType))) {
+        	//enums, and custom types parsed by a registered codec, are entered as text
+        	decoded = UserInputControlType.FREE_TEXT_INPUT_SINGLE_VALUE;
+        }
         return decoded;
     }
 
@@ -31,8 +31,10 @@ import static org.infiniquery.util.Utils.resolveClass;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.infiniquery.model.EntityAttributeOperator;
@@ -44,6 +46,11 @@ import org.infiniquery.model.EntityAttributeOperator;
  */
 public class Type2OperatorMap {
 
+    /** The operators of the types whose values are only compared for equality: UUIDs, enums, and the custom types parsed by a registered codec */
+    private static final EntityAttributeOperator[] EQUALITY_OPERATORS = new EntityAttributeOperator[] {
+            EntityAttributeOperator.EQUALS
+    };
+
     @SuppressWarnings({ "serial", "rawtypes"})
 	private static Map<Class, EntityAttributeOperator[]> map = new HashMap<Class, EntityAttributeOperator[]>() {{
         put(int.class, new EntityAttributeOperator[] {
@@ -156,6 +163,17 @@ public class Type2OperatorMap {
                 EntityAttributeOperator.AFTER,
                 EntityAttributeOperator.EQUALS
         } );
+        put(java.time.LocalDateTime.class, new EntityAttributeOperator[] {
+                EntityAttributeOperator.BEFORE,
+                EntityAttributeOperator.AFTER,
+                EntityAttributeOperator.EQUALS
+        } );
+        put(java.time.Instant.class, new EntityAttributeOperator[] {
+                EntityAttributeOperator.BEFORE,
+                EntityAttributeOperator.AFTER,
+                EntityAttributeOperator.EQUALS
+        } );
+        put(java.util.UUID.class, EQUALITY_OPERATORS);
         Class<?> jodaDateTimeClass = resolveClass("org.joda.time.DateTime");
         if(jodaDateTimeClass != null) {
             put(jodaDateTimeClass, new EntityAttributeOperator[]{
@@ -186,9 +204,38 @@ public class Type2OperatorMap {
             //any possible entity; 
         	//the same operators are applicable as for collections of entities
         	return map.get(Collection.class);
+        } else if(attributeType.isEnum() || ValueCodecs.isRegistered(attributeType)) {
+        	//enums, and custom types parsed by a registered codec, are only compared for equality
+        	return EQUALITY_OPERATORS;
         } else {
             throw new RuntimeException("Not implemented entity types yet");
         }
     }
 
+    /**
+     * Get the display names of the operators applicable for an entity attribute of the given type.
+     * For the basic types, the IN operator is applicable only if the attribute has preset possible values, 
+     * and it is the only one applicable in that case.
+     * @param attributeType the java {@link java.lang.Class} representing the type of the entity attribute
+     * @param presetPossibleValues true if the attribute has preset possible values (i.e. a possibleValuesQuery)
+     * @return the display names of the applicable operators, in the order of their definition
+     */
+    public static List<String> getApplicableOperatorDisplayNames(Class<?> attributeType, boolean presetPossibleValues) {
+        EntityAttributeOperator[] applicableOperators = getApplicableOperatorsForType(attributeType);
+        boolean basicType = isBasicType(attributeType);
+        List<String> displayNames = new ArrayList<>(applicableOperators.length);
+        for(EntityAttributeOperator operator : applicableOperators) {
+            if(!basicType || presetPossibleValues == EntityAttributeOperator.IN.equals(operator)) {
+                displayNames.add(operator.getDisplayName());
+            }
+        }
+        return displayNames;
+    }
+
+    private static boolean isBasicType(Class<?> type) {
+        return type.isAssignableFrom(String.class) || 
+                type.isAssignableFrom(int.class) || type.isAssignableFrom(short.class) || type.isAssignableFrom(long.class) || 
+                type.isAssignableFrom(float.class) || type.isAssignableFrom(double.class) || type.isAssignableFrom(Number.class);
+    }
+
 }
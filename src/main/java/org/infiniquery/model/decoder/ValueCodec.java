@@ -0,0 +1,59 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.model.decoder;
+
+/**
+ * Converter between the values of an entity attribute type and their displayed (user entered) form.
+ * <p>
+ * A codec is resolved once per attribute, when the query context is loaded, and is then used for every value 
+ * entered for the attribute, possibly by many threads at once, so implementations must be thread-safe.
+ * Codecs for custom types are registered through {@link ValueCodecs#register(Class, ValueCodec)}.
+ *
+ * @param <T> the attribute type
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+public interface ValueCodec<T> {
+
+	/**
+	 * Parse a displayed value into a value of the attribute type, e.g. to bind it as a query parameter.
+	 * @param displayedValue the value, as entered by the user
+	 * @return the parsed value
+	 * @throws RuntimeException (e.g. an {@link IllegalArgumentException}) if the value cannot be parsed
+	 */
+	T decode(String displayedValue);
+
+	/**
+	 * Format a value of the attribute type into its displayed form, the one {@link #decode(String)} parses.
+	 * @param value the value to format
+	 * @return the displayed form of the value; by default, its string representation.
+	 */
+	default String encode(T value) {
+		return String.valueOf(value);
+	}
+
+}
@@ -0,0 +1,336 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.model.decoder;
+
+import static org.infiniquery.util.Utils.isEntity;
+import static org.infiniquery.util.Utils.resolveClass;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.infiniquery.Constants;
+
+/**
+ * Registry of the {@link ValueCodec}s of the entity attribute types.
+ * <p>
+ * Codecs are built in for the strings, the numbers, the booleans, the dates (java.util, java.sql and java.time, 
+ * and the Joda DateTime if Joda-Time is on the classpath), the UUIDs and the enums. The dates are parsed by the 
+ * thread-safe java.time formatters of the default patterns, leniently as to the number of digits, and the java.util 
+ * dates in the default time zone. Codecs for other types may be registered, and they take precedence over the built in ones.
+ * Any other type is parsed by its static valueOf(String) method, or else by its String constructor, resolved on first use.
+ * <p>
+ * The codecs are resolved when the query context is loaded, so they should be registered before.
+ *
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+public final class ValueCodecs {
+
+	private static final DateTimeFormatter DATE_PARSER = new DateTimeFormatterBuilder().parseLenient().appendPattern(Constants.DEFAULT_DATE_PATTERN).toFormatter();
+
+	private static final DateTimeFormatter DATE_TIME_PARSER = new DateTimeFormatterBuilder().parseLenient().appendPattern(Constants.DEFAULT_DATE_TIME_PATTERN).toFormatter();
+
+	private static final Map<Class<?>, ValueCodec<?>> BUILT_IN_CODECS = new HashMap<>();
+
+	private static final Map<Class<?>, ValueCodec<?>> registeredCodecs = new ConcurrentHashMap<>();
+
+	/** The codecs of the enums, and of the types parsed by their valueOf method or String constructor */
+	private static final Map<Class<?>, ValueCodec<?>> derivedCodecs = new ConcurrentHashMap<>();
+
+	static {
+		builtIn(String.class, value -> value);
+		builtIn(Integer.class, Integer::valueOf);
+		builtIn(int.class, Integer::valueOf);
+		builtIn(Long.class, Long::valueOf);
+		builtIn(long.class, Long::valueOf);
+		builtIn(Short.class, Short::valueOf);
+		builtIn(short.class, Short::valueOf);
+		builtIn(Byte.class, Byte::valueOf);
+		builtIn(byte.class, Byte::valueOf);
+		builtIn(Double.class, Double::valueOf);
+		builtIn(double.class, Double::valueOf);
+		builtIn(Float.class, Float::valueOf);
+		builtIn(float.class, Float::valueOf);
+		builtIn(Boolean.class, Boolean::valueOf);
+		builtIn(boolean.class, Boolean::valueOf);
+		builtIn(BigInteger.class, BigInteger::new);
+		builtIn(BigDecimal.class, BigDecimal::new);
+		builtIn(UUID.class, UUID::fromString);
+		builtIn(LocalDate.class, new ValueCodec<LocalDate>() {
+			@Override
+			public LocalDate decode(String displayedValue) {
+				return LocalDate.parse(displayedValue, DATE_PARSER);
+			}
+			@Override
+			public String encode(LocalDate value) {
+				return Constants.DEFAULT_DATE_FORMATTER.format(value);
+			}
+		});
+		builtIn(LocalDateTime.class, new ValueCodec<LocalDateTime>() {
+			@Override
+			public LocalDateTime decode(String displayedValue) {
+				return LocalDateTime.parse(displayedValue, DATE_TIME_PARSER);
+			}
+			@Override
+			public String encode(LocalDateTime value) {
+				return Constants.DEFAULT_DATE_TIME_FORMATTER.format(value);
+			}
+		});
+		builtIn(Instant.class, new ValueCodec<Instant>() {
+			@Override
+			public Instant decode(String displayedValue) {
+				return LocalDateTime.parse(displayedValue, DATE_TIME_PARSER).atZone(ZoneId.systemDefault()).toInstant();
+			}
+			@Override
+			public String encode(Instant value) {
+				return Constants.DEFAULT_DATE_TIME_FORMATTER.format(value.atZone(ZoneId.systemDefault()));
+			}
+		});
+		builtIn(java.sql.Date.class, new ValueCodec<java.sql.Date>() {
+			@Override
+			public java.sql.Date decode(String displayedValue) {
+				return java.sql.Date.valueOf(LocalDate.parse(displayedValue, DATE_PARSER));
+			}
+			@Override
+			public String encode(java.sql.Date value) {
+				return Constants.DEFAULT_DATE_FORMATTER.format(value.toLocalDate());
+			}
+		});
+		builtIn(Date.class, new ValueCodec<Date>() {
+			@Override
+			public Date decode(String displayedValue) {
+				return Date.from(LocalDateTime.parse(displayedValue, DATE_TIME_PARSER).atZone(ZoneId.systemDefault()).toInstant());
+			}
+			@Override
+			public String encode(Date value) {
+				return Constants.DEFAULT_DATE_TIME_FORMATTER.format(Instant.ofEpochMilli(value.getTime()).atZone(ZoneId.systemDefault()));
+			}
+		});
+		Class<?> jodaDateTimeClass = resolveClass("org.joda.time.DateTime");
+		if(jodaDateTimeClass != null) {
+			BUILT_IN_CODECS.put(jodaDateTimeClass, new JodaDateTimeCodec(jodaDateTimeClass));
+		}
+	}
+
+	private ValueCodecs() {
+	}
+
+	private static <T> void builtIn(Class<T> type, ValueCodec<T> codec) {
+		BUILT_IN_CODECS.put(type, codec);
+	}
+
+	/**
+	 * Register the codec of a custom type, replacing any codec registered, or built in, for it.
+	 * The codec is used for the attributes of exactly the given type.
+	 * @param type the attribute type
+	 * @param codec the codec of the type
+	 */
+	public static <T> void register(Class<T> type, ValueCodec<T> codec) {
+		if(type == null || codec == null) {
+			throw new IllegalArgumentException("Both the type and the codec are required.");
+		}
+		registeredCodecs.put(type, codec);
+	}
+
+	/**
+	 * 
+	 * @param type an attribute type
+	 * @return true if a codec has been registered for the given type
+	 */
+	public static boolean isRegistered(Class<?> type) {
+		return registeredCodecs.containsKey(type);
+	}
+
+	/**
+	 * Resolve the codec of the given attribute type.
+	 * @param type the attribute type
+	 * @return the codec of the type, or null for collections and entities, whose values are compared by their labels instead.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> ValueCodec<T> forType(Class<T> type) {
+		ValueCodec<?> codec = registeredCodecs.get(type);
+		if(codec == null) {
+			codec = BUILT_IN_CODECS.get(type);
+		}
+		if(codec == null) {
+			if(java.sql.Date.class.isAssignableFrom(type)) {
+				codec = BUILT_IN_CODECS.get(java.sql.Date.class);
+			} else if(Date.class.isAssignableFrom(type)) {
+				//e.g. java.sql.Timestamp, bound as a java.util.Date
+				codec = BUILT_IN_CODECS.get(Date.class);
+			} else if(Collection.class.isAssignableFrom(type) || isEntity(type)) {
+				return null;
+			} else {
+				codec = derivedCodecs.computeIfAbsent(type, ValueCodecs::deriveCodec);
+			}
+		}
+		return (ValueCodec<T>) codec;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static ValueCodec<?> deriveCodec(final Class<?> type) {
+		if(type.isEnum()) {
+			final Class<? extends Enum> enumType = (Class<? extends Enum>) type;
+			return new ValueCodec<Enum>() {
+				@Override
+				public Enum decode(String displayedValue) {
+					return Enum.valueOf(enumType, displayedValue);
+				}
+				@Override
+				public String encode(Enum value) {
+					return value.name();
+				}
+			};
+		}
+		return new ReflectiveCodec(type);
+	}
+
+	/**
+	 * Codec parsing the values through the static valueOf(String) method of the type, or else through its String 
+	 * constructor, resolved on first use.
+	 */
+	private static final class ReflectiveCodec implements ValueCodec<Object> {
+
+		private static final MethodType PARSER_TYPE = MethodType.methodType(Object.class, String.class);
+
+		private final Class<?> type;
+
+		private volatile MethodHandle parser;
+
+		ReflectiveCodec(Class<?> type) {
+			this.type = type;
+		}
+
+		@Override
+		public Object decode(String displayedValue) {
+			MethodHandle handle = parser;
+			if(handle == null) {
+				//resolving it more than once, concurrently, is harmless
+				handle = resolveParser();
+				parser = handle;
+			}
+			try {
+				return (Object) handle.invokeExact(displayedValue);
+			} catch (RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new RuntimeException(e.getMessage(), e);
+			}
+		}
+
+		private MethodHandle resolveParser() {
+			try {
+				try {
+					Method method = type.getMethod("valueOf", String.class);
+					if(Modifier.isStatic(method.getModifiers())) {
+						method.setAccessible(true);
+						return MethodHandles.lookup().unreflect(method).asType(PARSER_TYPE);
+					}
+				} catch (NoSuchMethodException e) {
+					//try the String constructor
+				}
+				try {
+					Constructor<?> constructor = type.getDeclaredConstructor(String.class);
+					constructor.setAccessible(true);
+					return MethodHandles.lookup().unreflectConstructor(constructor).asType(PARSER_TYPE);
+				} catch (NoSuchMethodException e) {
+					throw new UnsupportedOperationException("Unsupported attribute value type: " + type);
+				}
+			} catch (IllegalAccessException e) {
+				throw new UnsupportedOperationException("Unsupported attribute value type: " + type, e);
+			}
+		}
+	}
+
+	/**
+	 * Codec of the Joda DateTime, working without a compile-time dependency to the Joda-Time library. 
+	 * The methods and the formatter are resolved once.
+	 */
+	private static final class JodaDateTimeCodec implements ValueCodec<Object> {
+
+		private final MethodHandle parse;
+
+		private final MethodHandle print;
+
+		JodaDateTimeCodec(Class<?> jodaDateTimeClass) {
+			try {
+				Class<?> dateTimeFormatClass = Class.forName("org.joda.time.format.DateTimeFormat", true, jodaDateTimeClass.getClassLoader());
+				Class<?> dateTimeFormatterClass = Class.forName("org.joda.time.format.DateTimeFormatter", true, jodaDateTimeClass.getClassLoader());
+				Class<?> readableInstantClass = Class.forName("org.joda.time.ReadableInstant", true, jodaDateTimeClass.getClassLoader());
+				MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+				Object formatter = lookup.findStatic(dateTimeFormatClass, "forPattern", MethodType.methodType(dateTimeFormatterClass, String.class))
+						.invoke(Constants.DEFAULT_DATE_TIME_PATTERN);
+				this.parse = MethodHandles.insertArguments(lookup.findStatic(jodaDateTimeClass, "parse", MethodType.methodType(jodaDateTimeClass, String.class, dateTimeFormatterClass)), 1, formatter)
+						.asType(MethodType.methodType(Object.class, String.class));
+				this.print = lookup.findVirtual(dateTimeFormatterClass, "print", MethodType.methodType(String.class, readableInstantClass)).bindTo(formatter)
+						.asType(MethodType.methodType(String.class, Object.class));
+			} catch (Throwable e) {
+				throw new IllegalStateException("Unable to resolve the Joda-Time parsing methods: " + e.getMessage(), e);
+			}
+		}
+
+		@Override
+		public Object decode(String displayedValue) {
+			try {
+				return (Object) parse.invokeExact(displayedValue);
+			} catch (RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new RuntimeException(e.getMessage(), e);
+			}
+		}
+
+		@Override
+		public String encode(Object value) {
+			try {
+				return (String) print.invokeExact(value);
+			} catch (RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new RuntimeException(e.getMessage(), e);
+			}
+		}
+	}
+}
@@ -35,7 +35,28 @@ import java.util.LinkedHashMap;
  */
 public class QueryResultItem {
 
-	private LinkedHashMap<String, Object> attributesMap = new LinkedHashMap<>();
+	private LinkedHashMap<String, Object> attributesMap;
+
+	/** The columns holding the values of this item, if it is a row of a columnar {@link QueryResultsView} */
+	private ResultColumns columns;
+
+	/** The position of this item within the rows of its columns */
+	private int row;
+
+	public QueryResultItem() {
+		this.attributesMap = new LinkedHashMap<>();
+	}
+
+	/**
+	 * Create a lightweight item reading its values from a row of the given columns.
+	 * 
+	 * @param columns the columns holding the values of the item
+	 * @param row the position of the item within the rows of the columns
+	 */
+	QueryResultItem(ResultColumns columns, int row) {
+		this.columns = columns;
+		this.row = row;
+	}
 	
 	/**
 	 * Get the value of an instance attribute.
@@ -44,27 +65,46 @@ public class QueryResultItem {
 	 * @return Object representing the value of the attribute denoted by the given name.
 	 */
 	public Object get(String attributeName) {
-		
+		if(columns != null) {
+			return columns.get(row, attributeName);
+		}
 		return attributesMap.get(attributeName);
 	}
 	
 	/**
 	 * Set the value of an instance attribute.
+	 * The value of an item of a columnar view is written to its row, so only the attributes shown as columns can be set.
 	 * 
 	 * @param attributeName the String name of the attribute
 	 * @param value the value to set
+	 * @throws UnsupportedOperationException if this item is a row of a columnar view, and the attribute is not one of its columns
 	 */
 	public void add(String attributeName, Object value) {
-
+		if(columns != null) {
+			int column = columns.getColumnIndex(attributeName);
+			if(column < 0) {
+				throw new UnsupportedOperationException("The attribute " + attributeName + " is not a column of the results, so it cannot be added to their items.");
+			}
+			columns.set(row, column, value);
+			return;
+		}
 		attributesMap.put(attributeName, value);
 	}
 	
 	/**
 	 * Remove an attribute of this instance.
+	 * The value of an item of a columnar view is cleared in its row, since its columns are shared with the other items.
 	 * 
 	 * @param attributeName the name of the attribute to be removed.
 	 */
 	public void remove(String attributeName) {
+		if(columns != null) {
+			int column = columns.getColumnIndex(attributeName);
+			if(column >= 0) {
+				columns.set(row, column, null);
+			}
+			return;
+		}
 		attributesMap.remove(attributeName);
 	}
 	
@@ -26,6 +26,7 @@
 
 package org.infiniquery.model.view;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -34,6 +35,10 @@ import java.util.Map;
  * Representation of the results of a dynamic query execution.
  * This bean contains both the results list and the display name of the entity type that has been requested.
  * The latter can be used to identify the functions to be used for handling the presentation of the results in UI.
+ * <p>
+ * A view created over {@link ResultColumns} keeps its results in columnar form, with one header shared by all the rows. 
+ * Its items are then lightweight {@link QueryResultItem}s, created on access, that read their values from the columns 
+ * and write the changes of their values back to them; no attribute other than the columns can be added to them.
  * 
  * @author Daniel Doboga
  * @since 1.0.0
@@ -44,7 +49,26 @@ public class QueryResultsView {
     private String entityName;
     
     private List<QueryResultItem> items;
+
+    /** The columnar storage of the results, or null if the results are kept as a list of items */
+    private ResultColumns columns;
+
+    /** The position of the first item of this view within the whole results of the query */
+    private int offset;
+
+    /** The maximum number of items of this view, or 0 if unlimited */
+    private int limit;
+
+    /** Whether or not the query has more results beyond the items of this view */
+    private boolean moreResultsAvailable;
     
+    /**
+     * Create an empty result view, to be filled in as the results are read.
+     */
+    public QueryResultsView() {
+    	this.items = new ArrayList<>();
+    }
+
     /**
      * 
      * @param size the number of items in this result view
@@ -53,12 +77,51 @@ public class QueryResultsView {
     	this.items = new ArrayList<>(size);
     }
     
+    /**
+     * Create an empty result view keeping its results in the given columns.
+     * 
+     * @param columns the columnar storage of the results
+     */
+    public QueryResultsView(ResultColumns columns) {
+    	this.columns = columns;
+    	this.items = new ColumnarItems();
+    }
+    
     /**
      * 
      * @param item the query result item to add
      */
     public void addEntity(QueryResultItem item) {
-    	items.add(item);
+    	if(columns != null) {
+    		Object[] values = new Object[columns.getColumnCount()];
+    		for(int column = 0; column < values.length; column++) {
+    			values[column] = item.get(columns.getColumnNames().get(column));
+    		}
+    		columns.addRow(values);
+    	} else {
+    		items.add(item);
+    	}
+    }
+
+    /**
+     * Add a row of values to a columnar view.
+     * 
+     * @param values the values of the row, in the order of the columns. The array is copied, so it can be reused.
+     * @throws IllegalStateException if this view is not columnar
+     */
+    public void addRow(Object[] values) {
+    	if(columns == null) {
+    		throw new IllegalStateException("The results of this view are not kept in columns.");
+    	}
+    	columns.addRow(values);
+    }
+
+    /**
+     * 
+     * @return the columnar storage of the results, or null if the results are kept as a list of items
+     */
+    public ResultColumns getColumns() {
+    	return columns;
     }
 
     /**
@@ -77,6 +140,54 @@ public class QueryResultsView {
 		this.entityName = entityName;
 	}
 
+	/**
+	 * 
+	 * @return the position of the first item of this view within the whole results of the query
+	 */
+	public int getOffset() {
+		return offset;
+	}
+
+	/**
+	 * 
+	 * @param offset the position of the first item of this view within the whole results of the query
+	 */
+	public void setOffset(int offset) {
+		this.offset = offset;
+	}
+
+	/**
+	 * 
+	 * @return the maximum number of items of this view, or 0 if unlimited
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * 
+	 * @param limit the maximum number of items of this view, or 0 if unlimited
+	 */
+	public void setLimit(int limit) {
+		this.limit = limit;
+	}
+
+	/**
+	 * 
+	 * @return true if the query has more results beyond the items of this view (e.g. a next page, or results cut by the configured results limit)
+	 */
+	public boolean isMoreResultsAvailable() {
+		return moreResultsAvailable;
+	}
+
+	/**
+	 * 
+	 * @param moreResultsAvailable whether or not the query has more results beyond the items of this view
+	 */
+	public void setMoreResultsAvailable(boolean moreResultsAvailable) {
+		this.moreResultsAvailable = moreResultsAvailable;
+	}
+
 	/**
 	 * 
 	 * @return items a List of QueryResultItem objects
@@ -91,6 +202,32 @@ public class QueryResultsView {
 	 */
 	public void setItems(List<QueryResultItem> items) {
 		this.items = items;
+		this.columns = null;
+	}
+
+	/**
+	 * The items of a columnar view, created on access over the rows of its columns.
+	 */
+	private class ColumnarItems extends AbstractList<QueryResultItem> {
+
+		@Override
+		public QueryResultItem get(int index) {
+			if(index < 0 || index >= columns.getRowCount()) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", size: " + columns.getRowCount());
+			}
+			return new QueryResultItem(columns, index);
+		}
+
+		@Override
+		public int size() {
+			return columns.getRowCount();
+		}
+
+		@Override
+		public boolean add(QueryResultItem item) {
+			addEntity(item);
+			return true;
+		}
 	}
     
 }
@@ -0,0 +1,444 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.model.view;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Columnar storage of query results: one header of column names shared by all the rows, and one array per column 
+ * holding the values of all the rows. Numeric columns are stored in primitive arrays of their own type (e.g. int[] for 
+ * an Integer column), with the null values tracked in a bit set, so that no boxed value and no per row map is kept on the heap.
+ * <p>
+ * A column declared with a numeric type falls back to object storage if a value of another type is ever added to it.
+ *
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+public final class ResultColumns {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final List<String> columnNames;
+
+	private final Map<String, Integer> columnIndexes;
+
+	private final Column[] columns;
+
+	private int rowCount;
+
+	/**
+	 * 
+	 * @param columnNames the names of the columns, as shown in the results
+	 * @param columnTypes the types of the values of the columns (null or Object.class if not known)
+	 */
+	public ResultColumns(String[] columnNames, Class<?>[] columnTypes) {
+		if(columnNames.length != columnTypes.length) {
+			throw new IllegalArgumentException("The number of column names (" + columnNames.length + ") does not match the number of column types (" + columnTypes.length + ")");
+		}
+		this.columnNames = Collections.unmodifiableList(Arrays.asList(columnNames.clone()));
+		this.columnIndexes = new HashMap<>(columnNames.length * 2);
+		this.columns = new Column[columnNames.length];
+		for(int i = 0; i < columnNames.length; i++) {
+			columnIndexes.put(columnNames[i], i);
+			columns[i] = createColumn(columnTypes[i]);
+		}
+	}
+
+	/**
+	 * 
+	 * @return the names of the columns, in their order
+	 */
+	public List<String> getColumnNames() {
+		return columnNames;
+	}
+
+	/**
+	 * 
+	 * @param columnName the name of a column
+	 * @return the position of the column with the given name, or -1 if there is no such column
+	 */
+	public int getColumnIndex(String columnName) {
+		Integer index = columnIndexes.get(columnName);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * 
+	 * @return the number of columns
+	 */
+	public int getColumnCount() {
+		return columns.length;
+	}
+
+	/**
+	 * 
+	 * @return the number of rows
+	 */
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * Append a row. The values are copied, so the given array can be reused for the next row.
+	 * 
+	 * @param values the values of the row, one per column, in the order of the columns
+	 */
+	public void addRow(Object[] values) {
+		if(values.length != columns.length) {
+			throw new IllegalArgumentException("The row has " + values.length + " values, while there are " + columns.length + " columns");
+		}
+		for(int i = 0; i < columns.length; i++) {
+			Object value = values[i];
+			if(value != null && !columns[i].accepts(value)) {
+				columns[i] = columns[i].toObjectColumn(rowCount);
+			}
+			columns[i].set(rowCount, value);
+		}
+		rowCount++;
+	}
+
+	/**
+	 * Replace the value found at the given row and column.
+	 * 
+	 * @param row the position of the row
+	 * @param column the position of the column
+	 * @param value the new value
+	 */
+	public void set(int row, int column, Object value) {
+		if(row < 0 || row >= rowCount) {
+			throw new IndexOutOfBoundsException("Row: " + row + ", row count: " + rowCount);
+		}
+		if(value != null && !columns[column].accepts(value)) {
+			columns[column] = columns[column].toObjectColumn(rowCount);
+		}
+		columns[column].set(row, value);
+	}
+
+	/**
+	 * 
+	 * @param row the position of the row
+	 * @param column the position of the column
+	 * @return the value found at the given row and column
+	 */
+	public Object get(int row, int column) {
+		if(row < 0 || row >= rowCount) {
+			throw new IndexOutOfBoundsException("Row: " + row + ", row count: " + rowCount);
+		}
+		return columns[column].get(row);
+	}
+
+	/**
+	 * 
+	 * @param row the position of the row
+	 * @param columnName the name of the column
+	 * @return the value found at the given row and column, or null if there is no column with the given name
+	 */
+	public Object get(int row, String columnName) {
+		int column = getColumnIndex(columnName);
+		return column < 0 ? null : get(row, column);
+	}
+
+	private static Column createColumn(Class<?> type) {
+		if(type == Long.class || type == long.class) {
+			return new LongColumn();
+		} else if(type == Integer.class || type == int.class) {
+			return new IntColumn();
+		} else if(type == Short.class || type == short.class) {
+			return new ShortColumn();
+		} else if(type == Byte.class || type == byte.class) {
+			return new ByteColumn();
+		} else if(type == Double.class || type == double.class) {
+			return new DoubleColumn();
+		} else if(type == Float.class || type == float.class) {
+			return new FloatColumn();
+		} else {
+			return new ObjectColumn();
+		}
+	}
+
+	private static int grow(int length, int minimumCapacity) {
+		return Math.max(minimumCapacity, length == 0 ? INITIAL_CAPACITY : length + (length >> 1));
+	}
+
+	private abstract static class Column {
+
+		abstract boolean accepts(Object value);
+
+		abstract void set(int row, Object value);
+
+		abstract Object get(int row);
+
+		ObjectColumn toObjectColumn(int rowCount) {
+			ObjectColumn objectColumn = new ObjectColumn();
+			for(int row = 0; row < rowCount; row++) {
+				objectColumn.set(row, get(row));
+			}
+			return objectColumn;
+		}
+	}
+
+	private static final class ObjectColumn extends Column {
+
+		private Object[] values = new Object[0];
+
+		@Override
+		boolean accepts(Object value) {
+			return true;
+		}
+
+		@Override
+		void set(int row, Object value) {
+			if(row >= values.length) {
+				values = Arrays.copyOf(values, grow(values.length, row + 1));
+			}
+			values[row] = value;
+		}
+
+		@Override
+		Object get(int row) {
+			return values[row];
+		}
+	}
+
+	/**
+	 * Column of primitive values, with the null values tracked in a bit set.
+	 */
+	private abstract static class PrimitiveColumn extends Column {
+
+		private final BitSet nulls = new BitSet();
+
+		abstract int capacity();
+
+		abstract void grow(int minimumCapacity);
+
+		abstract void setValue(int row, Object value);
+
+		abstract Object getValue(int row);
+
+		@Override
+		final void set(int row, Object value) {
+			if(row >= capacity()) {
+				grow(row + 1);
+			}
+			if(value == null) {
+				nulls.set(row);
+			} else {
+				setValue(row, value);
+			}
+		}
+
+		@Override
+		final Object get(int row) {
+			return nulls.get(row) ? null : getValue(row);
+		}
+	}
+
+	private static final class LongColumn extends PrimitiveColumn {
+
+		private long[] values = new long[0];
+
+		@Override
+		boolean accepts(Object value) {
+			return value instanceof Long;
+		}
+
+		@Override
+		int capacity() {
+			return values.length;
+		}
+
+		@Override
+		void grow(int minimumCapacity) {
+			values = Arrays.copyOf(values, ResultColumns.grow(values.length, minimumCapacity));
+		}
+
+		@Override
+		void setValue(int row, Object value) {
+			values[row] = (Long) value;
+		}
+
+		@Override
+		Object getValue(int row) {
+			return values[row];
+		}
+	}
+
+	private static final class IntColumn extends PrimitiveColumn {
+
+		private int[] values = new int[0];
+
+		@Override
+		boolean accepts(Object value) {
+			return value instanceof Integer;
+		}
+
+		@Override
+		int capacity() {
+			return values.length;
+		}
+
+		@Override
+		void grow(int minimumCapacity) {
+			values = Arrays.copyOf(values, ResultColumns.grow(values.length, minimumCapacity));
+		}
+
+		@Override
+		void setValue(int row, Object value) {
+			values[row] = (Integer) value;
+		}
+
+		@Override
+		Object getValue(int row) {
+			return values[row];
+		}
+	}
+
+	private static final class ShortColumn extends PrimitiveColumn {
+
+		private short[] values = new short[0];
+
+		@Override
+		boolean accepts(Object value) {
+			return value instanceof Short;
+		}
+
+		@Override
+		int capacity() {
+			return values.length;
+		}
+
+		@Override
+		void grow(int minimumCapacity) {
+			values = Arrays.copyOf(values, ResultColumns.grow(values.length, minimumCapacity));
+		}
+
+		@Override
+		void setValue(int row, Object value) {
+			values[row] = (Short) value;
+		}
+
+		@Override
+		Object getValue(int row) {
+			return values[row];
+		}
+	}
+
+	private static final class ByteColumn extends PrimitiveColumn {
+
+		private byte[] values = new byte[0];
+
+		@Override
+		boolean accepts(Object value) {
+			return value instanceof Byte;
+		}
+
+		@Override
+		int capacity() {
+			return values.length;
+		}
+
+		@Override
+		void grow(int minimumCapacity) {
+			values = Arrays.copyOf(values, ResultColumns.grow(values.length, minimumCapacity));
+		}
+
+		@Override
+		void setValue(int row, Object value) {
+			values[row] = (Byte) value;
+		}
+
+		@Override
+		Object getValue(int row) {
+			return values[row];
+		}
+	}
+
+	private static final class DoubleColumn extends PrimitiveColumn {
+
+		private double[] values = new double[0];
+
+		@Override
+		boolean accepts(Object value) {
+			return value instanceof Double;
+		}
+
+		@Override
+		int capacity() {
+			return values.length;
+		}
+
+		@Override
+		void grow(int minimumCapacity) {
+			values = Arrays.copyOf(values, ResultColumns.grow(values.length, minimumCapacity));
+		}
+
+		@Override
+		void setValue(int row, Object value) {
+			values[row] = (Double) value;
+		}
+
+		@Override
+		Object getValue(int row) {
+			return values[row];
+		}
+	}
+
+	private static final class FloatColumn extends PrimitiveColumn {
+
+		private float[] values = new float[0];
+
+		@Override
+		boolean accepts(Object value) {
+			return value instanceof Float;
+		}
+
+		@Override
+		int capacity() {
+			return values.length;
+		}
+
+		@Override
+		void grow(int minimumCapacity) {
+			values = Arrays.copyOf(values, ResultColumns.grow(values.length, minimumCapacity));
+		}
+
+		@Override
+		void setValue(int row, Object value) {
+			values[row] = (Float) value;
+		}
+
+		@Override
+		Object getValue(int row) {
+			return values[row];
+		}
+	}
+}
@@ -0,0 +1,136 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.infiniquery.model.JpaEntity;
+import org.infiniquery.model.LogicalQueryItem;
+
+/**
+ * The JPQL compilation of a query shape: the statement, split into its clauses, and the binders extracting 
+ * the statement parameters from the logical dimension of any query having that shape.
+ *
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+final class CompiledQueryPlan {
+
+	/**
+	 * Producer of the parameter values for the placeholders of a JPQL statement.
+	 */
+	interface ParameterBinder {
+
+		/**
+		 * Add to the given list the values of one or more parameters.
+		 * @param logicalDimension the logical dimension of the query being executed
+		 * @param params the parameter values, in the order of their placeholders in the statement
+		 * @throws Exception if the values cannot be produced (e.g. a value cannot be parsed)
+		 */
+		void bind(LogicalQueryItem[] logicalDimension, List<Object> params) throws Exception;
+	}
+
+	private final JpaEntity entity;
+
+	private final String selectClause;
+
+	private final String fromClause;
+
+	private final String whereClause;
+
+	private final String jpql;
+
+	private final ParameterBinder[] binders;
+
+	/**
+	 * 
+	 * @param entity the entity requested by the query
+	 * @param selectClause the SELECT clause (e.g. SELECT DISTINCT x)
+	 * @param fromClause the FROM clause, including the joins (it starts with a space)
+	 * @param whereClause the rest of the statement (it starts with a space, unless empty)
+	 * @param binders the binders of the statement parameters, in the order of their placeholders
+	 */
+	CompiledQueryPlan(JpaEntity entity, String selectClause, String fromClause, String whereClause, List<ParameterBinder> binders) {
+		this.entity = entity;
+		this.selectClause = selectClause;
+		this.fromClause = fromClause;
+		this.whereClause = whereClause;
+		this.jpql = selectClause + fromClause + whereClause;
+		this.binders = binders.toArray(new ParameterBinder[binders.size()]);
+	}
+
+	JpaEntity getEntity() {
+		return entity;
+	}
+
+	String getSelectClause() {
+		return selectClause;
+	}
+
+	String getFromClause() {
+		return fromClause;
+	}
+
+	String getWhereClause() {
+		return whereClause;
+	}
+
+	String getJpql() {
+		return jpql;
+	}
+
+	/**
+	 * Derive a statement from this plan, with another SELECT clause and more joins. The joins are added right after 
+	 * the root of the FROM clause, before the joins of the conditions, so that the persistence provider doesn't merge 
+	 * them into the latter (which would, for instance, make a fetch join of a path also joined by a condition ineffective).
+	 * @param otherSelectClause the SELECT clause of the derived statement
+	 * @param additionalJoins the joins to add (starting with a space, unless empty)
+	 * @return the derived statement
+	 */
+	String deriveJpql(String otherSelectClause, String additionalJoins) {
+		String rootClause = " FROM " + entity.getClassName() + " x";
+		if(additionalJoins.isEmpty() || !fromClause.startsWith(rootClause)) {
+			return otherSelectClause + fromClause + additionalJoins + whereClause;
+		}
+		return otherSelectClause + rootClause + additionalJoins + fromClause.substring(rootClause.length()) + whereClause;
+	}
+
+	/**
+	 * Produce the parameter values of the statement for the given query.
+	 * @param logicalDimension the logical dimension of a query having the shape this plan was compiled for
+	 * @return the parameter values, in the order of their placeholders in the statement
+	 * @throws Exception if the values cannot be produced
+	 */
+	List<Object> bindParameters(LogicalQueryItem[] logicalDimension) throws Exception {
+		List<Object> params = new ArrayList<>();
+		for(ParameterBinder binder : binders) {
+			binder.bind(logicalDimension, params);
+		}
+		return params;
+	}
+}
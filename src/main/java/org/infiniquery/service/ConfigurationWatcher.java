@@ -0,0 +1,180 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.service;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Watcher of the configuration files, reloading the query context when any of them changes. 
+ * Only the files on the default file system can be watched (e.g. not those packaged in jars).
+ * The bursts of changes (e.g. an editor saving a file in several steps) are reloaded only once, 
+ * after the files are left unchanged for a short while.
+ *
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+final class ConfigurationWatcher {
+
+	/** How long the files must be left unchanged before they are reloaded */
+	private static final long QUIET_PERIOD_MILLIS = 200;
+
+	private final Supplier<List<URL>> reloader;
+
+	private final Consumer<? super RuntimeException> reloadFailureHandler;
+
+	private final WatchService watchService;
+
+	private final Set<Path> watchedDirectories = new HashSet<>();
+
+	private volatile Set<Path> watchedFiles = new HashSet<>();
+
+	private final Thread thread;
+
+	/**
+	 * 
+	 * @param sources the configuration files to watch
+	 * @param reloader the reload of the query context, returning the configuration files to watch from then on
+	 * @param reloadFailureHandler the handler of the failed reloads (e.g. of an invalid file), or null to ignore them
+	 * @throws IllegalStateException if none of the given files can be watched
+	 */
+	ConfigurationWatcher(List<URL> sources, Supplier<List<URL>> reloader, Consumer<? super RuntimeException> reloadFailureHandler) {
+		this.reloader = reloader;
+		this.reloadFailureHandler = reloadFailureHandler;
+		try {
+			this.watchService = FileSystems.getDefault().newWatchService();
+			watch(sources);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to watch the configuration files.", e);
+		}
+		if(watchedFiles.isEmpty()) {
+			close();
+			throw new IllegalStateException("None of the configuration files can be watched, as none is on the file system: " + sources);
+		}
+		this.thread = new Thread(this::run, "infiniquery-configuration-watch");
+		this.thread.setDaemon(true);
+	}
+
+	void start() {
+		thread.start();
+	}
+
+	/**
+	 * Stop watching the configuration files. A reload in progress is completed.
+	 */
+	void close() {
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			//nothing left to release
+		}
+	}
+
+	private void watch(List<URL> sources) throws IOException {
+		Set<Path> files = new HashSet<>();
+		for(URL source : sources) {
+			if(!"file".equals(source.getProtocol())) {
+				continue;
+			}
+			Path file;
+			try {
+				file = Paths.get(source.toURI()).toAbsolutePath();
+			} catch (URISyntaxException | IllegalArgumentException e) {
+				continue;
+			}
+			Path directory = file.getParent();
+			if(watchedDirectories.add(directory)) {
+				//editors often save a file by replacing it, thus creations are watched too
+				directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			}
+			files.add(file);
+		}
+		this.watchedFiles = files;
+	}
+
+	private void run() {
+		try {
+			while(true) {
+				if(pollChanges(watchService.take())) {
+					//wait for the burst of changes to end
+					WatchKey key;
+					while((key = watchService.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+						pollChanges(key);
+					}
+					reload();
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			//the watch was stopped
+		}
+	}
+
+	/**
+	 * 
+	 * @return true if any of the watched files changed, according to the events of the given key
+	 */
+	private boolean pollChanges(WatchKey key) {
+		boolean changed = false;
+		Path directory = (Path) key.watchable();
+		for(WatchEvent<?> event : key.pollEvents()) {
+			if(event.kind() == StandardWatchEventKinds.OVERFLOW || watchedFiles.contains(directory.resolve((Path) event.context()))) {
+				changed = true;
+			}
+		}
+		key.reset();
+		return changed;
+	}
+
+	private void reload() {
+		try {
+			watch(reloader.get());
+		} catch (RuntimeException e) {
+			if(reloadFailureHandler != null) {
+				reloadFailureHandler.accept(e);
+			}
+		} catch (IOException e) {
+			if(reloadFailureHandler != null) {
+				reloadFailureHandler.accept(new IllegalStateException("Unable to watch the configuration files.", e));
+			}
+		}
+	}
+}
@@ -26,9 +26,10 @@
 
 package org.infiniquery.service;
 
+import java.util.ArrayList;
 import java.util.List;
-
-import javax.persistence.EntityManager;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  *
@@ -52,4 +53,101 @@ public interface DatabaseAccessService {
      */
     List executeQuery(String queryString, List<?> params);
 
+    /**
+     * Execute a query with a set of parameters, retrieving only a window of its results.
+     * The default implementation retrieves all the results through {@link #executeQuery(String, List)} and 
+     * then keeps only the requested window; implementations should override it to limit the results in the database.
+     * 
+     * @param queryString the query to execute
+     * @param params a list of parameters
+     * @param firstResult the position of the first result to retrieve, starting with 0
+     * @param maxResults the maximum number of results to retrieve; a value lower than or equal to zero means no limit
+     * @return a list of objects resulted form the query execution
+     */
+    default List executeQuery(String queryString, List<?> params, int firstResult, int maxResults) {
+        List<?> results = executeQuery(queryString, params);
+        int fromIndex = Math.min(firstResult, results.size());
+        int toIndex = maxResults <= 0 ? results.size() : (int) Math.min((long) fromIndex + maxResults, results.size());
+        return results.subList(fromIndex, toIndex);
+    }
+
+    /**
+     * Execute a query with a set of parameters, handing the resulted objects to the given consumer one at a time, 
+     * as they are read from the database. Implementations are expected not to keep references to the objects already 
+     * handed to the consumer, so that the memory used stays constant regardless of the size of the results.
+     * 
+     * @param queryString the query to execute
+     * @param params a list of parameters
+     * @param resultConsumer the consumer of the objects resulted from the query execution
+     */
+    default void executeQuery(String queryString, List<?> params, Consumer<Object> resultConsumer) {
+        executeQuery(queryString, params, 0, 0, resultConsumer);
+    }
+
+    /**
+     * Execute a query with a set of parameters, handing only a window of its results to the given consumer, one at a time, 
+     * as they are read from the database. 
+     * The default implementation falls back to {@link #executeQuery(String, List, int, int)} and doesn't bring the memory 
+     * benefits of streaming.
+     * 
+     * @param queryString the query to execute
+     * @param params a list of parameters
+     * @param firstResult the position of the first result to retrieve, starting with 0
+     * @param maxResults the maximum number of results to retrieve; a value lower than or equal to zero means no limit
+     * @param resultConsumer the consumer of the objects resulted from the query execution
+     */
+    default void executeQuery(String queryString, List<?> params, int firstResult, int maxResults, Consumer<Object> resultConsumer) {
+        for(Object result : executeQuery(queryString, params, firstResult, maxResults)) {
+            resultConsumer.accept(result);
+        }
+    }
+
+    /**
+     * Execute a query with a set of parameters, handing only a window of its results to the given consumer, in batches 
+     * of at most batchSize objects, as they are read from the database. The objects of a batch stay managed while the batch
+     * is consumed, and the queries executed by the consumer on the same thread should use the same persistence context, so 
+     * that the consumer can load more state into them (e.g. initialize their lazy associations) with a bounded number of queries.
+     * The default implementation collects the batches from {@link #executeQuery(String, List, int, int, Consumer)}.
+     * 
+     * @param queryString the query to execute
+     * @param params a list of parameters
+     * @param firstResult the position of the first result to retrieve, starting with 0
+     * @param maxResults the maximum number of results to retrieve; a value lower than or equal to zero means no limit
+     * @param batchSize the maximum number of objects per batch
+     * @param batchConsumer the consumer of the batches of objects resulted from the query execution
+     */
+    default void executeQuery(String queryString, List<?> params, int firstResult, int maxResults, final int batchSize, final Consumer<List<Object>> batchConsumer) {
+        if(batchSize <= 0) {
+            throw new IllegalArgumentException("The batch size must be a positive number.");
+        }
+        final List<Object> batch = new ArrayList<>(batchSize);
+        Consumer<Object> resultConsumer = result -> {
+            batch.add(result);
+            if(batch.size() == batchSize) {
+                batchConsumer.accept(new ArrayList<>(batch));
+                batch.clear();
+            }
+        };
+        executeQuery(queryString, params, firstResult, maxResults, resultConsumer);
+        if(!batch.isEmpty()) {
+            batchConsumer.accept(batch);
+        }
+    }
+
+    /**
+     * Run the given work, whose queries are all to be executed on behalf of the given {@link QueryExecution}, on the current thread.
+     * Implementations should pass the remaining time of the execution to the database with each query (e.g. as the 
+     * javax.persistence.query.timeout hint), check the execution while reading the results, and register with it 
+     * how to abort the statement currently running, so that cancelling the execution actually stops the database work.
+     * The default implementation only checks the execution before running the work.
+     * 
+     * @param execution the query execution
+     * @param work the work running the queries
+     * @return the result of the work
+     */
+    default <T> T executeWithin(QueryExecution execution, Supplier<T> work) {
+        execution.checkActive();
+        return work.get();
+    }
+
 }
@@ -29,22 +29,64 @@ package org.infiniquery.service;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Persistence;
+import javax.persistence.PersistenceException;
 import javax.persistence.Query;
+
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Default implementation of the {@link DatabaseAccessService}.
+ * <p>
+ * This service is thread safe. It uses a single {@link EntityManagerFactory} (created lazily from the configured persistence 
+ * unit, unless one is set through setEntityManagerFactory()) and a short lived {@link EntityManager} per query execution, 
+ * which is closed as soon as the execution ends. While a query is being streamed, the queries executed by the same thread 
+ * (e.g. from within the result consumer) reuse the same entity manager, thus the same persistence context.
+ * Objects returned as lists are detached, so their lazy associations which were not loaded can no longer be navigated.
+ * <p>
+ * For backward compatibility, an entity manager can still be set through setEntityManager(). In that case, it is used for 
+ * all the query executions and never closed by this service, so it must be safe for the way it is used (e.g. a container 
+ * managed, transaction scoped entity manager proxy).
+ * <p>
+ * The queries run within a {@link QueryExecution} get the remaining time of the execution as their 
+ * javax.persistence.query.timeout hint (rounded up to whole seconds, the granularity of JDBC statement timeouts), 
+ * and cancelling the execution cancels the statement running through Hibernate's Session.cancelQuery().
+ * 
  * @author Daniel Doboga
  * @since 1.0.0
  */
 public class DefaultDatabaseAccessService implements DatabaseAccessService {
 
-    private String persistenceUnitName;
+    private static final String DEFAULT_PERSISTENCE_UNIT_NAME = "TestUnit";
+
+    private static final String QUERY_TIMEOUT_HINT = "javax.persistence.query.timeout";
+
+    private String persistenceUnitName = DEFAULT_PERSISTENCE_UNIT_NAME;
+
+    private volatile EntityManagerFactory factory;
+
+    /** whether or not the factory was created by (and thus must be closed by) this service */
+    private boolean factoryOwned;
 
-    private EntityManagerFactory factory;
+    private Thread shutdownHook;
 
-    private EntityManager em;
+    private volatile EntityManager em;
+
+    /** the entity manager of the query execution currently running on each thread */
+    private final ThreadLocal<EntityManager> currentEntityManager = new ThreadLocal<>();
+
+    /** the query execution the queries running on each thread belong to */
+    private final ThreadLocal<QueryExecution> currentExecution = new ThreadLocal<>();
+
+    /** the number of rows fetched from the database in one round trip, when streaming the results of a query */
+    private int fetchSize = 500;
 
     /*
      * (non-Javadoc)
@@ -52,8 +94,6 @@ public class DefaultDatabaseAccessService implements DatabaseAccessService {
      */
     @Override
     public List retrieveReferenceData(String queryString) {
-        initEntityManagerIfNull();
-
         return executeQuery(queryString, new ArrayList<>());
     }
 
@@ -62,29 +102,325 @@ public class DefaultDatabaseAccessService implements DatabaseAccessService {
      * @see org.infiniquery.service.DatabaseAccessService#executeQuery(java.lang.String, java.util.List)
      */
     @Override
-    public List executeQuery(String queryString, List<?> params) {
-        initEntityManagerIfNull();
+    public List executeQuery(final String queryString, final List<?> params) {
+        return withEntityManager(entityManager -> {
+            Query query = createQuery(entityManager, queryString, params);
+            List<?> results = query.getResultList();
+            return results;
+        });
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.infiniquery.service.DatabaseAccessService#executeQuery(java.lang.String, java.util.List, int, int)
+     */
+    @Override
+    public List executeQuery(final String queryString, final List<?> params, final int firstResult, final int maxResults) {
+        return withEntityManager(entityManager -> {
+            Query query = createQuery(entityManager, queryString, params, firstResult, maxResults);
+            return query.getResultList();
+        });
+    }
+
+    /**
+     * Execute a query with a set of parameters, handing a window of its results to the given consumer one at a time.
+     * When the persistence provider is Hibernate, the results are read through a forward only, read only scroll, 
+     * fetching fetchSize rows per round trip, and the persistence context is cleared every fetchSize rows, so the entities
+     * already handed to the consumer can be garbage collected. Note that clearing detaches all the entities managed by 
+     * the entity manager, including those loaded by the caller, if the entity manager was set through setEntityManager().
+     * With other persistence providers, the results are read as a list.
+     * 
+     * @param queryString the query to execute
+     * @param params a list of parameters
+     * @param firstResult the position of the first result to retrieve, starting with 0
+     * @param maxResults the maximum number of results to retrieve; a value lower than or equal to zero means no limit
+     * @param resultConsumer the consumer of the objects resulted from the query execution
+     */
+    @Override
+    public void executeQuery(final String queryString, final List<?> params, final int firstResult, final int maxResults, final Consumer<Object> resultConsumer) {
+        withEntityManager(entityManager -> {
+            streamResults(entityManager, createQuery(entityManager, queryString, params, firstResult, maxResults), resultConsumer);
+            return null;
+        });
+    }
+
+    /**
+     * Execute a query with a set of parameters, handing a window of its results to the given consumer in batches.
+     * When the persistence provider is Hibernate, the results are read through a forward only, read only scroll, 
+     * fetching fetchSize rows per round trip, and the persistence context is cleared after each batch is consumed. 
+     * The queries executed by the consumer on the same thread use the same entity manager, thus they see the objects of 
+     * the batch as managed. With other persistence providers, the results are read as a list.
+     * 
+     * @param queryString the query to execute
+     * @param params a list of parameters
+     * @param firstResult the position of the first result to retrieve, starting with 0
+     * @param maxResults the maximum number of results to retrieve; a value lower than or equal to zero means no limit
+     * @param batchSize the maximum number of objects per batch
+     * @param batchConsumer the consumer of the batches of objects resulted from the query execution
+     */
+    @Override
+    public void executeQuery(final String queryString, final List<?> params, final int firstResult, final int maxResults, final int batchSize, final Consumer<List<Object>> batchConsumer) {
+        if(batchSize <= 0) {
+            throw new IllegalArgumentException("The batch size must be a positive number.");
+        }
+        withEntityManager(entityManager -> {
+            streamBatches(entityManager, createQuery(entityManager, queryString, params, firstResult, maxResults), batchSize, batchConsumer);
+            return null;
+        });
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.infiniquery.service.DatabaseAccessService#executeWithin(org.infiniquery.service.QueryExecution, java.util.function.Supplier)
+     */
+    @Override
+    public <T> T executeWithin(QueryExecution execution, Supplier<T> work) {
+        QueryExecution previousExecution = currentExecution.get();
+        currentExecution.set(execution);
+        try {
+            execution.checkActive();
+            return work.get();
+        } finally {
+            execution.onCancel(null);
+            if(previousExecution != null) {
+                currentExecution.set(previousExecution);
+            } else {
+                currentExecution.remove();
+            }
+        }
+    }
+
+    private void streamBatches(EntityManager entityManager, Query query, int batchSize, Consumer<List<Object>> batchConsumer) {
+        org.hibernate.Query hibernateQuery = unwrapHibernateQuery(query);
+        if(hibernateQuery == null) {
+            List<?> results = query.getResultList();
+            for(int fromIndex = 0; fromIndex < results.size(); fromIndex += batchSize) {
+                batchConsumer.accept(new ArrayList<>(results.subList(fromIndex, Math.min(fromIndex + batchSize, results.size()))));
+            }
+            return;
+        }
+        QueryExecution execution = currentExecution.get();
+        ScrollableResults results = hibernateQuery
+                .setFetchSize(fetchSize)
+                .setReadOnly(true)
+                .scroll(ScrollMode.FORWARD_ONLY);
+        try {
+            List<Object> batch = new ArrayList<>(batchSize);
+            while(results.next()) {
+                if(execution != null) {
+                    execution.checkActive();
+                }
+                Object[] row = results.get();
+                batch.add(row.length == 1 ? row[0] : row);
+                if(batch.size() == batchSize) {
+                    batchConsumer.accept(batch);
+                    entityManager.clear();
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if(!batch.isEmpty()) {
+                batchConsumer.accept(batch);
+            }
+        } finally {
+            results.close();
+        }
+    }
+
+    private void streamResults(EntityManager entityManager, Query query, Consumer<Object> resultConsumer) {
+        org.hibernate.Query hibernateQuery = unwrapHibernateQuery(query);
+        if(hibernateQuery == null) {
+            for(Object result : query.getResultList()) {
+                resultConsumer.accept(result);
+            }
+            return;
+        }
+        QueryExecution execution = currentExecution.get();
+        ScrollableResults results = hibernateQuery
+                .setFetchSize(fetchSize)
+                .setReadOnly(true)
+                .scroll(ScrollMode.FORWARD_ONLY);
+        try {
+            int rowsSinceLastClear = 0;
+            while(results.next()) {
+                if(execution != null) {
+                    execution.checkActive();
+                }
+                Object[] row = results.get();
+                resultConsumer.accept(row.length == 1 ? row[0] : row);
+                if(++ rowsSinceLastClear == fetchSize) {
+                    entityManager.clear();
+                    rowsSinceLastClear = 0;
+                }
+            }
+        } finally {
+            results.close();
+        }
+    }
+
+    /**
+     * Run the given work with the entity manager of the current query execution: the one set through setEntityManager(), 
+     * if any, or the one already opened by the current thread, if any, or else a new one, closed when the work ends.
+     * @param work the work to run
+     * @return the result of the work
+     */
+    private <T> T withEntityManager(Function<EntityManager, T> work) {
+        EntityManager sharedEntityManager = em;
+        if(sharedEntityManager != null) {
+            return work.apply(sharedEntityManager);
+        }
+        EntityManager entityManager = currentEntityManager.get();
+        if(entityManager != null) {
+            return work.apply(entityManager);
+        }
+        entityManager = getEntityManagerFactory().createEntityManager();
+        currentEntityManager.set(entityManager);
+        try {
+            return work.apply(entityManager);
+        } finally {
+            currentEntityManager.remove();
+            entityManager.close();
+        }
+    }
 
-        Query query = em.createQuery(queryString);
+    private Query createQuery(final EntityManager entityManager, String queryString, List<?> params) {
+        Query query = entityManager.createQuery(queryString);
         if(params != null && !params.isEmpty()) {
             for (int i = 0; i < params.size(); i++) {
                 query.setParameter(i + 1, params.get(i));
             }
         }
-        List<?> results = query.getResultList();
-        return results;
+        QueryExecution execution = currentExecution.get();
+        if(execution != null) {
+            execution.onCancel(() -> cancelStatement(entityManager));
+            execution.checkActive();
+            if(execution.hasTimeout()) {
+                //JDBC statement timeouts are in seconds, so the hint is rounded up, not to be truncated to no timeout at all
+                long remainingSeconds = (execution.getRemainingMillis() + 999) / 1000;
+                query.setHint(QUERY_TIMEOUT_HINT, (int) Math.min(remainingSeconds * 1000, Integer.MAX_VALUE));
+            }
+        }
+        return query;
     }
 
-    private void initEntityManagerIfNull() {
-        if (em == null) {
-            //set the defaults
-            persistenceUnitName = "TestUnit";
-            factory = Persistence.createEntityManagerFactory(persistenceUnitName);
-            em = factory.createEntityManager();
+    private static void cancelStatement(EntityManager entityManager) {
+        try {
+            entityManager.unwrap(Session.class).cancelQuery();
+        } catch (RuntimeException e) {
+            //the entity manager is already closed, or not provided by Hibernate: the execution stops before reading the next result
         }
     }
 
+    private Query createQuery(EntityManager entityManager, String queryString, List<?> params, int firstResult, int maxResults) {
+        Query query = createQuery(entityManager, queryString, params);
+        if(firstResult > 0) {
+            query.setFirstResult(firstResult);
+        }
+        if(maxResults > 0) {
+            query.setMaxResults(maxResults);
+        }
+        return query;
+    }
+
+    private static org.hibernate.Query unwrapHibernateQuery(Query query) {
+        try {
+            return query.unwrap(org.hibernate.Query.class);
+        } catch (PersistenceException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the entity manager factory, creating it (only once) from the configured persistence unit, if not already set.
+     * A factory created by this service is closed by shutdown(), or, at the latest, when the JVM shuts down.
+     * @return the {@link EntityManagerFactory} used by this service
+     */
+    public EntityManagerFactory getEntityManagerFactory() {
+        EntityManagerFactory entityManagerFactory = factory;
+        if(entityManagerFactory == null) {
+            synchronized (this) {
+                entityManagerFactory = factory;
+                if(entityManagerFactory == null) {
+                    entityManagerFactory = Persistence.createEntityManagerFactory(persistenceUnitName);
+                    factoryOwned = true;
+                    shutdownHook = new Thread(this::closeOwnedFactory, "infiniquery-entity-manager-factory-shutdown");
+                    Runtime.getRuntime().addShutdownHook(shutdownHook);
+                    factory = entityManagerFactory;
+                }
+            }
+        }
+        return entityManagerFactory;
+    }
+
+    /**
+     * 
+     * @param entityManagerFactory the entity manager factory to create the entity managers from. 
+     * Its lifecycle stays under the responsibility of the caller.
+     */
+    public synchronized void setEntityManagerFactory(EntityManagerFactory entityManagerFactory) {
+        shutdown();
+        this.factory = entityManagerFactory;
+    }
+
+    /**
+     * 
+     * @param persistenceUnitName the name of the persistence unit to create the entity manager factory for, 
+     * if no factory is set through setEntityManagerFactory(). Defaults to "TestUnit".
+     */
+    public synchronized void setPersistenceUnitName(String persistenceUnitName) {
+        this.persistenceUnitName = persistenceUnitName;
+    }
+
+    /**
+     * Release the resources held by this service: the entity manager factory, if it was created by this service.
+     * The service can still be used afterwards, in which case a new factory will be created.
+     */
+    public synchronized void shutdown() {
+        if(shutdownHook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                //the JVM is already shutting down
+            }
+            shutdownHook = null;
+        }
+        closeOwnedFactory();
+    }
+
+    private synchronized void closeOwnedFactory() {
+        if(factoryOwned && factory != null) {
+            if(factory.isOpen()) {
+                factory.close();
+            }
+            factory = null;
+            factoryOwned = false;
+        }
+    }
+
+    /**
+     * Set an entity manager to be used for all the query executions, instead of the short lived ones created by this service.
+     * The entity manager is never closed by this service.
+     * @param entityManager the entity manager to use, or null to return to short lived entity managers.
+     */
     public void setEntityManager(EntityManager entityManager) {
     	this.em = entityManager;
     }
-}
\ No newline at end of file
+
+    /**
+     * 
+     * @return the number of rows fetched from the database in one round trip, when streaming the results of a query.
+     */
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * 
+     * @param fetchSize the number of rows to fetch from the database in one round trip, when streaming the results of a query.
+     */
+    public void setFetchSize(int fetchSize) {
+        if(fetchSize <= 0) {
+            throw new IllegalArgumentException("The fetch size must be a positive number.");
+        }
+        this.fetchSize = fetchSize;
+    }
+}
@@ -26,42 +26,25 @@
 
 package org.infiniquery.service;
 
-import static org.infiniquery.Constants.DEFAULT_DATE_FORMAT;
-import static org.infiniquery.Constants.DEFAULT_DATE_FORMATTER;
-import static org.infiniquery.Constants.DEFAULT_DATE_TIME_FORMAT;
-import static org.infiniquery.util.Utils.isEntity;
-import static org.infiniquery.util.Utils.isNumericType;
-import static org.infiniquery.util.Utils.resolveClass;
-
 import java.lang.annotation.Annotation;
-import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
-import java.math.BigDecimal;
-import java.math.BigInteger;
-import java.text.ParseException;
-import java.time.LocalDate;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.persistence.ManyToMany;
-import javax.persistence.ManyToOne;
-import javax.persistence.OneToMany;
-import javax.persistence.OneToOne;
 import javax.xml.parsers.ParserConfigurationException;
 
-import org.infiniquery.Constants;
 import org.infiniquery.connector.JpaConnector;
 import org.infiniquery.model.ConditionSeparatorKeyword;
 import org.infiniquery.model.EntityAttribute;
@@ -70,9 +53,10 @@ import org.infiniquery.model.ExecutableQuery;
 import org.infiniquery.model.InfiniqueryContext;
 import org.infiniquery.model.JpaEntity;
 import org.infiniquery.model.LogicalQueryItem;
+import org.infiniquery.model.RoleDictionary;
 import org.infiniquery.model.UserInputControlType;
 import org.infiniquery.model.decoder.AttributeOperator2UserInputControlMap;
-import org.infiniquery.model.decoder.Type2OperatorMap;
+import org.infiniquery.model.decoder.ValueCodec;
 import org.infiniquery.model.view.ConditionSeparatorNamesView;
 import org.infiniquery.model.view.EntityAttributeDisplayNamesView;
 import org.infiniquery.model.view.EntityAttributeOperatorNamesView;
@@ -80,6 +64,7 @@ import org.infiniquery.model.view.EntityDisplayNamesView;
 import org.infiniquery.model.view.PossibleValuesView;
 import org.infiniquery.model.view.QueryResultItem;
 import org.infiniquery.model.view.QueryResultsView;
+import org.infiniquery.service.CompiledQueryPlan.ParameterBinder;
 
 /**
  * Service empowering the interaction of above layers (e.g. frontend or MVC controllers) with the infiniquery model.
@@ -93,7 +78,52 @@ public class DefaultQueryModelService implements QueryModelService {
 
     private SecurityService securityService = new DefaultSecurityService();
 
-    private InfiniqueryContext dynamicQueryContextCache;
+    /** The snapshot of the query context in use, replaced as a whole when the configuration is reloaded */
+    private volatile InfiniqueryContext dynamicQueryContextCache;
+
+    /** Serializes the (re)loads of the query context */
+    private final Object queryContextLock = new Object();
+
+    private ConfigurationWatcher configurationWatcher;
+
+    private static final int DEFAULT_QUERY_PLAN_CACHE_SIZE = 1000;
+
+    private static final String COUNT_SELECT_CLAUSE = "SELECT COUNT(DISTINCT x)";
+
+    private static final Pattern ADDITIONAL_FILTER_VARIABLE_PATTERN = Pattern.compile("\\$\\{\\w*\\}");
+
+    private final QueryPlanCache queryPlanCache = new QueryPlanCache(DEFAULT_QUERY_PLAN_CACHE_SIZE);
+
+    private static final int DEFAULT_REFERENCE_DATA_CACHE_SIZE = 500;
+
+    private static final long DEFAULT_REFERENCE_DATA_TTL_MILLIS = 5 * 60 * 1000L;
+
+    private final ReferenceDataCache referenceDataCache = new ReferenceDataCache(DEFAULT_REFERENCE_DATA_CACHE_SIZE);
+
+    private volatile long referenceDataTtlMillis = DEFAULT_REFERENCE_DATA_TTL_MILLIS;
+
+    private boolean columnarResults;
+
+    private boolean projectionQueries;
+
+    private boolean fetchPlans = true;
+
+    private static final int DEFAULT_ASSOCIATION_BATCH_SIZE = 100;
+
+    private int associationBatchSize = DEFAULT_ASSOCIATION_BATCH_SIZE;
+
+    private static final int DEFAULT_ASYNC_THREADS = 10;
+
+    private static final int DEFAULT_ASYNC_QUEUE_CAPACITY = 1000;
+
+    private volatile Executor asyncExecutor;
+
+    /** The security context of the user who made the asynchronous request running on each thread */
+    private final ThreadLocal<SecurityService> asyncRequestSecurity = new ThreadLocal<>();
+
+    private final List<QueryMetricsListener> queryMetricsListeners = new CopyOnWriteArrayList<>();
+
+    private volatile WorkloadRecorder workloadRecorder;
 
     /*
      * (non-Javadoc)
@@ -145,8 +175,9 @@ public class DefaultQueryModelService implements QueryModelService {
     public List<String> getEntityDisplayNames() {
         InfiniqueryContext model = getDynamicQueryContext();
         List<String> entityNames = new ArrayList<>();
+        BitSet userRoleMask = currentUserRoleMask();
         for(JpaEntity entity : model.getEntities()) {
-            if(userAccessAllowed(entity)) {
+            if(entity.isAccessibleTo(userRoleMask)) {
                 entityNames.add(entity.getDisplayName());
             }
         }
@@ -170,12 +201,12 @@ public class DefaultQueryModelService implements QueryModelService {
     public List<String> getEntityAttributeDisplayNames(String entityDisplayName) {
         InfiniqueryContext model = getDynamicQueryContext();
         List<String> attributeNames = new ArrayList<>();
-        for(JpaEntity entity : model.getEntities()) {
-            if(entityDisplayName.equals(entity.getDisplayName())) {
-                for(EntityAttribute attribute : entity.getAttributes()) {
-                    if( (isAvailableForQuery(attribute)) && userAccessAllowed(entity) && userAccessAllowed(attribute)) {
-                        attributeNames.add(attribute.getDisplayName());
-                    }
+        JpaEntity entity = model.getEntity(entityDisplayName);
+        BitSet userRoleMask = currentUserRoleMask();
+        if(entity != null && entity.isAccessibleTo(userRoleMask)) {
+            for(EntityAttribute attribute : entity.getAttributes()) {
+                if(isAvailableForQuery(attribute) && attribute.isAccessibleTo(userRoleMask)) {
+                    attributeNames.add(attribute.getDisplayName());
                 }
             }
         }
@@ -201,7 +232,7 @@ public class DefaultQueryModelService implements QueryModelService {
     public String[] getEntityAttributeOperatorNames(String entityDisplayName, String attributeDisplayName) {
         try {
             EntityAttribute attribute = resolveAttribute(entityDisplayName, attributeDisplayName);
-            return getApplicableOperatorsDisplayNames(attribute).toArray(new String[0]);
+            return attribute.getApplicableOperatorNames().toArray(new String[0]);
         } catch (Exception e) {
             throw new InfiniqueryLoadError(e.getMessage(), e);
         }
@@ -232,8 +263,7 @@ public class DefaultQueryModelService implements QueryModelService {
             UserInputControlType userInputControlType = AttributeOperator2UserInputControlMap.decode(attributeType, operator);
 
             if(attribute.getPossibleValuesQuery() != null) {
-                List<?> possibleValues = databaseAccessService.retrieveReferenceData(attribute.getPossibleValuesQuery());
-                possibleValuesView = PossibleValuesView.getInstance(userInputControlType, preparePossibleValues(possibleValues, attribute));
+                possibleValuesView = PossibleValuesView.getInstance(userInputControlType, retrievePossibleValues(attribute));
             } else {
                 possibleValuesView = PossibleValuesView.getInstance(userInputControlType, null);
             }
@@ -275,31 +305,198 @@ public class DefaultQueryModelService implements QueryModelService {
      */
     @Override
     public QueryResultsView executeQuery(ExecutableQuery executableQuery) {
+        return executeQuery(executableQuery, 0, 0, new QueryExecution());
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.infiniquery.service.QueryModelService#executeQuery(org.infiniquery.model.ExecutableQuery, int, int)
+     */
+    @Override
+    public QueryResultsView executeQuery(ExecutableQuery executableQuery, int offset, int limit) {
+        if(offset < 0) {
+            throw new IllegalArgumentException("The offset cannot be negative: " + offset);
+        }
+        return executeQuery(executableQuery, offset, limit, new QueryExecution());
+    }
+
+    private QueryResultsView executeQuery(ExecutableQuery executableQuery, int offset, int limit, QueryExecution execution) {
+        QueryMetricsRecorder metrics = startMetrics(QueryMetrics.Operation.EXECUTE, execution);
+        try {
+            recordWorkload(QueryMetrics.Operation.EXECUTE, executableQuery, offset, limit);
+            metrics.enterPhase(QueryPhase.SECURITY_CHECKS);
+            BitSet userRoleMask = currentUserRoleMask();
+            performSecurityChecks(executableQuery, userRoleMask);
+            metrics.enterPhase(QueryPhase.COMPILATION);
+            CompiledQueryPlan plan = compileJpql(executableQuery, metrics);
+            QueryResultsView queryResultsView = runQuery(executableQuery, plan, offset, limit, userRoleMask, execution);
+            metrics.addResults(queryResultsView.getItems().size());
+            metrics.finish(null);
+            return queryResultsView;
+        } catch (Exception e) {
+            metrics.finish(e);
+            throw new InfiniqueryLoadError(e.getMessage(), e);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.infiniquery.service.QueryModelService#executeQuery(org.infiniquery.model.ExecutableQuery, java.util.function.Consumer)
+     */
+    @Override
+    public void executeQuery(ExecutableQuery executableQuery, Consumer<QueryResultItem> resultItemConsumer) {
+        executeQuery(executableQuery, resultItemConsumer, new QueryExecution());
+    }
+
+    private void executeQuery(ExecutableQuery executableQuery, Consumer<QueryResultItem> resultItemConsumer, QueryExecution execution) {
+        QueryMetricsRecorder metrics = startMetrics(QueryMetrics.Operation.STREAM, execution);
+        try {
+            recordWorkload(QueryMetrics.Operation.STREAM, executableQuery, 0, 0);
+            metrics.enterPhase(QueryPhase.SECURITY_CHECKS);
+            BitSet userRoleMask = currentUserRoleMask();
+            performSecurityChecks(executableQuery, userRoleMask);
+            metrics.enterPhase(QueryPhase.COMPILATION);
+            CompiledQueryPlan plan = compileJpql(executableQuery, metrics);
+            JpaEntity entity = resolveEntity(extractEntityDisplayName(executableQuery));
+            int limit = getResultsLimit(entity, 0);
+            ResultProjection projection = createResultProjection(entity, userRoleMask);
+            String jpql = projection.toJpql(plan);
+            if(limit > 0) {
+                jpql = appendTieBreakerOrder(jpql, entity);
+            }
+            streamQuery(jpql, executableQuery.getJpqlParams(), projection, 0, limit, execution, resultItemConsumer);
+            metrics.finish(null);
+        } catch (Exception e) {
+            metrics.finish(e);
+            throw new InfiniqueryLoadError(e.getMessage(), e);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.infiniquery.service.QueryModelService#countQuery(org.infiniquery.model.ExecutableQuery)
+     */
+    @Override
+    public long countQuery(ExecutableQuery executableQuery) {
+        return countQuery(executableQuery, new QueryExecution());
+    }
+
+    private long countQuery(final ExecutableQuery executableQuery, QueryExecution execution) {
+        QueryMetricsRecorder metrics = startMetrics(QueryMetrics.Operation.COUNT, execution);
         try {
-            performSecurityChecks(executableQuery);
-            compileJpql(executableQuery);
-            QueryResultsView queryResults = runQuery(executableQuery);
-            return queryResults;
+            recordWorkload(QueryMetrics.Operation.COUNT, executableQuery, 0, 0);
+            metrics.enterPhase(QueryPhase.SECURITY_CHECKS);
+            performSecurityChecks(executableQuery, currentUserRoleMask());
+            metrics.enterPhase(QueryPhase.COMPILATION);
+            CompiledQueryPlan plan = compileJpql(executableQuery, metrics);
+            final String jpql = plan.deriveJpql(COUNT_SELECT_CLAUSE, "");
+            metrics.setJpql(jpql);
+            metrics.enterPhase(QueryPhase.DATABASE);
+            execution.startTimeout(getQueryTimeoutMillis(plan.getEntity()));
+            List<?> results = databaseAccessService.executeWithin(execution, 
+                    () -> databaseAccessService.executeQuery(jpql, executableQuery.getJpqlParams()));
+            long count = ((Number) results.get(0)).longValue();
+            metrics.addResults(count);
+            metrics.finish(null);
+            return count;
         } catch (Exception e) {
+            metrics.finish(e);
             throw new InfiniqueryLoadError(e.getMessage(), e);
         }
     }
 
     /*
      * (non-Javadoc)
-     * @see org.infiniquery.service.QueryModelService#executeQuery(org.infiniquery.model.ExecutableQuery)
+     * @see org.infiniquery.service.QueryModelService#compileQuery(org.infiniquery.model.ExecutableQuery)
      */
     @Override
     public String compileQuery(ExecutableQuery executableQuery) {
+        QueryMetricsRecorder metrics = QueryMetricsRecorder.start(QueryMetrics.Operation.COMPILE, queryMetricsListeners);
         try {
-            performSecurityChecks(executableQuery);
-            compileJpql(executableQuery);
+            metrics.enterPhase(QueryPhase.SECURITY_CHECKS);
+            performSecurityChecks(executableQuery, currentUserRoleMask());
+            metrics.enterPhase(QueryPhase.COMPILATION);
+            compileJpql(executableQuery, metrics);
+            metrics.finish(null);
             return executableQuery.getJpqlDimension();
         } catch (Exception e) {
+            metrics.finish(e);
             throw new InfiniqueryLoadError(e.getMessage(), e);
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Runs on the executor set through setAsyncExecutor(). Cancelling the future stops waiting for the possible values, 
+     * but not their loading, which is shared with the concurrent requests of the same reference data, and cached.
+     */
+    @Override
+    public CompletableFuture<PossibleValuesView> getEntityAttributeOperatorValueAsync(final String entityDisplayName, final String attributeDisplayName, final String operatorDisplayName) {
+        return submitAsync(execution -> getEntityAttributeOperatorValue(entityDisplayName, attributeDisplayName, operatorDisplayName));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Runs on the executor set through setAsyncExecutor(), within the query timeout configured for the requested entity. 
+     * Cancelling the future cancels the statement running in the database.
+     */
+    @Override
+    public CompletableFuture<QueryResultsView> executeQueryAsync(final ExecutableQuery executableQuery) {
+        return submitAsync(execution -> executeQuery(executableQuery, 0, 0, execution));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Runs on the executor set through setAsyncExecutor(), within the query timeout configured for the requested entity. 
+     * Cancelling the future cancels the statement running in the database.
+     */
+    @Override
+    public CompletableFuture<QueryResultsView> executeQueryAsync(final ExecutableQuery executableQuery, final int offset, final int limit) {
+        if(offset < 0) {
+            throw new IllegalArgumentException("The offset cannot be negative: " + offset);
+        }
+        return submitAsync(execution -> executeQuery(executableQuery, offset, limit, execution));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Runs on the executor set through setAsyncExecutor(), within the query timeout configured for the requested entity. 
+     * Cancelling the future cancels the statement running in the database, and no more results are handed to the consumer.
+     */
+    @Override
+    public CompletableFuture<Void> executeQueryAsync(final ExecutableQuery executableQuery, final Consumer<QueryResultItem> resultItemConsumer) {
+        return submitAsync(execution -> {
+            executeQuery(executableQuery, resultItemConsumer, execution);
+            return null;
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Runs on the executor set through setAsyncExecutor(), within the query timeout configured for the requested entity. 
+     * Cancelling the future (e.g. when the count is superseded by the one of a newer query) cancels the statement 
+     * running in the database.
+     */
+    @Override
+    public CompletableFuture<Long> countQueryAsync(final ExecutableQuery executableQuery) {
+        return submitAsync(execution -> countQuery(executableQuery, execution));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Runs on the executor set through setAsyncExecutor().
+     */
+    @Override
+    public CompletableFuture<String> compileQueryAsync(final ExecutableQuery executableQuery) {
+        return submitAsync(execution -> compileQuery(executableQuery));
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -310,27 +507,363 @@ public class DefaultQueryModelService implements QueryModelService {
         }
     }
 
-    /*
-     * (non-Javadoc)
-     * @see org.infiniquery.service.QueryModelService#reloadQueryContext()
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The new context is read completely before it replaces the one in use, so the requests running meanwhile are not 
+     * blocked, and every request sees either the old or the new context, never a partially read one. The entities configured 
+     * exactly as before are carried over, and only the cached state of the entities added, removed or changed is invalidated: 
+     * their query plans, and the reference data no longer read (or read with another time to live). 
+     * If the new configuration cannot be read, the context in use is kept.
      */
     public void reloadQueryContext() {
+        synchronized (queryContextLock) {
+            InfiniqueryContext newContext;
+            try {
+                newContext = JpaConnector.getDynamicQueryContext();
+            } catch (ParserConfigurationException e) {
+                throw new InfiniqueryLoadError("Unable to load dynamic query context.", e);
+            }
+            InfiniqueryContext oldContext = dynamicQueryContextCache;
+            if(oldContext == null) {
+                dynamicQueryContextCache = newContext;
+                return;
+            }
+            QueryContextDiff diff = QueryContextDiff.compareAndMerge(oldContext, newContext);
+            dynamicQueryContextCache = newContext;
+            queryPlanCache.invalidateEntities(diff.getChangedEntityNames());
+            referenceDataCache.invalidateKeys(diff.getStaleReferenceDataKeys());
+        }
+    }
+
+    /**
+     * Start watching the configuration files (infiniquery-config.xml and the fragments it includes), reloading 
+     * the query context through {@link #reloadQueryContext()} whenever any of them changes. 
+     * The files must be on the file system (e.g. an exploded classpath directory), not packaged in a jar. 
+     * The failed reloads (e.g. of a file saved while invalid) keep the context in use, and are otherwise ignored.
+     * @throws IllegalStateException if none of the configuration files is on the file system
+     */
+    public void enableHotReload() {
+        enableHotReload(null);
+    }
+
+    /**
+     * Start watching the configuration files, reloading the query context whenever any of them changes. 
+     * See {@link #enableHotReload()}.
+     * @param reloadFailureHandler the handler of the failed reloads (e.g. to log them), called on the watching thread
+     * @throws IllegalStateException if none of the configuration files is on the file system
+     */
+    public synchronized void enableHotReload(Consumer<? super RuntimeException> reloadFailureHandler) {
+        disableHotReload();
+        configurationWatcher = new ConfigurationWatcher(getDynamicQueryContext().getConfigurationSources(), () -> {
+            reloadQueryContext();
+            return dynamicQueryContextCache.getConfigurationSources();
+        }, reloadFailureHandler);
+        configurationWatcher.start();
+    }
+
+    /**
+     * Stop watching the configuration files, if started by enableHotReload().
+     */
+    public synchronized void disableHotReload() {
+        if(configurationWatcher != null) {
+            configurationWatcher.close();
+            configurationWatcher = null;
+        }
+    }
+
+    /**
+     * Set the maximum number of compiled query plans to keep in the cache. The plans are cached by the shape 
+     * of the logical queries (all the logical items, except the attribute values), so that queries differing 
+     * only in their values are not compiled again. Defaults to 1000; 0 disables the cache.
+     * @param maximumSize the maximum number of cached query plans
+     */
+    public void setQueryPlanCacheSize(int maximumSize) {
+        queryPlanCache.setMaximumSize(maximumSize);
+    }
+
+    /**
+     * 
+     * @return the statistics of the cache of compiled query plans.
+     */
+    public CacheStatistics getQueryPlanCacheStatistics() {
+        return queryPlanCache.getStatistics();
+    }
+
+    /**
+     * Set the default time to live of the cached reference data (the possible values of the attributes, as read by 
+     * their possibleValuesQuery), for the attributes not configuring their own possibleValuesTtl. Defaults to 300 seconds.
+     * @param seconds how long the reference data may be cached; 0 disables the caching, unless configured per attribute
+     */
+    public void setReferenceDataTtl(long seconds) {
+        if(seconds < 0) {
+            throw new IllegalArgumentException("The time to live of the reference data cannot be negative: " + seconds);
+        }
+        this.referenceDataTtlMillis = seconds * 1000L;
+    }
+
+    /**
+     * Set the maximum number of reference data entries (one per possibleValuesQuery and label attribute) to keep in the cache. 
+     * Defaults to 500; 0 disables the cache.
+     * @param maximumSize the maximum number of cached reference data entries
+     */
+    public void setReferenceDataCacheSize(int maximumSize) {
+        referenceDataCache.setMaximumSize(maximumSize);
+    }
+
+    /**
+     * Set the executor to refresh the cached reference data on, ahead of its expiration. 
+     * Defaults to a single daemon thread, started when first needed.
+     * @param refreshExecutor the executor of the refreshes
+     */
+    public void setReferenceDataRefreshExecutor(Executor refreshExecutor) {
+        referenceDataCache.setRefreshExecutor(refreshExecutor);
+    }
+
+    /**
+     * Remove from the cache the reference data read by the given query, so that it is read again when next needed.
+     * @param possibleValuesQuery the possibleValuesQuery of one or more attributes
+     */
+    public void invalidateReferenceData(String possibleValuesQuery) {
+        referenceDataCache.invalidateQuery(possibleValuesQuery);
+    }
+
+    /**
+     * Remove all the reference data from the cache.
+     */
+    public void invalidateReferenceData() {
+        referenceDataCache.invalidateAll();
+    }
+
+    /**
+     * 
+     * @return the statistics of the cache of reference data.
+     */
+    public CacheStatistics getReferenceDataCacheStatistics() {
+        return referenceDataCache.getStatistics();
+    }
+
+    /**
+     * 
+     * @return true if the {@link QueryResultsView}s returned by this service keep their results in columns
+     */
+    public boolean isColumnarResults() {
+        return columnarResults;
+    }
+
+    /**
+     * Choose the layout of the {@link QueryResultsView}s returned by this service. The columnar layout keeps one 
+     * header of attribute names for all the results, and the values in one array per attribute (primitive arrays 
+     * for the numeric attributes), instead of one map per result. Its items still answer to 
+     * {@link QueryResultItem#get(String)}, and their changes are written to the columns, but attributes other than 
+     * the columns cannot be added to them: callers decorating the results with attributes of their own must keep 
+     * the default layout. Defaults to false.
+     * @param columnarResults true for the columnar layout of the results
+     */
+    public void setColumnarResults(boolean columnarResults) {
+        this.columnarResults = columnarResults;
+    }
+
+    /**
+     * 
+     * @return true if the queries executed by this service select only the attributes visible in the results
+     */
+    public boolean isProjectionQueries() {
+        return projectionQueries;
+    }
+
+    /**
+     * Choose whether the queries executed by this service select only the attributes visible in the results 
+     * (e.g. SELECT DISTINCT x.id, x.name, p1.name ... LEFT JOIN x.owner p1), instead of whole entity instances. 
+     * This saves the hydration of managed entities (and of their eager associations) for read-only searches. 
+     * The values are then read from the persistent state, not through the getters of the entities.
+     * A query falls back to selecting entity instances if any of its visible attributes cannot be selected as one column 
+     * (e.g. collections, or labels reached through to-many relationships), or if the entity id is not known. Defaults to false.
+     * @param projectionQueries true to select only the attributes visible in the results
+     */
+    public void setProjectionQueries(boolean projectionQueries) {
+        this.projectionQueries = projectionQueries;
+    }
+
+    /**
+     * 
+     * @return true if the relationships navigated by the attributes visible in the results are loaded along with the results
+     */
+    public boolean isFetchPlans() {
+        return fetchPlans;
+    }
+
+    /**
+     * Choose whether the relationships navigated by the attributes visible in the results (the attributes themselves, 
+     * and their possibleValueLabelAttributePaths) are loaded along with the results, instead of lazily, one row at a time. 
+     * The to-one relationships are fetch joined by the query. The labels reached through one to-many relationship 
+     * (e.g. tags) are read by one query per batch of results and attribute, selecting only the labels of the results 
+     * of the batch, while the other to-many relationships are initialized by one query per batch of results and 
+     * relationship. With projection queries, the attributes with such labels no longer prevent the selection of tuples. 
+     * Defaults to true.
+     * @param fetchPlans true to load the relationships along with the results
+     */
+    public void setFetchPlans(boolean fetchPlans) {
+        this.fetchPlans = fetchPlans;
+    }
+
+    /**
+     * 
+     * @return the number of results for which the labels or relationships reached through to-many relationships are loaded by one query
+     */
+    public int getAssociationBatchSize() {
+        return associationBatchSize;
+    }
+
+    /**
+     * 
+     * @param associationBatchSize the number of results for which the labels or relationships reached through to-many relationships 
+     * are loaded by one query (thus, the number of values bound to its IN condition). Defaults to 100.
+     */
+    public void setAssociationBatchSize(int associationBatchSize) {
+        if(associationBatchSize <= 0) {
+            throw new IllegalArgumentException("The association batch size must be a positive number.");
+        }
+        this.associationBatchSize = associationBatchSize;
+    }
+
+    /**
+     * Set the executor to run the asynchronous requests on (e.g. one created by {@link QueryExecutors}, 
+     * like a virtual thread executor when running on JDK 21 or later). It should bound the number of queries 
+     * running at the same time to the size of the connection pool. Defaults to a pool of 10 daemon threads, 
+     * with up to 1000 waiting requests.
+     * @param asyncExecutor the executor of the asynchronous requests, or null for the default one
+     */
+    public void setAsyncExecutor(Executor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    /**
+     * Register a listener of the metrics of the requests to this service: executeQuery, countQuery and compileQuery, 
+     * including their asynchronous variants. The requests are measured only while at least one listener is registered.
+     * @param listener the listener to register
+     * @see InMemoryQueryMetrics
+     */
+    public void addQueryMetricsListener(QueryMetricsListener listener) {
+        if(listener == null) {
+            throw new IllegalArgumentException("The query metrics listener cannot be null.");
+        }
+        queryMetricsListeners.add(listener);
+    }
+
+    /**
+     * Unregister a listener of the metrics of the requests to this service.
+     * @param listener the listener to unregister
+     */
+    public void removeQueryMetricsListener(QueryMetricsListener listener) {
+        queryMetricsListeners.remove(listener);
+    }
+
+    /**
+     * Start recording the metrics of a request, if any listener is registered.
+     * @param operation the kind of the request
+     * @param execution the execution of the request, which keeps the recorder for the queries it runs
+     * @return the recorder of the request
+     */
+    private QueryMetricsRecorder startMetrics(QueryMetrics.Operation operation, QueryExecution execution) {
+        QueryMetricsRecorder metrics = QueryMetricsRecorder.start(operation, queryMetricsListeners);
+        execution.setMetrics(metrics);
+        return metrics;
+    }
+
+    /**
+     * Record the queries run by this service (executeQuery and countQuery, including their asynchronous variants), 
+     * with the roles of the users who sent them, to be replayed later.
+     * @param workloadRecorder the recorder of the queries, or null to stop recording them
+     */
+    public void setWorkloadRecorder(WorkloadRecorder workloadRecorder) {
+        this.workloadRecorder = workloadRecorder;
+    }
+
+    public WorkloadRecorder getWorkloadRecorder() {
+        return workloadRecorder;
+    }
+
+    private void recordWorkload(QueryMetrics.Operation operation, ExecutableQuery executableQuery, int offset, int limit) {
+        WorkloadRecorder recorder = workloadRecorder;
+        if(recorder != null) {
+            recorder.record(operation, executableQuery.getLogicalDimension(), currentSecurityService().getCurrentUserRoles(), offset, limit);
+        }
+    }
+
+    private Executor getAsyncExecutor() {
+        Executor executor = asyncExecutor;
+        if(executor == null) {
+            synchronized (this) {
+                executor = asyncExecutor;
+                if(executor == null) {
+                    asyncExecutor = executor = QueryExecutors.newBoundedExecutor(DEFAULT_ASYNC_THREADS, DEFAULT_ASYNC_QUEUE_CAPACITY);
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Run the given request on the async executor, as the current user. Cancelling the returned future cancels 
+     * the {@link QueryExecution} of the request, thus the statement it is running, if any.
+     * @param request the request, run within the given query execution
+     * @return the future of the result of the request
+     */
+    private <T> CompletableFuture<T> submitAsync(final Function<QueryExecution, T> request) {
+        final QueryExecution execution = new QueryExecution();
+        final CompletableFuture<T> future = new CompletableFuture<T>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                execution.cancel();
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+        //the security context is resolved on the calling thread, as the security service may rely on thread bound state
+        final Set<String> userRoles = securityService.getCurrentUserRoles();
+        final Map<String, Object> globalScopeAttributes = securityService.getGlobalScopeAttributes();
+        final SecurityService requestSecurity = new SecurityService() {
+            @Override
+            public Set<String> getCurrentUserRoles() {
+                return userRoles;
+            }
+
+            @Override
+            public Map<String, Object> getGlobalScopeAttributes() {
+                return globalScopeAttributes;
+            }
+        };
         try {
-            dynamicQueryContextCache = JpaConnector.getDynamicQueryContext();
-        } catch (ParserConfigurationException e) {
-            throw new InfiniqueryLoadError("Unable to load dynamic query context.", e);
+            getAsyncExecutor().execute(() -> {
+                if(future.isDone()) {
+                    return;
+                }
+                asyncRequestSecurity.set(requestSecurity);
+                try {
+                    future.complete(request.apply(execution));
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    asyncRequestSecurity.remove();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
         }
+        return future;
     }
 
     /**
      * Run a given {@link org.infiniquery.model.ExecutableQuery} against the database.
      * @param executableQuery
+     * @param plan the plan the query was compiled with
+     * @param offset the position of the first result to retrieve
+     * @param requestedLimit the maximum number of results requested by the caller, or 0 if not limited by the caller
+     * @param userRoleMask the mask of the current user roles
+     * @param execution the execution the query runs within
      * @return
      */
-    private QueryResultsView runQuery(ExecutableQuery executableQuery) {
-
-		List<?> queryResults = databaseAccessService.executeQuery(executableQuery.getJpqlDimension(),
-				executableQuery.getJpqlParams());
+    private QueryResultsView runQuery(ExecutableQuery executableQuery, CompiledQueryPlan plan, int offset, int requestedLimit, BitSet userRoleMask, QueryExecution execution) {
 
 		String entityName = extractEntityDisplayName(executableQuery);
 		JpaEntity entity;
@@ -340,150 +873,144 @@ public class DefaultQueryModelService implements QueryModelService {
 			throw new RuntimeException(
 					"Failed to run the query. Unable to resolve entity with displayName: " + entityName, e);
 		}
-		QueryResultsView queryResultsView;
-		if (queryResults != null && !queryResults.isEmpty()) {
-			queryResultsView = new QueryResultsView(queryResults.size());
-			for (Object queryResult : queryResults) {
-				QueryResultItem virtualInstance = new QueryResultItem();
-				for (EntityAttribute attribute : entity.getAttributesInReverseOrder()) {
-					if(isAvailableForResults(attribute) && userAccessAllowed(attribute)) {
-						virtualInstance.add(attribute.getDisplayName(),
-								readAttributeValue(attribute, entity, queryResult));
-					}
-				}
-				queryResultsView.addEntity(virtualInstance);
-			}
-		} else {
-			queryResultsView = new QueryResultsView(0);
+		final int limit = getResultsLimit(entity, requestedLimit);
+		final ResultProjection projection = createResultProjection(entity, userRoleMask);
+		String jpql = projection.toJpql(plan);
+		if(offset > 0 || limit > 0) {
+			jpql = appendTieBreakerOrder(jpql, entity);
 		}
+		final boolean columnar = columnarResults;
+		final QueryResultsView queryResultsView = columnar ? new QueryResultsView(projection.createColumns()) : new QueryResultsView();
+		final Object[] row = new Object[projection.size()];
+		//one more result than the limit is read, only to find out whether or not there are more results available
+		final QueryMetricsRecorder metrics = execution.getMetrics();
+		readRows(jpql, executableQuery.getJpqlParams(), projection, offset, limit > 0 ? limit + 1 : 0, execution, queryResult -> {
+			metrics.switchPhase(QueryPhase.MAPPING);
+			if(limit > 0 && queryResultsView.getItems().size() == limit) {
+				queryResultsView.setMoreResultsAvailable(true);
+			} else if(columnar) {
+				queryResultsView.addRow(projection.readRow(queryResult, row));
+			} else {
+				queryResultsView.addEntity(projection.map(queryResult));
+			}
+			metrics.switchPhase(QueryPhase.DATABASE);
+		});
 		queryResultsView.setEntityName(entityName);
+		queryResultsView.setOffset(offset);
+		queryResultsView.setLimit(limit);
 
 		return queryResultsView;
     }
 
     /**
-     * Fill, under the propertyLabel key, in the given "target" map, the value of the attribute denoted by the given propertyPath 
-     * (e.g: children.address.street), also considering the multipleValueLabelAttribute for the cases where on the given path
-     * is encountered a collection (or other {@link Iterable}).
-     * @param propertyPath
-     * @param source
-     * @param target
-     * @param propertyLabel
-     * @param multipleValueLabelAttribute
-     * @throws InvocationTargetException
-     * @throws IllegalAccessException
-     */
-    private static void fillProperty(String propertyPath, Object source, Map<String, Object> target, String propertyLabel, String multipleValueLabelAttribute) throws InvocationTargetException, IllegalAccessException {
-        String[] pathFragments = propertyPath.split(".");
-        if(pathFragments.length == 0) {
-            pathFragments = new String[] {propertyPath};
-        }
-
-        for(int i=0; i<pathFragments.length; i++) {
-            source = resolveGetterMethod(pathFragments[i], source.getClass()).invoke(source);
-            if(source == null) {
-                target.put(propertyLabel, "");
-                return;
-            } else if(source instanceof Iterable) {
-                target.put(propertyLabel, "");
-                for(Object item : (Iterable<?>) source) {
-                    fillProperty(joinPathFragments(pathFragments, i, multipleValueLabelAttribute), item, target, propertyLabel, multipleValueLabelAttribute);
-                }
-                return;
-            }
-            if(i==pathFragments.length - 1) {
-                if(target.containsKey(propertyLabel)) {
-                    Object existingValue = target.get(propertyLabel);
-                    Object newValue = "".equals(existingValue) ? source : existingValue + "; " + source;
-                    target.put(propertyLabel, newValue);
-                } else {
-                    target.put(propertyLabel, source);
-                }
-            }
-        }
+     * Run a given JPQL query against the database, mapping every resulted entity instance to a {@link QueryResultItem} as soon as it is read.
+     * @param jpql the compiled query
+     * @param params the parameters of the compiled query
+     * @param projection the attributes to be shown in the results
+     * @param firstResult the position of the first result to retrieve
+     * @param maxResults the maximum number of results to retrieve, or 0 for no limit
+     * @param execution the execution the query runs within
+     * @param resultItemConsumer the consumer of the mapped results
+     */
+    private void streamQuery(String jpql, List<?> params, final ResultProjection projection, int firstResult, int maxResults, QueryExecution execution, final Consumer<QueryResultItem> resultItemConsumer) {
+		final QueryMetricsRecorder metrics = execution.getMetrics();
+		readRows(jpql, params, projection, firstResult, maxResults, execution, queryResult -> {
+			metrics.switchPhase(QueryPhase.MAPPING);
+			QueryResultItem resultItem = projection.map(queryResult);
+			metrics.addResults(1);
+			//the time of the consumer is not part of the request
+			metrics.switchPhase(null);
+			resultItemConsumer.accept(resultItem);
+			metrics.switchPhase(QueryPhase.DATABASE);
+		});
     }
 
-    private static String joinPathFragments(String[] fragments, int startIndex, String multipleValueLabelAttribute) {
-        StringBuilder builder = new StringBuilder();
-        for(int i=startIndex + 1; i<fragments.length; i++) {
-            builder.append(fragments[i]);
-            if(i != fragments.length -1) {
-                builder.append('.');
-            }
-        }
-        if(! (builder.length() == 0)) {
-            builder.append('.');
-        }
-        builder.append(multipleValueLabelAttribute);
-        return builder.toString();
+    /**
+     * Run a given JPQL query against the database, handing the rows read to the given consumer one at a time. 
+     * If the projection has secondary queries to run, the rows are read in batches, and the secondary queries 
+     * run for each batch before its rows are handed to the consumer. 
+     * All the queries run within the given execution, which starts its clock with the query timeout of the requested entity.
+     * @param jpql the compiled query
+     * @param params the parameters of the compiled query
+     * @param projection the attributes to be shown in the results
+     * @param firstResult the position of the first result to retrieve
+     * @param maxResults the maximum number of results to retrieve, or 0 for no limit
+     * @param execution the execution the queries run within
+     * @param rowConsumer the consumer of the rows read
+     */
+    private void readRows(final String jpql, final List<?> params, final ResultProjection projection, final int firstResult, final int maxResults, QueryExecution execution, final Consumer<Object> rowConsumer) {
+		execution.getMetrics().setJpql(jpql);
+		execution.getMetrics().enterPhase(QueryPhase.DATABASE);
+		execution.startTimeout(getQueryTimeoutMillis(projection.getEntity()));
+		databaseAccessService.executeWithin(execution, () -> {
+			if(projection.isBatched()) {
+				databaseAccessService.executeQuery(jpql, params, firstResult, maxResults, associationBatchSize, batch -> {
+					projection.prepareBatch(batch, databaseAccessService);
+					batch.forEach(rowConsumer);
+				});
+			} else {
+				databaseAccessService.executeQuery(jpql, params, firstResult, maxResults, rowConsumer);
+			}
+			return null;
+		});
     }
 
-    private static Method resolveGetterMethod(String propertyName, Class<?> clazz) {
-        final String firstChar = propertyName.substring(0, 1);
-        final String nonPrefixedGetter = propertyName.replaceFirst(firstChar, firstChar.toUpperCase());
-        Method getterMethod;
-        try {
-        	getterMethod = clazz.getDeclaredMethod("get".concat(nonPrefixedGetter));
-        } catch(NoSuchMethodException e) {
-            try {
-            	getterMethod = clazz.getDeclaredMethod("is".concat(nonPrefixedGetter));
-            } catch (NoSuchMethodException e1) {
-                throw new RuntimeException("Could not find public getter method for property " + propertyName + " in class " + clazz.getName());
-            }
-        }
-        if(Modifier.isPublic(getterMethod.getModifiers())) {
-            return getterMethod;
-        } else {
-        	throw new RuntimeException("Method " + getterMethod + " is not public. Infiniquery exposes, in the results, only entity attributes that are exposed through public getter methods. Please, either make the getter public, or remove this entity attribute from infiniquery config.");
-        }
-    }
-    
-    private static Object readAttributeValue(final EntityAttribute attribute, final JpaEntity entity, final Object instance) {
-    	try {
-	    	Class<?> clazz = Class.forName(entity.getClassName());
-	    	
-	    	Method getterMethod = resolveGetterMethod(attribute.getAttributeName(), clazz);
-			Object value = getterMethod.invoke(instance);
-			if(value != null) {
-				if(attribute.getPossibleValueLabelAttributePath() != null) {
-					Queue<String> objectTreePath = extractDotSeparatedPathFragments(attribute.getPossibleValueLabelAttributePath());
-		    		objectTreePath.poll(); //remove the first entry - which is exactly the attribute name itself
-					value = resolveAttributeValue(value, objectTreePath);
-				}
+    /**
+     * Compute the attributes of the given entity to be shown in the results to the current user, 
+     * and whether they are read through a projection query.
+     * @param entity the entity requested by the query
+     * @param userRoleMask the mask of the current user roles
+     * @return the {@link ResultProjection} to map the results of one query execution with
+     */
+    private ResultProjection createResultProjection(JpaEntity entity, BitSet userRoleMask) {
+		List<EntityAttribute> visibleAttributes = new ArrayList<>(entity.getAttributes().size());
+		for (EntityAttribute attribute : entity.getAttributesInReverseOrder()) {
+			if(isAvailableForResults(attribute) && attribute.isAccessibleTo(userRoleMask)) {
+				visibleAttributes.add(attribute);
 			}
-			return value;
-		} catch (Exception e) {
-			throw new RuntimeException("Failed to read attribute value from results, for attribute " + attribute.getAttributeName() + " of entity " + entity.getClassName(), e);
 		}
+		return new ResultProjection(entity, visibleAttributes, projectionQueries, fetchPlans);
     }
-    
-    private static Object resolveAttributeValue(Object object, Queue<String> objectTreePath) throws IllegalAccessException, IllegalArgumentException, InvocationTargetException {
-    	if(object == null) {
-    		return null;
-    	}
-    	final Class<?> clazz = object.getClass();
-    	if(Collection.class.isAssignableFrom(clazz)) {
-    		List<Object> virtualObjects = new ArrayList<>();
-			for(Object item : (Collection<?>) object) {
-				virtualObjects.add(resolveAttributeValue(item, new LinkedList<String>(objectTreePath)));
-			}
-			return virtualObjects;
-    	} else if(String.class.isAssignableFrom(clazz)) {
-    		return (String) object;
-    	} else if(isNumericType(clazz)) {
-    		return (Number) object;
-    		//TODO do the same for numeric types
+
+    /**
+     * Determine how many results a query on the given entity may retrieve: the limit requested by the caller, capped by 
+     * the results limit configured for the entity or, if the entity has none, by the global results limit.
+     * @param entity the entity requested by the query
+     * @param requestedLimit the limit requested by the caller, or a value lower than or equal to 0 if not limited by the caller
+     * @return the effective limit, or 0 for no limit
+     */
+    private int getResultsLimit(JpaEntity entity, int requestedLimit) {
+    	Integer configuredLimit = entity.getResultsLimit() != null ? entity.getResultsLimit() : getDynamicQueryContext().getResultsLimit();
+    	if(configuredLimit == null) {
+    		return requestedLimit > 0 ? requestedLimit : 0;
     	} else {
-    		String attributeName = objectTreePath.poll();
-    		Method getterMethod = resolveGetterMethod(attributeName, object.getClass());
-	    	Object value = getterMethod.invoke(object);
-	    	if(objectTreePath.isEmpty()) {
-	    		return value;
-	    	} else {
-	    		return resolveAttributeValue(value, objectTreePath);
-	    	}
+    		return requestedLimit > 0 ? Math.min(requestedLimit, configuredLimit) : configuredLimit;
     	}
     }
+
+    /**
+     * Determine how long the queries on the given entity may run: the query timeout configured for the entity or, 
+     * if the entity has none, the global query timeout.
+     * @param entity the entity requested by the query
+     * @return the timeout in milliseconds, or 0 for no timeout
+     */
+    private long getQueryTimeoutMillis(JpaEntity entity) {
+    	Integer configuredTimeout = entity.getQueryTimeout() != null ? entity.getQueryTimeout() : getDynamicQueryContext().getQueryTimeout();
+    	return configuredTimeout == null ? 0 : configuredTimeout * 1000L;
+    }
+
+    /**
+     * Order the results by the identifier of the entity, so that limited or paginated results are stable across executions.
+     * @param jpql the compiled query
+     * @param entity the entity requested by the query
+     * @return the query ordered by the entity identifier, or the unchanged query if the entity identifier is not known.
+     */
+    private String appendTieBreakerOrder(String jpql, JpaEntity entity) {
+    	if(entity.getIdAttributeName() == null) {
+    		return jpql;
+    	}
+    	return jpql + " ORDER BY x." + entity.getIdAttributeName();
+    }
     
 //    private static boolean isTypeAllowedForDisplay(Class<?> type) throws ClassNotFoundException {
 //    	if(type.isPrimitive() || Number.class.isAssignableFrom(type) || String.class.equals(type)
@@ -516,91 +1043,130 @@ public class DefaultQueryModelService implements QueryModelService {
 
     /**
      * Create and fill into the given ExecutableQuery the JPQL dimension of it.
+     * The JPQL statement is taken from the plan cache, if a query of the same shape has already been compiled, 
+     * so that only the parameter values need to be produced for the given query.
      *
      * @param executableQuery
-     * @throws ParserConfigurationException
-     * @throws NoSuchFieldException
-     * @throws ClassNotFoundException
-     * @throws IllegalAccessException
-     * @throws InstantiationException
-     * @throws java.lang.reflect.InvocationTargetException
-     */
-    private void compileJpql(ExecutableQuery executableQuery) throws ParserConfigurationException, NoSuchFieldException, ClassNotFoundException, IllegalAccessException, InstantiationException, InvocationTargetException, ParseException {
+     * @param metrics the recorder of the metrics of the request
+     * @return the plan the query was compiled with
+     * @throws Exception if the query cannot be compiled
+     */
+    private CompiledQueryPlan compileJpql(ExecutableQuery executableQuery, QueryMetricsRecorder metrics) throws Exception {
         LogicalQueryItem[] logicalDimension = executableQuery.getLogicalDimension();
+        CompiledQueryPlan plan = null;
+        String shapeKey = null;
+        if(queryPlanCache.isEnabled()) {
+            shapeKey = QueryShape.keyOf(logicalDimension);
+            plan = queryPlanCache.get(shapeKey);
+            if(plan != null && plan.getEntity() != getDynamicQueryContext().getEntity(plan.getEntity().getDisplayName())) {
+                //compiled for an entity changed by a reload of the configuration
+                plan = null;
+            }
+        }
+        if(shapeKey != null) {
+            metrics.setPlanCacheHit(plan != null);
+        }
+        if(plan == null) {
+            plan = compileQueryPlan(logicalDimension);
+            if(shapeKey != null) {
+                queryPlanCache.put(shapeKey, plan);
+            }
+        }
+        metrics.setEntityDisplayName(plan.getEntity().getDisplayName());
+        metrics.setJpql(plan.getJpql());
+        metrics.setLogicalDimension(logicalDimension);
+        executableQuery.setJpqlDimension(plan.getJpql());
+        executableQuery.setJpqlParams(plan.bindParameters(logicalDimension));
+        return plan;
+    }
+
+    /**
+     * Compile the shape of the given logical query into a JPQL statement and the binders of its parameters.
+     *
+     * @param logicalDimension the logical dimension of the query
+     * @return the compiled plan
+     * @throws Exception if the query cannot be compiled
+     */
+    private CompiledQueryPlan compileQueryPlan(LogicalQueryItem[] logicalDimension) throws Exception {
         AtomicInteger aliasUnicityKey = new AtomicInteger(0); //increment and append to every alias, to ensure its uniqueness
-        AtomicInteger joinAdditionsOffset = new AtomicInteger(0); //place in the query statement where to insert eventual joins with additional entities
-        List<Object> queryParams = new ArrayList<>();
-        StringBuilder jpqlStatement = new StringBuilder();
+        List<ParameterBinder> binders = new ArrayList<>();
+        String selectClause = "";
+        StringBuilder fromClause = new StringBuilder();
+        StringBuilder whereClause = new StringBuilder();
         JpaEntity jpaEntity = null;
         EntityAttribute lastAttribute = null;
         EntityAttributeOperator lastOperator = null;
-        for(LogicalQueryItem logicalQueryItem : logicalDimension) {
+        for(int i = 0; i < logicalDimension.length; i++) {
+            final LogicalQueryItem logicalQueryItem = logicalDimension[i];
             final String itemType = logicalQueryItem.getType();
             if(LogicalQueryItem.Type.findKeyword.name().equals(itemType)) {
-                jpqlStatement.append("SELECT DISTINCT");
+                selectClause = "SELECT DISTINCT x";
             } else if(LogicalQueryItem.Type.entityName.name().equals(itemType)) {
                 jpaEntity = resolveEntity(logicalQueryItem.getDisplayValue());
-                String entityClassName = jpaEntity.getClassName();
-                jpqlStatement.append(" x FROM ").append(entityClassName).append(" x");
-                joinAdditionsOffset.set(jpqlStatement.length());
+                fromClause.append(" FROM ").append(jpaEntity.getClassName()).append(" x");
             } else if(LogicalQueryItem.Type.havingKeyword.name().equals(itemType)) {
-                jpqlStatement.append(" WHERE");
+                whereClause.append(" WHERE");
             } else if(LogicalQueryItem.Type.openBracket.name().equals(itemType)) {
-                jpqlStatement.append(" (");
+                whereClause.append(" (");
             } else if(LogicalQueryItem.Type.closeBracket.name().equals(itemType)) {
-                jpqlStatement.append(" )");
+                whereClause.append(" )");
             } else if(LogicalQueryItem.Type.entityAttributeName.name().equals(itemType)) {
                 EntityAttribute attribute = resolveAttribute(jpaEntity, logicalQueryItem.getDisplayValue());
-                appendEntityAttributeName(jpqlStatement, jpaEntity, attribute, aliasUnicityKey, joinAdditionsOffset);
+                appendEntityAttributeName(whereClause, fromClause, attribute, aliasUnicityKey);
                 lastAttribute = attribute;
             } else if(LogicalQueryItem.Type.operatorKeyword.name().equals(itemType)) {
                 EntityAttributeOperator operator = EntityAttributeOperator.getByDisplayName(logicalQueryItem.getDisplayValue());
-                jpqlStatement.append(' ').append(operator.getValue());
+                whereClause.append(' ').append(operator.getValue());
                 lastOperator = operator;
             } else if(LogicalQueryItem.Type.entityAttributeValue.name().equals(itemType)) {
-                QueryFragment queryFragment = parseEntityAttributeValue(lastAttribute, logicalQueryItem.getDisplayValue(), EntityAttributeOperator.IN.equals(lastOperator));
-                jpqlStatement.append(' ').append(queryFragment.fragment);
-                for(Object parameter : queryFragment.parameters) {
-                	parameter = adaptValueToOperator(parameter, lastOperator);
-                    queryParams.add(parameter);
-                }
+                final int itemIndex = i;
+                final EntityAttribute attribute = lastAttribute;
+                final EntityAttributeOperator operator = lastOperator;
+                final boolean isMultiValue = EntityAttributeOperator.IN.equals(operator);
+                QueryFragment queryFragment = parseEntityAttributeValue(attribute, logicalQueryItem.getDisplayValue(), isMultiValue);
+                whereClause.append(' ').append(queryFragment.fragment);
+                binders.add((items, params) -> {
+                    QueryFragment valueFragment = parseEntityAttributeValue(attribute, items[itemIndex].getDisplayValue(), isMultiValue);
+                    for(Object parameter : valueFragment.parameters) {
+                        params.add(adaptValueToOperator(parameter, operator));
+                    }
+                });
             } else if(LogicalQueryItem.Type.conditionSeparatorKeyword.name().equals(itemType)) {
                 ConditionSeparatorKeyword keyword = ConditionSeparatorKeyword.getByDisplayName(logicalQueryItem.getDisplayValue());
-                jpqlStatement.append(' ').append(keyword.getValue());
+                whereClause.append(' ').append(keyword.getValue());
             }
         }
-        executableQuery.setJpqlDimension(jpqlStatement.toString());
-        executableQuery.setJpqlParams(queryParams);
-        compileAdditionalFilter(executableQuery, jpaEntity, queryParams);
+        compileAdditionalFilter(whereClause, jpaEntity, binders);
+        return new CompiledQueryPlan(jpaEntity, selectClause, fromClause.toString(), whereClause.toString(), binders);
     }
 
     /**
-     * To be called the last, after all other aspects of the ExecutableQuery have already been compiled.
-     * @param executableQuery
+     * To be called the last, after all other aspects of the query have already been compiled.
+     * The global scope attributes referenced by the filter become parameters, read from the security service at binding time.
+     * @param whereClause
      * @param jpaEntity
-     * @param queryParams
+     * @param binders
      */
-    private void compileAdditionalFilter(ExecutableQuery executableQuery, JpaEntity jpaEntity, List<Object> queryParams) {
+    private void compileAdditionalFilter(StringBuilder whereClause, JpaEntity jpaEntity, List<ParameterBinder> binders) {
     	final String inputFilter = jpaEntity.getAdditionalFilter();
     	if(inputFilter != null && !inputFilter.isEmpty()) {
-	    	Pattern pattern = Pattern.compile("\\$\\{\\w*\\}");
-	        Matcher matcher = pattern.matcher(inputFilter);
-	        Map<String, ?> globalAttributes = securityService.getGlobalScopeAttributes();
+	        Matcher matcher = ADDITIONAL_FILTER_VARIABLE_PATTERN.matcher(inputFilter);
 	        StringBuffer sb = new StringBuffer(" AND ");
 	        while(matcher.find()) {
 	            String group = matcher.group();
-	            String paramName = group.substring(2, group.length()-1);
-	            Object paramValue = globalAttributes.get(paramName);
-	            if(paramValue instanceof Iterable) {
-	            	throw new UnsupportedOperationException("Unsupported global attribute type: " + paramValue.getClass().getName() + 
-	            			" for attribute " + paramName + ". Iterable attributes are not supported in current version of infiniquery.");
-	            } else {
-	            	matcher.appendReplacement(sb, Matcher.quoteReplacement("?"));
-	            	queryParams.add(paramValue);
-	            }
+	            final String paramName = group.substring(2, group.length()-1);
+	            matcher.appendReplacement(sb, Matcher.quoteReplacement("?"));
+	            binders.add((items, params) -> {
+	            	Object paramValue = currentSecurityService().getGlobalScopeAttributes().get(paramName);
+	            	if(paramValue instanceof Iterable) {
+	            		throw new UnsupportedOperationException("Unsupported global attribute type: " + paramValue.getClass().getName() + 
+	            				" for attribute " + paramName + ". Iterable attributes are not supported in current version of infiniquery.");
+	            	}
+	            	params.add(paramValue);
+	            });
 	        }
 	        matcher.appendTail(sb);
-	        executableQuery.setJpqlDimension(executableQuery.getJpqlDimension() + sb);
+	        whereClause.append(sb);
     	}
     }
     
@@ -618,45 +1184,18 @@ public class DefaultQueryModelService implements QueryModelService {
     	return parameterValue;
     }
 
-    private QueryFragment parseEntityAttributeValue(EntityAttribute attribute, String displayedValue, boolean isMultiValue) throws ClassNotFoundException, IllegalAccessException, InvocationTargetException, InstantiationException, NoSuchFieldException, ParseException {
+    /**
+     * Parse the displayed value of an attribute into the fragment of the query comparing it, and its parameters.
+     * The values of strings compared by the IN operator, collections and entities are split into several parameters 
+     * (compared with the labels of the collection elements and entities), any other value is parsed by the codec of the attribute.
+     */
+    private QueryFragment parseEntityAttributeValue(EntityAttribute attribute, String displayedValue, boolean isMultiValue) throws NoSuchFieldException {
         Class<?> valueClass = resolveAttributeType(attribute);
-        if(String.class.equals(valueClass)) {
-        	if(isMultiValue) {
-            	return parseEntityAttributeMultiValue(displayedValue);
-        	} else {
-        		return new QueryFragment("?", displayedValue);
-        	}
-        }
-        Class<?> jodaDateTimeClass = resolveClass("org.joda.time.DateTime");
-        if(jodaDateTimeClass != null && jodaDateTimeClass.equals(valueClass)) {
-            return new QueryFragment("?", parseJodaDateTime(displayedValue));
-        }
-        if(java.sql.Date.class.isAssignableFrom(valueClass)) {
-            return new QueryFragment("?", new java.sql.Date(DEFAULT_DATE_FORMAT.parse(displayedValue).getTime()));
-        }
-        if(java.time.LocalDate.class.isAssignableFrom(valueClass)) {
-        	return new QueryFragment("?", LocalDate.parse(displayedValue, DEFAULT_DATE_FORMATTER));
-        }
-        if(java.util.Date.class.isAssignableFrom(valueClass)) {
-            return new QueryFragment("?", DEFAULT_DATE_TIME_FORMAT.parse(displayedValue));
-        }
-        if(isNumericType(valueClass)) {
-            return new QueryFragment("?", castNumericValue(displayedValue, valueClass));
-        }
-        if(Collection.class.isAssignableFrom(valueClass) || isEntity(valueClass)) {
+        ValueCodec<?> valueCodec = attribute.getValueCodec();
+        if(valueCodec == null || (isMultiValue && String.class.equals(valueClass))) {
         	return parseEntityAttributeMultiValue(displayedValue);
         }
-        //if not caught in above scenarios, then go looking for a static valueOf() method or a string-argument constructor
-        Method publicStaticValueOfMethod = getPublicStaticValueOfMethod(valueClass);
-        if(publicStaticValueOfMethod != null) {
-
-            return new QueryFragment("?", publicStaticValueOfMethod.invoke(null, displayedValue));
-        }
-        Constructor<?> stringArgumentConstructor = getStringArgumentConstructor(valueClass);
-        if(stringArgumentConstructor != null) {
-            return new QueryFragment("?", stringArgumentConstructor.newInstance(displayedValue));
-        }
-        throw new UnsupportedOperationException("Unsupported attribute value type: " + valueClass);
+        return new QueryFragment("?", valueCodec.decode(displayedValue));
     }
     
     private QueryFragment parseEntityAttributeMultiValue(String displayedValue) {
@@ -672,64 +1211,6 @@ public class DefaultQueryModelService implements QueryModelService {
     	return new QueryFragment(queryFragment.toString(), (Object[]) values);
     }
     
-    private Object castNumericValue(String value, Class<?> clazz) {
-    	if(Integer.class.isAssignableFrom(clazz)) {
-    		return Integer.valueOf(value);
-    	} else if(Double.class.isAssignableFrom(clazz)) {
-    		return Double.valueOf(value);
-    	} else if(Float.class.isAssignableFrom(clazz)) {
-    		return Float.valueOf(value);
-    	} else if(Short.class.isAssignableFrom(clazz)) {
-    		return Short.valueOf(value);
-    	} else if(Long.class.isAssignableFrom(clazz)) {
-    		return Long.valueOf(value);
-    	} else if(int.class.isAssignableFrom(clazz)) {
-    		return Integer.parseInt(value);
-    	} else if(double.class.isAssignableFrom(clazz)) {
-    		return Double.parseDouble(value);
-    	} else if(float.class.isAssignableFrom(clazz)) {
-    		return Float.parseFloat(value);
-    	} else if(short.class.isAssignableFrom(clazz)) {
-    		return Short.parseShort(value);
-    	} else if(long.class.isAssignableFrom(clazz)) {
-    		return Long.parseLong(value);
-    	} else if(BigInteger.class.isAssignableFrom(clazz)) {
-    		return new BigInteger(value);
-    	} else if(BigDecimal.class.isAssignableFrom(clazz)) {
-    		return new BigDecimal(value);
-    	} else {
-    		throw new UnsupportedOperationException("Unsupported attribute value type: " + clazz);
-    	}
-    }
-
-    private static Method getPublicStaticValueOfMethod(Class<?> clazz) {
-        try {
-            Method method = clazz.getMethod("valueOf", String.class);
-            if(Modifier.isStatic(method.getModifiers())) {
-                if(!method.isAccessible()) {
-                    method.setAccessible(true);
-                }
-                return method;
-            }
-        } catch (NoSuchMethodException e) {
-            //do nothing
-        }
-        return null;
-    }
-
-    private static Constructor<?> getStringArgumentConstructor(Class<?> clazz) {
-        try {
-            Constructor<?>  constructor = clazz.getDeclaredConstructor(String.class);
-            if(!constructor.isAccessible()) {
-                constructor.setAccessible(true);
-            }
-            return constructor;
-        } catch (NoSuchMethodException e) {
-            //do nothing
-        }
-        return null;
-    }
-
     private EntityAttribute resolveAttribute(String entityDisplayName, String attributeDisplayName) {
         try {
             JpaEntity entity = resolveEntity(entityDisplayName);
@@ -740,69 +1221,51 @@ public class DefaultQueryModelService implements QueryModelService {
     }
 
     private EntityAttribute resolveAttribute(JpaEntity entity, String attributeDisplayName) throws ParserConfigurationException, NoSuchFieldException, ClassNotFoundException {
-        for(EntityAttribute attribute : entity.getAttributes()) {
-            if(attributeDisplayName.equals(attribute.getDisplayName())) {
-                return attribute;
-            }
+        EntityAttribute attribute = entity.getAttribute(attributeDisplayName);
+        if(attribute == null) {
+            throw new InfiniqueryLoadError("Attribute not found in configuration: " + entity.getDisplayName() + "." + attributeDisplayName);
         }
-        throw new InfiniqueryLoadError("Attribute not found in configuration: " + entity.getDisplayName() + "." + attributeDisplayName);
+        return attribute;
     }
 
     private JpaEntity resolveEntity(String entityDisplayName) throws ParserConfigurationException {
-        InfiniqueryContext model = getDynamicQueryContext();
-        for(JpaEntity entity : model.getEntities()) {
-            if(entityDisplayName.equals(entity.getDisplayName())) {
-                return entity;
+        InfiniqueryContext context = getDynamicQueryContext();
+        JpaEntity entity = context.getEntity(entityDisplayName);
+        if(entity == null) {
+            String loadError = context.getEntityLoadErrors().get(entityDisplayName);
+            if(loadError != null) {
+                throw new InfiniqueryLoadError("Entity could not be loaded from configuration: " + entityDisplayName + ". " + loadError);
             }
+            throw new InfiniqueryLoadError("Entity not found in configuration: " + entityDisplayName);
         }
-        throw new InfiniqueryLoadError("Entity not found in configuration: " + entityDisplayName);
-    }
-
-    private List<String> getApplicableOperatorsDisplayNames(final EntityAttribute attribute) throws ClassNotFoundException, NoSuchFieldException {
-        String attributeName = attribute.getAttributeName();
-        Class<?> entityClass = Class.forName(attribute.getParentEntity().getClassName());
-        Field field = entityClass.getDeclaredField(attributeName);
-        final Class<?> fieldType = field.getType();
-        final EntityAttributeOperator[] applicableOperators = Type2OperatorMap.getApplicableOperatorsForType(fieldType);
-        @SuppressWarnings("serial")
-		List<String> list = new ArrayList<String>() {{
-            for(EntityAttributeOperator operator : applicableOperators) {
-            	if(!isBasicType(fieldType) || isOperatorSuitableForPresetValuesOfAttribute(operator, attribute)) {
-            		add(operator.getDisplayName());
-            	}
-            }
-        }};
-        return list;
+        return entity;
     }
 
-    private boolean isBasicType(Class<?> type) {
-    	if(type.isAssignableFrom(String.class) || 
-    			type.isAssignableFrom(int.class) || type.isAssignableFrom(short.class) || type.isAssignableFrom(long.class) || 
-    			type.isAssignableFrom(float.class) || type.isAssignableFrom(double.class) || type.isAssignableFrom(Number.class)) {
-    		return true;
-    	} else {
-    		return false;
-    	}
-    }
-    
-    private boolean isOperatorSuitableForPresetValuesOfAttribute(EntityAttributeOperator operator, EntityAttribute attribute) {
-    	if(attribute.getPossibleValuesQuery() != null) {
-    		if(EntityAttributeOperator.IN.equals(operator)) {
-    			return true;
-    		}
-    	} else{
-    		if(! EntityAttributeOperator.IN.equals(operator)) {
-    			return true;
-    		}
-    	}
-    	return false;
+    private Class<?> resolveAttributeType(EntityAttribute attribute) throws NoSuchFieldException {
+        Class<?> attributeType = attribute.getType();
+        if(attributeType == null) {
+            throw new NoSuchFieldException("No field or public getter found for attribute " + attribute.getAttributeName() + " in class " + attribute.getParentEntity().getClassName());
+        }
+        return attributeType;
     }
 
-    private Class<?> resolveAttributeType(EntityAttribute attribute) throws ClassNotFoundException, NoSuchFieldException {
-        String entityClassName = attribute.getParentEntity().getClassName();
-        Class<?> entityClass = Class.forName(entityClassName);
-        Field attributeField = entityClass.getDeclaredField(attribute.getAttributeName());
-        return attributeField.getType();
+    /**
+     * Retrieve the labels of the possible values of the given attribute, from the reference data cache if possible.
+     * The reference data is cached by query (qualified by the label attribute, if any), for the time to live of the attribute.
+     * @param attribute an attribute having a possibleValuesQuery
+     * @return the labels of the possible values
+     */
+    private String[] retrievePossibleValues(final EntityAttribute attribute) {
+        String key = ReferenceDataCache.keyOf(attribute);
+        long timeToLiveMillis = attribute.getPossibleValuesTtl() != null ? attribute.getPossibleValuesTtl() * 1000L : referenceDataTtlMillis;
+        return referenceDataCache.get(key, timeToLiveMillis, () -> {
+            //the load is shared by the concurrent requests of the same reference data, so it runs within its own execution
+            QueryExecution execution = new QueryExecution();
+            execution.startTimeout(getQueryTimeoutMillis(attribute.getParentEntity()));
+            List<?> originalItems = databaseAccessService.executeWithin(execution, 
+                    () -> databaseAccessService.retrieveReferenceData(attribute.getPossibleValuesQuery()));
+            return preparePossibleValues(originalItems, attribute);
+        });
     }
 
     /**
@@ -862,18 +1325,18 @@ public class DefaultQueryModelService implements QueryModelService {
         }
     }
 
-    private void performSecurityChecks(ExecutableQuery executableQuery) throws ParserConfigurationException, NoSuchFieldException, ClassNotFoundException {
+    private void performSecurityChecks(ExecutableQuery executableQuery, BitSet userRoleMask) throws ParserConfigurationException, NoSuchFieldException, ClassNotFoundException {
         JpaEntity jpaEntity = null;
         for(LogicalQueryItem logicalQueryItem : executableQuery.getLogicalDimension()) {
             final String itemType = logicalQueryItem.getType();
             if (LogicalQueryItem.Type.entityName.name().equals(itemType)) {
                 jpaEntity = resolveEntity(logicalQueryItem.getDisplayValue());
-                if (! (userAccessAllowed(jpaEntity))) {
+                if (! (jpaEntity.isAccessibleTo(userRoleMask))) {
                     throw new SecurityException("Users with roles " + printableCurrentUserRoles() + " are not allowed to access entity " + jpaEntity.getDisplayName());
                 }
             } else if (LogicalQueryItem.Type.entityAttributeName.name().equals(itemType)) {
                 EntityAttribute attribute = resolveAttribute(jpaEntity, logicalQueryItem.getDisplayValue());
-                if(! (userAccessAllowed(attribute))) {
+                if(! (attribute.isAccessibleTo(userRoleMask))) {
                     throw new SecurityException("Users with roles " + printableCurrentUserRoles() + " are not allowed to access attribute " + attribute.getDisplayName() + " of entity " + jpaEntity.getDisplayName());
                 }
             }
@@ -881,26 +1344,27 @@ public class DefaultQueryModelService implements QueryModelService {
     }
 
     /**
-     * Check if the current logged user, as returned by securityService.getCurrentUserRole(), is allowed access to the given {@link org.infiniquery.model.JpaEntity}
-     * @param entity
-     * @return
+     * Compute, once per request, the mask of the roles of the current logged user, as returned by securityService.getCurrentUserRoles().
+     * Access checks are then done by intersecting it with the masks of the roles allowed access to entities and attributes.
+     * @return a {@link BitSet} as computed by {@link RoleDictionary#maskOf(java.util.Collection)}
      */
-    private boolean userAccessAllowed(JpaEntity entity) {
-        return currentUserMatchesAllowedRoles(entity.getRoleValues());
+    private BitSet currentUserRoleMask() {
+        return RoleDictionary.maskOf(currentSecurityService().getCurrentUserRoles());
     }
 
     /**
-     * Check if the current logged user, as returned by securityService.getCurrentUserRole(), is allowed access to the given attribute of the given entity.
-     * @param attribute {@link org.infiniquery.model.EntityAttribute}
-     * @return
+     * 
+     * @return the security service, or the snapshot of the security context of the user who made the 
+     * asynchronous request running on the current thread
      */
-    private boolean userAccessAllowed(EntityAttribute attribute) {
-        return currentUserMatchesAllowedRoles(attribute.getRoleValues());
+    private SecurityService currentSecurityService() {
+        SecurityService requestSecurity = asyncRequestSecurity.get();
+        return requestSecurity != null ? requestSecurity : securityService;
     }
 
     private String printableCurrentUserRoles() {
         StringBuilder builder = new StringBuilder();
-        for(String role : securityService.getCurrentUserRoles()) {
+        for(String role : currentSecurityService().getCurrentUserRoles()) {
             if(builder.length() != 0) {
                 builder.append(", ");
             }
@@ -910,133 +1374,43 @@ public class DefaultQueryModelService implements QueryModelService {
     }
 
     private InfiniqueryContext getDynamicQueryContext() {
-        if(dynamicQueryContextCache == null) {
-            reloadQueryContext();
-        }
-        return dynamicQueryContextCache;
-    }
-
-    /**
-     * Parse a String input into an org.joda.time.DateTime object without forcing a compile-time dependency to joda dateTime library.
-     * @param stringDate
-     * @return
-     */
-    private Object parseJodaDateTime(final String stringDate) {
-        try {
-            final Class<?> jodaDateTimeClass = resolveClass("org.joda.time.DateTime");
-            final Class<?> dateTimeFormatClass = resolveClass("org.joda.time.format.DateTimeFormat");
-            final Class<?> dateTimeFormatterClass = resolveClass("org.joda.time.format.DateTimeFormatter");
-            final Method parseMethod = jodaDateTimeClass.getMethod("parse", String.class, dateTimeFormatterClass);
-            final Method forPatternMethod = dateTimeFormatClass.getMethod("forPattern", String.class);
-            final Object formatter = forPatternMethod.invoke(null, Constants.DEFAULT_DATE_TIME_FORMAT);
-            final Object jodaDateTimeObject = parseMethod.invoke(null, stringDate, formatter);
-            return jodaDateTimeObject;
-        } catch (Exception e) {
-            throw new RuntimeException(e.getMessage(), e);
-        }
-    }
-
-    /**
-     * Check if the current application user (as roles returned by securityService) has access permissions to a component where the allowed permissions are granted to given "allowedRoles".
-     * @param allowedRoles the roles that are allowed access to the component we want to check the current user's access to.
-     * @return
-     */
-    private boolean currentUserMatchesAllowedRoles(final Set<String> allowedRoles) {
-
-        final Set<String> userRoles = securityService.getCurrentUserRoles();
-        @SuppressWarnings("serial")
-		final Set<String> userRolesUppercased = new HashSet<String>() {{
-            if(userRoles != null) {
-                for (String role : userRoles) {
-                    if (role != null) {
-                        add(role.toUpperCase());
-                    }
-                }
-            }
-        }};
-        @SuppressWarnings("serial")
-		final Set<String> allowedRolesUppercased = new HashSet<String>() {{
-            for(String role : allowedRoles) {
-                if(role != null){
-                    add(role.toUpperCase());
+        InfiniqueryContext context = dynamicQueryContextCache;
+        if(context == null) {
+            synchronized (queryContextLock) {
+                context = dynamicQueryContextCache;
+                if(context == null) {
+                    reloadQueryContext();
+                    context = dynamicQueryContextCache;
                 }
             }
-        }};
-        if(allowedRoles.isEmpty() || allowedRolesUppercased.contains("ALL") || haveMatchingPoint(allowedRolesUppercased, userRolesUppercased)) {
-            return true;
-        } else {
-            return false;
         }
+        return context;
     }
 
-    /**
-     * Check if two sets have (at least one) element in common (or, other said, that their intersection is not empty).
-     * @param set1
-     * @param set2
-     * @return
-     */
-    private boolean haveMatchingPoint(Set<String> set1, Set<String> set2) {
-        for(String value : set1) {
-            if(set2.contains(value)) {
-                return true;
-            }
-        }
-        return false;
-    }
-    
     /**
      * 
      * Append the entity attribute name to the JPQL query statement.
+     * Relationship attributes are compared by their label attribute, which requires joins to be added to the FROM clause.
      * 
-     * @param jpqlStatement
-     * @param jpaEntity
+     * @param whereClause the clause to append the attribute name to
+     * @param fromClause the clause to append the eventual joins to
      * @param attribute
-     * @throws java.lang.SecurityException 
-     * @throws NoSuchFieldException 
-     * @throws ClassNotFoundException 
-     */
-    private void appendEntityAttributeName(StringBuilder jpqlStatement, JpaEntity jpaEntity, EntityAttribute attribute, AtomicInteger aliasUnicityKey, AtomicInteger joinAdditionsOffset) throws NoSuchFieldException, java.lang.SecurityException, ClassNotFoundException {
-    	Class<?> entityClass = Class.forName(jpaEntity.getClassName());
-    	Field field = entityClass.getDeclaredField(attribute.getAttributeName());
-    	boolean isJointRelationship = 
-    			field.getAnnotation(OneToOne.class) != null
-    			|| field.getAnnotation(OneToMany.class) != null
-    			|| field.getAnnotation(ManyToOne.class) != null
-    			|| field.getAnnotation(ManyToMany.class) != null;
-    	if(isJointRelationship) {
-    		StringBuilder joinFragment = new StringBuilder();
-    		Queue<String> objectTreePath = extractDotSeparatedPathFragments(attribute.getPossibleValueLabelAttributePath());
-    		completeJoinFragment(joinFragment, entityClass, objectTreePath, aliasUnicityKey);
-    		jpqlStatement.insert(joinAdditionsOffset.get(), joinFragment);
-    		joinAdditionsOffset.set(joinAdditionsOffset.get() + joinFragment.length());
-    		jpqlStatement.append(" x").append(aliasUnicityKey.get()).append('.').append(attribute.getPossibleValueLabelAttribute());
+     * @param aliasUnicityKey
+     */
+    private void appendEntityAttributeName(StringBuilder whereClause, StringBuilder fromClause, EntityAttribute attribute, AtomicInteger aliasUnicityKey) {
+    	if(attribute.isRelationship()) {
+    		List<String> objectTreePath = attribute.getPossibleValueLabelPathNavigator().getPathFragments();
+    		completeJoinFragment(fromClause, objectTreePath, aliasUnicityKey);
+    		whereClause.append(" x").append(aliasUnicityKey.get()).append('.').append(attribute.getPossibleValueLabelAttribute());
     	} else {
-    		jpqlStatement.append(" x.").append(attribute.getAttributeName());
+    		whereClause.append(" x.").append(attribute.getAttributeName());
     	}
     }
     
-    @SuppressWarnings("serial")
-	private static Queue<String> extractDotSeparatedPathFragments(String content) {
-    	final String[] contentTokens = content.split("\\.");
-
-		return new LinkedList<String>(){{
-    		for(String token : contentTokens) {
-    			add(token);
-    		}
-    	}};
-    }
-    
-    private void completeJoinFragment(StringBuilder joinFragment, Class<?> clazz, Queue<String> objectTreePath, AtomicInteger aliasUnicityKey) throws NoSuchFieldException, java.lang.SecurityException {
+    private void completeJoinFragment(StringBuilder joinFragment, List<String> objectTreePath, AtomicInteger aliasUnicityKey) {
     	String previousAlias = " x";
-    	while( objectTreePath.size() > 1 ) {
-	    	String crtAttributeName = objectTreePath.poll();
-//	    	Field field = resolveField(clazz, crtAttributeName);
-//	    	field.setAccessible(true);
-//	    	clazz = field.getType();
-//	    	if(Collection.class.isAssignableFrom(clazz)) {
-//	            ParameterizedType parameterizedType = (ParameterizedType) field.getGenericType();
-//	            clazz = (Class<?>) parameterizedType.getActualTypeArguments()[0];
-//	    	}
+    	for(int i = 0; i < objectTreePath.size() - 1; i++) {
+	    	String crtAttributeName = objectTreePath.get(i);
 	    	String newAlias = " x" + aliasUnicityKey.incrementAndGet();
 			joinFragment.append(" LEFT JOIN ")
 				.append(previousAlias).append('.').append(crtAttributeName)
@@ -1045,19 +1419,6 @@ public class DefaultQueryModelService implements QueryModelService {
     	}
     }
     
-    private Field resolveField(Class<?> entityClass, String fieldName) throws NoSuchFieldException, java.lang.SecurityException {
-    	try {
-    		return entityClass.getDeclaredField(fieldName);
-		} catch (NoSuchFieldException e) {
-			Class<?> superclass = entityClass.getSuperclass();
-			if(superclass == Object.class) {
-				return null;
-			} else {
-				return resolveField(superclass, fieldName);
-			}
-		}
-    }
-    
     /**
      * Verify if a particular EntityAttribute was configured to be shown as column in the query results table.
      * @param attribute an EntityAttribute
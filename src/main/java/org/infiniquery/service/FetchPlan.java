@@ -0,0 +1,326 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.service;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.Id;
+import javax.persistence.OrderBy;
+import javax.persistence.OrderColumn;
+
+import org.infiniquery.model.EntityAttribute;
+import org.infiniquery.model.JpaEntity;
+
+/**
+ * The associations to load along with the results of a query, derived from the relationships navigated by the 
+ * attributes visible in the results, so that mapping the results doesn't fire one lazy load per row and association.
+ * <p>
+ * The to-one relationships are fetch joined by the query itself. The labels of the attributes reaching them through 
+ * exactly one to-many relationship (e.g. the labels of "tags", or of "assigned users") are read, for each batch of 
+ * results, by one secondary query per attribute, selecting the pairs of result and label for the results of the batch, 
+ * to be stitched back into the results when they are mapped. The other to-many relationships (which would multiply 
+ * the rows and defeat the pagination if fetch joined by the query) are initialized for batches of results, 
+ * by one secondary query per batch and association, fetch joining it for the entities of the batch. 
+ * Only the relationships up to the second to-many one of each path are loaded this way.
+ *
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+final class FetchPlan {
+
+	private final String fetchJoins;
+
+	private final List<String> collectionQueries;
+
+	/** The secondary queries reading the labels of the attributes, by output slot (null for the attributes read otherwise) */
+	private final String[] labelQueries;
+
+	/** Whether the results are identified by their ids (in tuple mode), or by the entity instances themselves */
+	private final boolean resultsById;
+
+	/**
+	 * 
+	 * @param entity the entity requested by the query
+	 * @param attributes the attributes visible in the results, in the order of their output slots
+	 * @param resultsById true if the rows read are tuples starting with the ids of the entities, false if they are entity instances
+	 */
+	FetchPlan(JpaEntity entity, EntityAttribute[] attributes, boolean resultsById) {
+		this.resultsById = resultsById;
+		this.labelQueries = new String[attributes.length];
+		StringBuilder joins = new StringBuilder();
+		Map<String, String> aliasesByJoinPath = new HashMap<>();
+		Map<String, String> queriesByCollectionPath = new LinkedHashMap<>();
+		for(int slot = 0; slot < attributes.length; slot++) {
+			EntityAttribute attribute = attributes[slot];
+			if(isLoadableByLabelQuery(attribute)) {
+				labelQueries[slot] = createLabelQuery(entity, attribute, attribute.getPossibleValueLabelPathNavigator().getPathFragments());
+				continue;
+			}
+			if(resultsById) {
+				continue;
+			}
+			List<String> path = attribute.getAssociationPath();
+			String alias = "x";
+			String joinPath = "";
+			int hop = 0;
+			for(; hop < path.size() && !attribute.isToManyAssociation(hop); hop++) {
+				joinPath = joinPath + '.' + path.get(hop);
+				String joinAlias = aliasesByJoinPath.get(joinPath);
+				if(joinAlias == null) {
+					joinAlias = "f" + (aliasesByJoinPath.size() + 1);
+					aliasesByJoinPath.put(joinPath, joinAlias);
+					joins.append(" LEFT JOIN FETCH ").append(alias).append('.').append(path.get(hop)).append(' ').append(joinAlias);
+				}
+				alias = joinAlias;
+			}
+			if(hop < path.size()) {
+				int end = hop + 1;
+				while(end < path.size() && !attribute.isToManyAssociation(end)) {
+					end++;
+				}
+				String collectionPath = String.join(".", path.subList(0, end));
+				if(!queriesByCollectionPath.containsKey(collectionPath)) {
+					queriesByCollectionPath.put(collectionPath, createCollectionQuery(entity, path.subList(0, end)));
+				}
+			}
+		}
+		this.fetchJoins = joins.toString();
+		this.collectionQueries = Collections.unmodifiableList(new ArrayList<>(queriesByCollectionPath.values()));
+	}
+
+	/**
+	 * 
+	 * @param attribute an attribute visible in the results
+	 * @return true if the labels of the given attribute can be read by a secondary label query: its label path 
+	 * goes through exactly one to-many relationship, and ends with a basic attribute.
+	 */
+	static boolean isLoadableByLabelQuery(EntityAttribute attribute) {
+		if(attribute.getPossibleValueLabelPathNavigator() == null) {
+			return false;
+		}
+		List<String> associationPath = attribute.getAssociationPath();
+		if(associationPath.size() != attribute.getPossibleValueLabelPathNavigator().getPathFragments().size() - 1) {
+			return false;
+		}
+		int toManyAssociations = 0;
+		for(int i = 0; i < associationPath.size(); i++) {
+			if(attribute.isToManyAssociation(i)) {
+				toManyAssociations++;
+			}
+		}
+		return toManyAssociations == 1;
+	}
+
+	private String createLabelQuery(JpaEntity entity, EntityAttribute attribute, List<String> labelPath) {
+		StringBuilder query = new StringBuilder("SELECT x");
+		if(resultsById) {
+			query.append('.').append(entity.getIdAttributeName());
+		}
+		query.append(", f").append(labelPath.size() - 1).append('.').append(labelPath.get(labelPath.size() - 1));
+		query.append(" FROM ").append(entity.getClassName()).append(" x");
+		String alias = "x";
+		for(int i = 0; i < labelPath.size() - 1; i++) {
+			String joinAlias = "f" + (i + 1);
+			query.append(" JOIN ").append(alias).append('.').append(labelPath.get(i)).append(' ').append(joinAlias);
+			alias = joinAlias;
+		}
+		query.append(" WHERE x");
+		if(resultsById) {
+			query.append('.').append(entity.getIdAttributeName());
+		}
+		query.append(" IN ?1");
+		List<String> orderItems = new ArrayList<>();
+		if(entity.getIdAttributeName() != null) {
+			orderItems.add("x." + entity.getIdAttributeName());
+		}
+		addCollectionOrder(entity, attribute, labelPath, orderItems);
+		if(!orderItems.isEmpty()) {
+			query.append(" ORDER BY ").append(String.join(", ", orderItems));
+		}
+		return query.toString();
+	}
+
+	/**
+	 * Add the ordering of the to-many relationship on the label path, so that the labels of each result are read in the 
+	 * order of its collection, as when navigated: the index column of an {@link OrderColumn} list, or the items of the 
+	 * {@link OrderBy} of the relationship. The labels of the unordered collections are left in the order they are read.
+	 */
+	private static void addCollectionOrder(JpaEntity entity, EntityAttribute attribute, List<String> labelPath, List<String> orderItems) {
+		Class<?> hopClass = entity.getEntityClass();
+		for(int i = 0; i < labelPath.size() - 1 && hopClass != null; i++) {
+			Field hopField = findField(hopClass, labelPath.get(i));
+			if(hopField == null) {
+				return;
+			}
+			if(!attribute.isToManyAssociation(i)) {
+				hopClass = hopField.getType();
+				continue;
+			}
+			String alias = "f" + (i + 1);
+			Class<?> elementClass = resolveCollectionElementType(hopField.getGenericType());
+			if(hopField.isAnnotationPresent(OrderColumn.class)) {
+				orderItems.add("INDEX(" + alias + ")");
+			} else if(hopField.isAnnotationPresent(OrderBy.class)) {
+				String orderBy = hopField.getAnnotation(OrderBy.class).value().trim();
+				if(orderBy.isEmpty()) {
+					//an empty OrderBy orders the collection by the primary key of its elements
+					Field idField = elementClass != null ? findIdField(elementClass) : null;
+					if(idField != null) {
+						orderItems.add(alias + "." + idField.getName());
+					}
+				} else {
+					for(String orderItem : orderBy.split(",")) {
+						orderItems.add(alias + "." + orderItem.trim());
+					}
+				}
+			}
+			return;
+		}
+	}
+
+	private static Field findField(Class<?> clazz, String fieldName) {
+		for(Class<?> crtClass = clazz; crtClass != null && crtClass != Object.class; crtClass = crtClass.getSuperclass()) {
+			try {
+				return crtClass.getDeclaredField(fieldName);
+			} catch (NoSuchFieldException e) {
+				//continue with the superclass
+			}
+		}
+		return null;
+	}
+
+	private static Field findIdField(Class<?> clazz) {
+		for(Class<?> crtClass = clazz; crtClass != null && crtClass != Object.class; crtClass = crtClass.getSuperclass()) {
+			for(Field field : crtClass.getDeclaredFields()) {
+				if(field.isAnnotationPresent(Id.class)) {
+					return field;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static Class<?> resolveCollectionElementType(Type genericType) {
+		if(genericType instanceof ParameterizedType) {
+			Type[] typeArguments = ((ParameterizedType) genericType).getActualTypeArguments();
+			if(typeArguments.length == 1 && typeArguments[0] instanceof Class) {
+				return (Class<?>) typeArguments[0];
+			}
+		}
+		return null;
+	}
+
+	private static String createCollectionQuery(JpaEntity entity, List<String> path) {
+		StringBuilder query = new StringBuilder("SELECT DISTINCT x FROM ").append(entity.getClassName()).append(" x");
+		String alias = "x";
+		for(int i = 0; i < path.size(); i++) {
+			String joinAlias = "f" + (i + 1);
+			query.append(" LEFT JOIN FETCH ").append(alias).append('.').append(path.get(i)).append(' ').append(joinAlias);
+			alias = joinAlias;
+		}
+		return query.append(" WHERE x IN ?1").toString();
+	}
+
+	/**
+	 * 
+	 * @return the fetch joins of the to-one relationships, to be appended to the FROM clause of the query (it starts with a space, unless empty)
+	 */
+	String getFetchJoins() {
+		return fetchJoins;
+	}
+
+	/**
+	 * 
+	 * @param slot an output slot of the results
+	 * @return true if the values of the given slot are read by a secondary label query
+	 */
+	boolean isLoadedByLabelQuery(int slot) {
+		return labelQueries[slot] != null;
+	}
+
+	/**
+	 * 
+	 * @return true if the results are to be read in batches, for secondary queries to run on each batch
+	 */
+	boolean isBatched() {
+		if(!collectionQueries.isEmpty()) {
+			return true;
+		}
+		for(String labelQuery : labelQueries) {
+			if(labelQuery != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Run the secondary queries for the given batch of results: initialize their to-many relationships, and read 
+	 * the labels of the attributes loaded by label queries. It must run with the same persistence context that the 
+	 * batch was loaded in (e.g. from within the consumer of a streamed query), so that the collections are initialized 
+	 * on the very instances of the batch, and the entities read along with the labels are those instances.
+	 * @param results the keys of the results of the batch: the entity instances, or their ids in tuple mode
+	 * @param databaseAccessService the service to run the secondary queries through
+	 * @return the labels of the attributes loaded by label queries, by output slot and by key of the result
+	 * (null for the slots read otherwise), each list of labels in the order of the collection it is read through
+	 */
+	List<Map<Object, List<Object>>> loadBatch(List<Object> results, DatabaseAccessService databaseAccessService) {
+		List<Map<Object, List<Object>>> labels = new ArrayList<>(Collections.nCopies(labelQueries.length, (Map<Object, List<Object>>) null));
+		if(results.isEmpty()) {
+			return labels;
+		}
+		List<Object> params = Collections.singletonList(results);
+		for(String collectionQuery : collectionQueries) {
+			databaseAccessService.executeQuery(collectionQuery, params);
+		}
+		for(int slot = 0; slot < labelQueries.length; slot++) {
+			if(labelQueries[slot] != null) {
+				Map<Object, List<Object>> labelsByResult = resultsById ? new HashMap<>() : new IdentityHashMap<>();
+				for(Object row : databaseAccessService.executeQuery(labelQueries[slot], params)) {
+					Object[] pair = (Object[]) row;
+					List<Object> resultLabels = labelsByResult.get(pair[0]);
+					if(resultLabels == null) {
+						resultLabels = new ArrayList<>();
+						labelsByResult.put(pair[0], resultLabels);
+					}
+					resultLabels.add(pair[1]);
+				}
+				labels.set(slot, labelsByResult);
+			}
+		}
+		return labels;
+	}
+}
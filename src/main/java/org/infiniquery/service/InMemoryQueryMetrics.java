@@ -0,0 +1,240 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.service;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link QueryMetricsListener} keeping the metrics of the requests in memory, to be read programmatically 
+ * (e.g. by a monitoring endpoint of the application):
+ * <ul>
+ * <li>the number of requests, of failed requests, of results, and of plan cache hits and misses;</li>
+ * <li>histograms of the wall time of the requests, overall and per entity, and of each {@link QueryPhase};</li>
+ * <li>the total CPU time and allocated bytes of each {@link QueryPhase}.</li>
+ * </ul>
+ * All the counters are striped, so recording the metrics of concurrent requests does not make them contend.
+ *
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+public class InMemoryQueryMetrics implements QueryMetricsListener {
+
+	private static final QueryPhase[] PHASES = QueryPhase.values();
+
+	private volatile Counters counters = new Counters();
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.infiniquery.service.QueryMetricsListener#queryCompleted(org.infiniquery.service.QueryMetrics)
+	 */
+	@Override
+	public void queryCompleted(QueryMetrics metrics) {
+		Counters currentCounters = counters;
+		currentCounters.queryCount.increment();
+		if(!metrics.isSucceeded()) {
+			currentCounters.failureCount.increment();
+		}
+		currentCounters.resultCount.add(metrics.getResultCount());
+		if(metrics.getPlanCacheHit() != null) {
+			(metrics.getPlanCacheHit() ? currentCounters.planCacheHitCount : currentCounters.planCacheMissCount).increment();
+		}
+		currentCounters.wallTime.record(metrics.getTotalWallTimeNanos());
+		if(metrics.getEntityDisplayName() != null) {
+			currentCounters.entityWallTimes.computeIfAbsent(metrics.getEntityDisplayName(), entity -> new QueryMetricsHistogram())
+				.record(metrics.getTotalWallTimeNanos());
+		}
+		for(QueryPhase phase : PHASES) {
+			int i = phase.ordinal();
+			long wallTime = metrics.getWallTimeNanos(phase);
+			if(wallTime > 0) {
+				currentCounters.phaseWallTimes[i].record(wallTime);
+			}
+			if(metrics.getCpuTimeNanos(phase) > 0) {
+				currentCounters.phaseCpuTimes[i].add(metrics.getCpuTimeNanos(phase));
+			}
+			if(metrics.getAllocatedBytes(phase) > 0) {
+				currentCounters.phaseAllocatedBytes[i].add(metrics.getAllocatedBytes(phase));
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @return the number of requests
+	 */
+	public long getQueryCount() {
+		return counters.queryCount.sum();
+	}
+
+	/**
+	 * 
+	 * @return the number of requests which failed
+	 */
+	public long getFailureCount() {
+		return counters.failureCount.sum();
+	}
+
+	/**
+	 * 
+	 * @return the number of results of all the requests
+	 */
+	public long getResultCount() {
+		return counters.resultCount.sum();
+	}
+
+	/**
+	 * 
+	 * @return the number of requests whose query was found in the plan cache
+	 */
+	public long getPlanCacheHitCount() {
+		return counters.planCacheHitCount.sum();
+	}
+
+	/**
+	 * 
+	 * @return the number of requests whose query had to be compiled, while the plan cache was enabled
+	 */
+	public long getPlanCacheMissCount() {
+		return counters.planCacheMissCount.sum();
+	}
+
+	/**
+	 * 
+	 * @return the histogram of the wall time of the requests, in nanoseconds
+	 */
+	public QueryMetricsHistogram getWallTime() {
+		return counters.wallTime;
+	}
+
+	/**
+	 * 
+	 * @param entityDisplayName the display name of an entity
+	 * @return the histogram of the wall time of the requests on the given entity, in nanoseconds, or null if there was none
+	 */
+	public QueryMetricsHistogram getWallTime(String entityDisplayName) {
+		return counters.entityWallTimes.get(entityDisplayName);
+	}
+
+	/**
+	 * 
+	 * @return the histograms of the wall time of the requests, in nanoseconds, by the display name of the requested entity
+	 */
+	public Map<String, QueryMetricsHistogram> getEntityWallTimes() {
+		return Collections.unmodifiableMap(counters.entityWallTimes);
+	}
+
+	/**
+	 * 
+	 * @param phase a phase of the requests
+	 * @return the histogram of the wall time spent in the given phase, in nanoseconds, by the requests which reached it
+	 */
+	public QueryMetricsHistogram getWallTime(QueryPhase phase) {
+		return counters.phaseWallTimes[phase.ordinal()];
+	}
+
+	/**
+	 * 
+	 * @param phase a phase of the requests
+	 * @return the CPU time spent in the given phase by all the requests, in nanoseconds, or 0 if not measured
+	 */
+	public long getCpuTimeNanos(QueryPhase phase) {
+		return counters.phaseCpuTimes[phase.ordinal()].sum();
+	}
+
+	/**
+	 * 
+	 * @param phase a phase of the requests
+	 * @return the bytes allocated in the given phase by all the requests, or 0 if not measured
+	 */
+	public long getAllocatedBytes(QueryPhase phase) {
+		return counters.phaseAllocatedBytes[phase.ordinal()].sum();
+	}
+
+	/**
+	 * Forget the metrics recorded so far.
+	 */
+	public void reset() {
+		counters = new Counters();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("InMemoryQueryMetrics [queryCount=").append(getQueryCount())
+				.append(", failureCount=").append(getFailureCount())
+				.append(", resultCount=").append(getResultCount())
+				.append(", planCacheHitCount=").append(getPlanCacheHitCount())
+				.append(", planCacheMissCount=").append(getPlanCacheMissCount())
+				.append(", wallTime=").append(getWallTime());
+		for(QueryPhase phase : PHASES) {
+			builder.append(", ").append(phase).append("=[wallTime=").append(getWallTime(phase))
+					.append(", cpuTimeNanos=").append(getCpuTimeNanos(phase))
+					.append(", allocatedBytes=").append(getAllocatedBytes(phase)).append(']');
+		}
+		return builder.append(']').toString();
+	}
+
+	/**
+	 * The counters, replaced as a whole on reset.
+	 */
+	private static final class Counters {
+
+		final LongAdder queryCount = new LongAdder();
+
+		final LongAdder failureCount = new LongAdder();
+
+		final LongAdder resultCount = new LongAdder();
+
+		final LongAdder planCacheHitCount = new LongAdder();
+
+		final LongAdder planCacheMissCount = new LongAdder();
+
+		final QueryMetricsHistogram wallTime = new QueryMetricsHistogram();
+
+		final Map<String, QueryMetricsHistogram> entityWallTimes = new ConcurrentHashMap<>();
+
+		final QueryMetricsHistogram[] phaseWallTimes = new QueryMetricsHistogram[PHASES.length];
+
+		final LongAdder[] phaseCpuTimes = new LongAdder[PHASES.length];
+
+		final LongAdder[] phaseAllocatedBytes = new LongAdder[PHASES.length];
+
+		Counters() {
+			for(int i = 0; i < PHASES.length; i++) {
+				phaseWallTimes[i] = new QueryMetricsHistogram();
+				phaseCpuTimes[i] = new LongAdder();
+				phaseAllocatedBytes[i] = new LongAdder();
+			}
+		}
+	}
+}
@@ -0,0 +1,140 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.infiniquery.model.EntityAttribute;
+import org.infiniquery.model.InfiniqueryContext;
+import org.infiniquery.model.JpaEntity;
+
+/**
+ * The differences between the query context in use and a newly read one, computed when the configuration is reloaded, 
+ * so that only the cached state of the entities whose configuration changed is invalidated.
+ * <p>
+ * The entities configured exactly as before are carried over to the new context as the very same instances, 
+ * so that the state derived from them (e.g. the compiled query plans) stays valid. Thus, the plans compiled for 
+ * an entity instance no longer part of the context in use can be recognized as stale by identity.
+ *
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+final class QueryContextDiff {
+
+	private final Set<String> changedEntityNames;
+
+	private final Set<String> staleReferenceDataKeys;
+
+	private QueryContextDiff(Set<String> changedEntityNames, Set<String> staleReferenceDataKeys) {
+		this.changedEntityNames = changedEntityNames;
+		this.staleReferenceDataKeys = staleReferenceDataKeys;
+	}
+
+	/**
+	 * Compare the given contexts, and carry over to the new context the entities configured exactly as in the old one.
+	 * The new context must not be in use yet.
+	 * @param oldContext the context in use
+	 * @param newContext the newly read context
+	 * @return the differences between the contexts
+	 */
+	static QueryContextDiff compareAndMerge(InfiniqueryContext oldContext, InfiniqueryContext newContext) {
+		Map<String, JpaEntity> oldEntities = new HashMap<>();
+		for(JpaEntity entity : oldContext.getEntities()) {
+			oldEntities.put(entity.getDisplayName(), entity);
+		}
+		Set<String> changedEntityNames = new HashSet<>(oldEntities.keySet());
+		List<JpaEntity> mergedEntities = new ArrayList<>(newContext.getEntities().size());
+		for(JpaEntity entity : newContext.getEntities()) {
+			JpaEntity oldEntity = oldEntities.get(entity.getDisplayName());
+			if(oldEntity != null && configurationOf(oldEntity).equals(configurationOf(entity))) {
+				mergedEntities.add(oldEntity);
+				changedEntityNames.remove(entity.getDisplayName());
+			} else {
+				mergedEntities.add(entity);
+				changedEntityNames.add(entity.getDisplayName());
+			}
+		}
+		newContext.setEntities(Collections.unmodifiableList(mergedEntities));
+
+		//the reference data depends only on its key, but its entries keep the time to live they were loaded with
+		Set<String> staleReferenceDataKeys = new HashSet<>();
+		Set<List<Object>> newReferenceData = referenceDataOf(newContext);
+		for(List<Object> referenceData : referenceDataOf(oldContext)) {
+			if(!newReferenceData.contains(referenceData)) {
+				staleReferenceDataKeys.add((String) referenceData.get(0));
+			}
+		}
+		return new QueryContextDiff(Collections.unmodifiableSet(changedEntityNames), Collections.unmodifiableSet(staleReferenceDataKeys));
+	}
+
+	/**
+	 * 
+	 * @return the display names of the entities added, removed, or configured differently
+	 */
+	Set<String> getChangedEntityNames() {
+		return changedEntityNames;
+	}
+
+	/**
+	 * 
+	 * @return the keys of the reference data no longer read by any attribute, or read with another time to live
+	 */
+	Set<String> getStaleReferenceDataKeys() {
+		return staleReferenceDataKeys;
+	}
+
+	private static List<Object> configurationOf(JpaEntity entity) {
+		List<Object> configuration = new ArrayList<>();
+		Collections.addAll(configuration, entity.getClassName(), entity.getDisplayName(), entity.getRoles(), 
+				entity.getAdditionalFilter(), entity.getResultsLimit(), entity.getQueryTimeout());
+		for(EntityAttribute attribute : entity.getAttributes()) {
+			Collections.addAll(configuration, attribute.getAttributeName(), attribute.getDisplayName(), attribute.getRoles(), 
+					attribute.getPossibleValuesQuery(), attribute.getPossibleValueLabelAttribute(), attribute.getPossibleValueLabelAttributePath(), 
+					attribute.getScope(), attribute.getPossibleValuesTtl());
+		}
+		return configuration;
+	}
+
+	private static Set<List<Object>> referenceDataOf(InfiniqueryContext context) {
+		Set<List<Object>> referenceData = new HashSet<>();
+		for(JpaEntity entity : context.getEntities()) {
+			for(EntityAttribute attribute : entity.getAttributes()) {
+				if(attribute.getPossibleValuesQuery() != null) {
+					referenceData.add(Arrays.<Object>asList(ReferenceDataCache.keyOf(attribute), attribute.getPossibleValuesTtl()));
+				}
+			}
+		}
+		return referenceData;
+	}
+}
@@ -0,0 +1,148 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.service;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.QueryTimeoutException;
+
+/**
+ * The state shared by the queries run on behalf of one request to the {@link QueryModelService} (the main query and its 
+ * secondary queries): its timeout, and whether or not it was cancelled.
+ * <p>
+ * The {@link DatabaseAccessService} runs the queries of an execution through 
+ * {@link DatabaseAccessService#executeWithin(QueryExecution, java.util.function.Supplier)}. It is expected to pass 
+ * the remaining time to the database with each query, to check the execution before reading each result, 
+ * and to register through {@link #onCancel(Runnable)} how the statement currently running can be aborted.
+ * An execution may be cancelled from any thread.
+ *
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+public final class QueryExecution {
+
+	/** The time (as of System.nanoTime()) by which the execution must end, if it has a timeout */
+	private volatile long deadline;
+
+	private volatile boolean timed;
+
+	private volatile boolean cancelled;
+
+	/** Aborts the statement currently running on behalf of this execution, if any */
+	private volatile Runnable canceller;
+
+	/** Records the metrics of the request, on the thread running it */
+	private QueryMetricsRecorder metrics = QueryMetricsRecorder.DISABLED;
+
+	QueryMetricsRecorder getMetrics() {
+		return metrics;
+	}
+
+	void setMetrics(QueryMetricsRecorder metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Start the clock of this execution.
+	 * @param timeoutMillis the maximum number of milliseconds the execution may take from now on; 0 for no timeout
+	 */
+	void startTimeout(long timeoutMillis) {
+		if(timeoutMillis < 0) {
+			throw new IllegalArgumentException("The query timeout cannot be negative: " + timeoutMillis);
+		}
+		if(timeoutMillis > 0) {
+			this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+			this.timed = true;
+		}
+	}
+
+	/**
+	 * 
+	 * @return true if this execution has a timeout
+	 */
+	public boolean hasTimeout() {
+		return timed;
+	}
+
+	/**
+	 * 
+	 * @return the number of milliseconds left until the timeout of this execution (0 if already elapsed), 
+	 * or Long.MAX_VALUE if the execution has no timeout
+	 */
+	public long getRemainingMillis() {
+		if(!timed) {
+			return Long.MAX_VALUE;
+		}
+		return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+	}
+
+	/**
+	 * 
+	 * @return true if this execution was cancelled
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Check that the queries of this execution may go on.
+	 * @throws CancellationException if the execution was cancelled
+	 * @throws QueryTimeoutException if the timeout of the execution elapsed
+	 */
+	public void checkActive() {
+		if(cancelled) {
+			throw new CancellationException("The query execution was cancelled.");
+		}
+		if(timed && System.nanoTime() - deadline >= 0) {
+			throw new QueryTimeoutException("The query execution timed out.");
+		}
+	}
+
+	/**
+	 * Register how to abort the statement currently running on behalf of this execution. 
+	 * If the execution is already cancelled, the canceller is run right away.
+	 * @param canceller the canceller of the current statement, or null if no statement is running
+	 */
+	public void onCancel(Runnable canceller) {
+		this.canceller = canceller;
+		if(canceller != null && cancelled) {
+			canceller.run();
+		}
+	}
+
+	/**
+	 * Cancel this execution: the statement currently running, if any, is aborted, and no more results are read.
+	 */
+	public void cancel() {
+		cancelled = true;
+		Runnable currentCanceller = canceller;
+		if(currentCanceller != null) {
+			currentCanceller.run();
+		}
+	}
+}
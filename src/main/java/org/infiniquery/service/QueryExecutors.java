@@ -0,0 +1,126 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.service;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factory methods for the executors running the asynchronous requests of the {@link DefaultQueryModelService}.
+ * Both kinds of executors bound the number of queries running at the same time, which should not exceed 
+ * the size of the connection pool of the persistence unit.
+ *
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+public final class QueryExecutors {
+
+	private QueryExecutors() {
+	}
+
+	/**
+	 * Create an executor running the requests on a pool of daemon platform threads. The requests exceeding the pool wait 
+	 * in a queue; those exceeding the queue as well are rejected, completing their futures with a 
+	 * {@link java.util.concurrent.RejectedExecutionException}. The idle threads end after one minute.
+	 * @param threads the maximum number of requests running at the same time
+	 * @param queueCapacity the maximum number of requests waiting for a thread
+	 * @return the new executor
+	 */
+	public static ExecutorService newBoundedExecutor(int threads, int queueCapacity) {
+		if(threads <= 0) {
+			throw new IllegalArgumentException("The number of threads must be a positive number.");
+		}
+		if(queueCapacity <= 0) {
+			throw new IllegalArgumentException("The queue capacity must be a positive number.");
+		}
+		final AtomicInteger threadNumber = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, 
+				new ArrayBlockingQueue<Runnable>(queueCapacity), runnable -> {
+					Thread thread = new Thread(runnable, "infiniquery-query-" + threadNumber.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * 
+	 * @return true if the running JDK supports virtual threads (JDK 21 or later)
+	 */
+	public static boolean isVirtualThreadSupported() {
+		return findVirtualThreadExecutorFactory() != null;
+	}
+
+	/**
+	 * Create an executor running each request on a new virtual thread, at most maxConcurrency of them at the same time:
+	 * the others wait for a permit on their own virtual threads, which costs no platform thread. 
+	 * Requires JDK 21 or later at runtime; the library itself stays compatible with JDK 8.
+	 * @param maxConcurrency the maximum number of requests running at the same time
+	 * @return the new executor
+	 * @throws UnsupportedOperationException if the running JDK has no virtual threads
+	 */
+	public static Executor newVirtualThreadExecutor(int maxConcurrency) {
+		if(maxConcurrency <= 0) {
+			throw new IllegalArgumentException("The maximum concurrency must be a positive number.");
+		}
+		Method factory = findVirtualThreadExecutorFactory();
+		if(factory == null) {
+			throw new UnsupportedOperationException("Virtual threads are not supported by the running JDK: " + System.getProperty("java.version"));
+		}
+		final Executor virtualThreadExecutor;
+		try {
+			virtualThreadExecutor = (Executor) factory.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			throw new UnsupportedOperationException("Failed to create the virtual thread executor.", e);
+		}
+		final Semaphore permits = new Semaphore(maxConcurrency, true);
+		return command -> virtualThreadExecutor.execute(() -> {
+			permits.acquireUninterruptibly();
+			try {
+				command.run();
+			} finally {
+				permits.release();
+			}
+		});
+	}
+
+	private static Method findVirtualThreadExecutorFactory() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,157 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.service;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The statistics of the queries sharing one fingerprint, kept by the {@link SlowQueryLog}: histograms of their wall time 
+ * and of their numbers of results, and the numbers of slow and failed executions.
+ * <p>
+ * The statistics are live: they keep being updated by the queries completing while they are read.
+ *
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+public final class QueryFingerprintStatistics {
+
+	private final String fingerprint;
+
+	private final String entityDisplayName;
+
+	private final String logicalShape;
+
+	private final QueryMetricsHistogram wallTime = new QueryMetricsHistogram();
+
+	private final QueryMetricsHistogram resultCount = new QueryMetricsHistogram();
+
+	private final LongAdder slowCount = new LongAdder();
+
+	private final LongAdder failureCount = new LongAdder();
+
+	/**
+	 * 
+	 * @param fingerprint the normalized JPQL statement
+	 * @param entityDisplayName the display name of the entity queried
+	 * @param logicalShape the shape of the first logical query seen with this fingerprint
+	 */
+	QueryFingerprintStatistics(String fingerprint, String entityDisplayName, String logicalShape) {
+		this.fingerprint = fingerprint;
+		this.entityDisplayName = entityDisplayName;
+		this.logicalShape = logicalShape;
+	}
+
+	void record(long wallTimeNanos, long results, boolean slow, boolean failed) {
+		wallTime.record(wallTimeNanos);
+		resultCount.record(results);
+		if(slow) {
+			slowCount.increment();
+		}
+		if(failed) {
+			failureCount.increment();
+		}
+	}
+
+	/**
+	 * 
+	 * @return the normalized JPQL statement of the queries, without values and with the lists of placeholders collapsed
+	 */
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * 
+	 * @return the display name of the entity queried
+	 */
+	public String getEntityDisplayName() {
+		return entityDisplayName;
+	}
+
+	/**
+	 * 
+	 * @return the shape of the first logical query seen with this fingerprint, without its values
+	 */
+	public String getLogicalShape() {
+		return logicalShape;
+	}
+
+	/**
+	 * 
+	 * @return the number of executions of the queries
+	 */
+	public long getExecutionCount() {
+		return wallTime.getCount();
+	}
+
+	/**
+	 * 
+	 * @return the histogram of the wall time of the queries, in nanoseconds
+	 */
+	public QueryMetricsHistogram getWallTime() {
+		return wallTime;
+	}
+
+	/**
+	 * 
+	 * @return the histogram of the numbers of results of the queries (the rows mapped, or the rows counted)
+	 */
+	public QueryMetricsHistogram getResultCount() {
+		return resultCount;
+	}
+
+	/**
+	 * 
+	 * @return the number of executions slower than the threshold of the {@link SlowQueryLog}
+	 */
+	public long getSlowCount() {
+		return slowCount.sum();
+	}
+
+	/**
+	 * 
+	 * @return the number of failed executions
+	 */
+	public long getFailureCount() {
+		return failureCount.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "QueryFingerprintStatistics [entityDisplayName=" + entityDisplayName + ", logicalShape=" + logicalShape 
+				+ ", executions=" + wallTime.getCount() + ", totalMillis=" + wallTime.getSum() / 1000000 
+				+ ", meanMillis=" + String.format("%.3f", wallTime.getMean() / 1000000) 
+				+ ", p99Millis=" + String.format("%.3f", wallTime.getValueAtPercentile(99) / 1000000d) 
+				+ ", maxMillis=" + String.format("%.3f", wallTime.getMax() / 1000000d) 
+				+ ", results=" + resultCount.getSum() + ", slow=" + getSlowCount() + ", failed=" + getFailureCount() 
+				+ ", fingerprint=" + fingerprint + "]";
+	}
+}
@@ -0,0 +1,225 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.service;
+
+/**
+ * The metrics of one request to the {@link DefaultQueryModelService}, as reported to the {@link QueryMetricsListener}s: 
+ * the wall time, CPU time and bytes allocated by the thread of the request in each {@link QueryPhase}, and the 
+ * outcome of the request.
+ * <p>
+ * The CPU time and the allocated bytes are measured only if the JVM supports it for the current thread 
+ * (see java.lang.management.ThreadMXBean), otherwise they are reported as -1.
+ *
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+public final class QueryMetrics {
+
+	/**
+	 * The kinds of requests reporting metrics.
+	 */
+	public static enum Operation {
+		/** executeQuery returning a {@link org.infiniquery.model.view.QueryResultsView} */
+		EXECUTE,
+		/** executeQuery handing the results to a consumer */
+		STREAM,
+		/** countQuery */
+		COUNT,
+		/** compileQuery */
+		COMPILE
+	}
+
+	private final Operation operation;
+
+	private final String entityDisplayName;
+
+	private final String jpql;
+
+	private final String logicalShape;
+
+	private final Boolean planCacheHit;
+
+	private final long resultCount;
+
+	private final long totalWallTimeNanos;
+
+	private final long[] wallTimeNanos;
+
+	private final long[] cpuTimeNanos;
+
+	private final long[] allocatedBytes;
+
+	private final Throwable failure;
+
+	QueryMetrics(Operation operation, String entityDisplayName, String jpql, String logicalShape, Boolean planCacheHit, long resultCount, 
+			long totalWallTimeNanos, long[] wallTimeNanos, long[] cpuTimeNanos, long[] allocatedBytes, Throwable failure) {
+		this.operation = operation;
+		this.entityDisplayName = entityDisplayName;
+		this.jpql = jpql;
+		this.logicalShape = logicalShape;
+		this.planCacheHit = planCacheHit;
+		this.resultCount = resultCount;
+		this.totalWallTimeNanos = totalWallTimeNanos;
+		this.wallTimeNanos = wallTimeNanos;
+		this.cpuTimeNanos = cpuTimeNanos;
+		this.allocatedBytes = allocatedBytes;
+		this.failure = failure;
+	}
+
+	/**
+	 * 
+	 * @return the kind of the request
+	 */
+	public Operation getOperation() {
+		return operation;
+	}
+
+	/**
+	 * 
+	 * @return the display name of the requested entity, or null if the request failed before resolving it
+	 */
+	public String getEntityDisplayName() {
+		return entityDisplayName;
+	}
+
+	/**
+	 * 
+	 * @return the compiled JPQL statement, with placeholders for the values, or null if the request failed before compiling it
+	 */
+	public String getJpql() {
+		return jpql;
+	}
+
+	/**
+	 * 
+	 * @return the shape of the logical query, as seen in the UI but without the values of the attributes 
+	 * (e.g. "find pets having age greater than ?"), or null if the request failed before compiling it
+	 */
+	public String getLogicalShape() {
+		return logicalShape;
+	}
+
+	/**
+	 * 
+	 * @return true if the compiled query was found in the plan cache, false if it was compiled, 
+	 * or null if the plan cache is disabled or the request failed before the compilation
+	 */
+	public Boolean getPlanCacheHit() {
+		return planCacheHit;
+	}
+
+	/**
+	 * 
+	 * @return the number of results: the results mapped by executeQuery, or the results counted by countQuery
+	 */
+	public long getResultCount() {
+		return resultCount;
+	}
+
+	/**
+	 * 
+	 * @return the wall time of the whole request, in nanoseconds
+	 */
+	public long getTotalWallTimeNanos() {
+		return totalWallTimeNanos;
+	}
+
+	/**
+	 * 
+	 * @return the wall time of the phases of the request, in nanoseconds: the total wall time, 
+	 * less the time spent by the consumer of the streamed results
+	 */
+	public long getPhasesWallTimeNanos() {
+		long phasesWallTimeNanos = 0;
+		for(long phaseWallTimeNanos : wallTimeNanos) {
+			phasesWallTimeNanos += phaseWallTimeNanos;
+		}
+		return phasesWallTimeNanos;
+	}
+
+	/**
+	 * 
+	 * @param phase a phase of the request
+	 * @return the wall time spent in the given phase, in nanoseconds
+	 */
+	public long getWallTimeNanos(QueryPhase phase) {
+		return wallTimeNanos[phase.ordinal()];
+	}
+
+	/**
+	 * 
+	 * @param phase a phase of the request
+	 * @return the CPU time spent by the thread of the request in the given phase, in nanoseconds, or -1 if not measured
+	 */
+	public long getCpuTimeNanos(QueryPhase phase) {
+		return cpuTimeNanos[phase.ordinal()];
+	}
+
+	/**
+	 * 
+	 * @param phase a phase of the request
+	 * @return the bytes allocated by the thread of the request in the given phase, or -1 if not measured
+	 */
+	public long getAllocatedBytes(QueryPhase phase) {
+		return allocatedBytes[phase.ordinal()];
+	}
+
+	/**
+	 * 
+	 * @return the exception the request failed with, or null if it succeeded
+	 */
+	public Throwable getFailure() {
+		return failure;
+	}
+
+	/**
+	 * 
+	 * @return true if the request succeeded
+	 */
+	public boolean isSucceeded() {
+		return failure == null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("QueryMetrics [operation=").append(operation)
+				.append(", entityDisplayName=").append(entityDisplayName)
+				.append(", planCacheHit=").append(planCacheHit)
+				.append(", resultCount=").append(resultCount)
+				.append(", totalWallTimeNanos=").append(totalWallTimeNanos);
+		for(QueryPhase phase : QueryPhase.values()) {
+			builder.append(", ").append(phase).append("=[wall=").append(getWallTimeNanos(phase))
+					.append(", cpu=").append(getCpuTimeNanos(phase))
+					.append(", allocated=").append(getAllocatedBytes(phase)).append(']');
+		}
+		return builder.append(", succeeded=").append(isSucceeded()).append(']').toString();
+	}
+}
@@ -0,0 +1,185 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.service;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative values (e.g. durations in nanoseconds), to be updated concurrently at a low cost.
+ * <p>
+ * The values are counted in log-linear buckets: the values lower than 4 are counted exactly, and each power of two 
+ * above is split into 4 buckets, so the percentiles are reported with a relative error under 25%. 
+ * Every bucket is a striped counter ({@link LongAdder}), so the threads recording values do not contend. 
+ * The readings are not atomic: while values are being recorded, they may reflect some of them, but not others.
+ *
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+public final class QueryMetricsHistogram {
+
+	private static final int SUB_BUCKET_BITS = 2;
+
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+	private static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+	private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+
+	private final LongAdder count = new LongAdder();
+
+	private final LongAdder sum = new LongAdder();
+
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	public QueryMetricsHistogram() {
+		for(int i = 0; i < BUCKET_COUNT; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Record a value.
+	 * @param value the value to record; negative values are recorded as 0
+	 */
+	public void record(long value) {
+		if(value < 0) {
+			value = 0;
+		}
+		buckets[bucketOf(value)].increment();
+		count.increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	static int bucketOf(long value) {
+		if(value < SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+		int magnitude = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+		return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+	}
+
+	/**
+	 * 
+	 * @return the highest value counted by the given bucket
+	 */
+	static long upperBoundOf(int bucket) {
+		if(bucket < SUB_BUCKET_COUNT) {
+			return bucket;
+		}
+		int magnitude = bucket / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+		long lowerBound = (long) (SUB_BUCKET_COUNT + bucket % SUB_BUCKET_COUNT) << (magnitude - SUB_BUCKET_BITS);
+		return lowerBound + (1L << (magnitude - SUB_BUCKET_BITS)) - 1;
+	}
+
+	/**
+	 * 
+	 * @return the number of values recorded
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * 
+	 * @return the sum of the values recorded
+	 */
+	public long getSum() {
+		return sum.sum();
+	}
+
+	/**
+	 * 
+	 * @return the highest value recorded, or 0 if none was recorded
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * 
+	 * @return the mean of the values recorded, or 0 if none was recorded
+	 */
+	public double getMean() {
+		long currentCount = count.sum();
+		return currentCount == 0 ? 0 : (double) sum.sum() / currentCount;
+	}
+
+	/**
+	 * 
+	 * @param percentile the percentile, between 0 and 100 (e.g. 99.9)
+	 * @return the value under which the given percentage of the recorded values fall (the upper bound of its bucket, 
+	 * not more than the highest value recorded), or 0 if none was recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if(percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("The percentile must be between 0 and 100: " + percentile);
+		}
+		long[] counts = new long[BUCKET_COUNT];
+		long total = 0;
+		for(int i = 0; i < BUCKET_COUNT; i++) {
+			counts[i] = buckets[i].sum();
+			total += counts[i];
+		}
+		if(total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long cumulatedCount = 0;
+		for(int i = 0; i < BUCKET_COUNT; i++) {
+			cumulatedCount += counts[i];
+			if(cumulatedCount >= rank) {
+				return Math.min(upperBoundOf(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * Forget all the values recorded.
+	 */
+	public void reset() {
+		for(LongAdder bucket : buckets) {
+			bucket.reset();
+		}
+		count.reset();
+		sum.reset();
+		max.reset();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "QueryMetricsHistogram [count=" + getCount() + ", mean=" + getMean() + ", p50=" + getValueAtPercentile(50) 
+				+ ", p99=" + getValueAtPercentile(99) + ", p999=" + getValueAtPercentile(99.9) + ", max=" + getMax() + "]";
+	}
+}
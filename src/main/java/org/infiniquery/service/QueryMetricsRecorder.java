@@ -0,0 +1,252 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.service;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.List;
+
+import org.infiniquery.model.LogicalQueryItem;
+
+/**
+ * Records the metrics of one request to the {@link DefaultQueryModelService}, on the thread running it, and reports 
+ * them to the {@link QueryMetricsListener}s when the request ends.
+ * <p>
+ * The request moves from one {@link QueryPhase} to another through {@link #enterPhase(QueryPhase)}, which reads 
+ * the clock, the CPU time and the allocated bytes of the current thread once, closing the previous phase and 
+ * opening the next one. Within the loop over the rows read, the phases are switched through {@link #switchPhase(QueryPhase)}, 
+ * which reads the clock only: the CPU time and the bytes allocated between two calls to {@link #enterPhase(QueryPhase)} 
+ * are then shared among the phases in proportion to their wall time. If no listener is registered, the requests get the {@link #DISABLED} recorder, 
+ * which records nothing.
+ *
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+final class QueryMetricsRecorder {
+
+	private static final QueryPhase[] PHASES = QueryPhase.values();
+
+	private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+	private static final boolean CPU_TIME_MEASURED = isCpuTimeMeasured();
+
+	private static final boolean ALLOCATED_BYTES_MEASURED = AllocatedBytesProbe.isMeasured();
+
+	/** The recorder of the requests when no listener is registered (created after the constants its constructor reads) */
+	static final QueryMetricsRecorder DISABLED = new QueryMetricsRecorder(null, null);
+
+	private final QueryMetrics.Operation operation;
+
+	private final List<QueryMetricsListener> listeners;
+
+	private final long startNanos;
+
+	private final long[] wallTimeNanos;
+
+	private final long[] cpuTimeNanos;
+
+	private final long[] allocatedBytes;
+
+	private QueryPhase currentPhase;
+
+	private long phaseStartNanos;
+
+	private long phaseStartCpuTimeNanos;
+
+	private long phaseStartAllocatedBytes;
+
+	/** The wall time of each phase since the CPU time and the allocated bytes were last read (the last slot is outside of any phase) */
+	private final long[] unsampledWallTimeNanos;
+
+	private String entityDisplayName;
+
+	private String jpql;
+
+	private LogicalQueryItem[] logicalDimension;
+
+	private Boolean planCacheHit;
+
+	private long resultCount;
+
+	private QueryMetricsRecorder(QueryMetrics.Operation operation, List<QueryMetricsListener> listeners) {
+		this.operation = operation;
+		this.listeners = listeners;
+		this.startNanos = listeners != null ? System.nanoTime() : 0;
+		this.phaseStartNanos = startNanos;
+		this.wallTimeNanos = new long[PHASES.length];
+		this.cpuTimeNanos = new long[PHASES.length];
+		this.allocatedBytes = new long[PHASES.length];
+		this.unsampledWallTimeNanos = new long[PHASES.length + 1];
+		if(!CPU_TIME_MEASURED) {
+			Arrays.fill(cpuTimeNanos, -1);
+		}
+		if(!ALLOCATED_BYTES_MEASURED) {
+			Arrays.fill(allocatedBytes, -1);
+		}
+	}
+
+	/**
+	 * Start recording a request.
+	 * @param operation the kind of the request
+	 * @param listeners the listeners to report the metrics to
+	 * @return a new recorder, or {@link #DISABLED} if there is no listener
+	 */
+	static QueryMetricsRecorder start(QueryMetrics.Operation operation, List<QueryMetricsListener> listeners) {
+		return listeners.isEmpty() ? DISABLED : new QueryMetricsRecorder(operation, listeners);
+	}
+
+	/**
+	 * 
+	 * @return true if this recorder records the request
+	 */
+	boolean isEnabled() {
+		return listeners != null;
+	}
+
+	/**
+	 * Close the current phase, if any, and open the given one.
+	 * @param phase the phase the request enters, or null if the time from now on is not to be recorded
+	 */
+	void enterPhase(QueryPhase phase) {
+		if(listeners == null || phase == currentPhase) {
+			return;
+		}
+		closePhase(System.nanoTime(), phase);
+		long cpuTime = CPU_TIME_MEASURED ? THREAD_MX_BEAN.getCurrentThreadCpuTime() : 0;
+		long allocated = ALLOCATED_BYTES_MEASURED ? AllocatedBytesProbe.currentThreadAllocatedBytes() : 0;
+		long unsampledWallTime = 0;
+		for(long phaseWallTime : unsampledWallTimeNanos) {
+			unsampledWallTime += phaseWallTime;
+		}
+		if(unsampledWallTime > 0) {
+			for(int i = 0; i < PHASES.length; i++) {
+				double share = (double) unsampledWallTimeNanos[i] / unsampledWallTime;
+				if(CPU_TIME_MEASURED) {
+					cpuTimeNanos[i] += Math.round((cpuTime - phaseStartCpuTimeNanos) * share);
+				}
+				if(ALLOCATED_BYTES_MEASURED) {
+					allocatedBytes[i] += Math.round((allocated - phaseStartAllocatedBytes) * share);
+				}
+			}
+			Arrays.fill(unsampledWallTimeNanos, 0);
+		}
+		phaseStartCpuTimeNanos = cpuTime;
+		phaseStartAllocatedBytes = allocated;
+	}
+
+	/**
+	 * Close the current phase, if any, and open the given one, reading the clock only. Meant for the phases 
+	 * switched for every row, where reading the CPU time and the allocated bytes would cost more than the work measured.
+	 * @param phase the phase the request enters, or null if the time from now on is not to be recorded
+	 */
+	void switchPhase(QueryPhase phase) {
+		if(listeners == null || phase == currentPhase) {
+			return;
+		}
+		closePhase(System.nanoTime(), phase);
+	}
+
+	private void closePhase(long now, QueryPhase nextPhase) {
+		if(currentPhase != null) {
+			wallTimeNanos[currentPhase.ordinal()] += now - phaseStartNanos;
+		}
+		unsampledWallTimeNanos[currentPhase != null ? currentPhase.ordinal() : PHASES.length] += now - phaseStartNanos;
+		currentPhase = nextPhase;
+		phaseStartNanos = now;
+	}
+
+	void setEntityDisplayName(String entityDisplayName) {
+		this.entityDisplayName = entityDisplayName;
+	}
+
+	void setJpql(String jpql) {
+		this.jpql = jpql;
+	}
+
+	void setLogicalDimension(LogicalQueryItem[] logicalDimension) {
+		this.logicalDimension = logicalDimension;
+	}
+
+	void setPlanCacheHit(boolean planCacheHit) {
+		this.planCacheHit = planCacheHit;
+	}
+
+	void addResults(long count) {
+		this.resultCount += count;
+	}
+
+	/**
+	 * End the request, reporting its metrics to the listeners.
+	 * @param failure the exception the request failed with, or null if it succeeded
+	 */
+	void finish(Throwable failure) {
+		if(listeners == null) {
+			return;
+		}
+		enterPhase(null);
+		String logicalShape = logicalDimension != null ? QueryShape.describe(logicalDimension) : null;
+		QueryMetrics metrics = new QueryMetrics(operation, entityDisplayName, jpql, logicalShape, planCacheHit, resultCount, 
+				System.nanoTime() - startNanos, wallTimeNanos, cpuTimeNanos, allocatedBytes, failure);
+		for(QueryMetricsListener listener : listeners) {
+			try {
+				listener.queryCompleted(metrics);
+			} catch (RuntimeException e) {
+				//the metrics never affect the request
+			}
+		}
+	}
+
+	private static boolean isCpuTimeMeasured() {
+		try {
+			return THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported() && THREAD_MX_BEAN.isThreadCpuTimeEnabled();
+		} catch (UnsupportedOperationException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Reads the bytes allocated by the current thread through the HotSpot extension of the ThreadMXBean, 
+	 * which is linked only when first used, thus only if it is available.
+	 */
+	private static final class AllocatedBytesProbe {
+
+		private static boolean isMeasured() {
+			try {
+				return THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean 
+						&& ((com.sun.management.ThreadMXBean) THREAD_MX_BEAN).isThreadAllocatedMemorySupported()
+						&& ((com.sun.management.ThreadMXBean) THREAD_MX_BEAN).isThreadAllocatedMemoryEnabled();
+			} catch (LinkageError | UnsupportedOperationException e) {
+				return false;
+			}
+		}
+
+		private static long currentThreadAllocatedBytes() {
+			return ((com.sun.management.ThreadMXBean) THREAD_MX_BEAN).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+	}
+}
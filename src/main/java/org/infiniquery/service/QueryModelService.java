@@ -30,6 +30,8 @@ import org.infiniquery.model.ExecutableQuery;
 import org.infiniquery.model.view.*;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 /**
  * Service empowering the interaction of above layers (e.g. frontend or MVC controllers) with the infiniquery model.
@@ -115,6 +117,67 @@ public interface QueryModelService {
      */
     public QueryResultsView executeQuery(ExecutableQuery executableQuery);
 
+    /**
+     * Execute a query against the database, retrieving only one page of its results. 
+     * The results are ordered by the identifier of the requested entity, so consecutive pages are stable.
+     * If a results limit is configured (for the requested entity, or globally), it caps the size of the page.
+     * <p>
+     * The default implementation slices the page out of the results of {@link #executeQuery(ExecutableQuery)}, in their order, 
+     * so implementations should override it to read only the requested page from the database.
+     * @param executableQuery an instance of {@link org.infiniquery.model.ExecutableQuery} which needs to have filled in (at least) the logical dimension.
+     * @param offset the position of the first result to retrieve, starting with 0
+     * @param limit the maximum number of results to retrieve; a value lower than or equal to zero means only the configured results limit (if any) applies
+     * @return an instance of {@link org.infiniquery.model.view.QueryResultsView} containing the requested page of results, along with the page metadata.
+     */
+    public default QueryResultsView executeQuery(ExecutableQuery executableQuery, int offset, int limit) {
+        if(offset < 0) {
+            throw new IllegalArgumentException("The offset cannot be negative: " + offset);
+        }
+        QueryResultsView results = executeQuery(executableQuery);
+        List<QueryResultItem> items = results.getItems();
+        int fromIndex = Math.min(offset, items.size());
+        int toIndex = limit <= 0 ? items.size() : (int) Math.min((long) fromIndex + limit, items.size());
+        QueryResultsView page = new QueryResultsView(toIndex - fromIndex);
+        page.setEntityName(results.getEntityName());
+        page.getItems().addAll(items.subList(fromIndex, toIndex));
+        page.setOffset(offset);
+        page.setLimit(Math.max(limit, 0));
+        page.setMoreResultsAvailable(toIndex < items.size() || results.isMoreResultsAvailable());
+        return page;
+    }
+
+    /**
+     * Execute a query against the database, handing the results to the given consumer one at a time, as they are read 
+     * from the database and mapped. Unlike {@link #executeQuery(ExecutableQuery)}, the results are not collected in memory,
+     * so this is the method to use for large results (e.g. exports).
+     * <p>
+     * The default implementation collects the results through {@link #executeQuery(ExecutableQuery)} and hands them 
+     * to the consumer afterwards, so implementations should override it to actually stream them.
+     * @param executableQuery an instance of {@link org.infiniquery.model.ExecutableQuery} which needs to have filled in (at least) the logical dimension.
+     * @param resultItemConsumer the consumer of the query result items
+     */
+    public default void executeQuery(ExecutableQuery executableQuery, Consumer<QueryResultItem> resultItemConsumer) {
+        for(QueryResultItem resultItem : executeQuery(executableQuery).getItems()) {
+            resultItemConsumer.accept(resultItem);
+        }
+    }
+
+    /**
+     * Count the results of a query, without retrieving them (e.g. to preview the size of the results before executing 
+     * or exporting the query). The query is compiled and checked as by {@link #executeQuery(ExecutableQuery)}, including 
+     * the additional filter of the requested entity, but the count is not capped by the configured results limit.
+     * <p>
+     * The default implementation counts the results streamed by {@link #executeQuery(ExecutableQuery, Consumer)}, 
+     * so its count is capped by the results limit; implementations should override it to count in the database.
+     * @param executableQuery an instance of {@link org.infiniquery.model.ExecutableQuery} which needs to have filled in (at least) the logical dimension.
+     * @return the number of distinct instances of the requested entity matching the query
+     */
+    public default long countQuery(ExecutableQuery executableQuery) {
+        long[] count = {0};
+        executeQuery(executableQuery, resultItem -> count[0] ++);
+        return count[0];
+    }
+
     /**
      * Compiles a query and returns it, translated into the query language supported by the underlying persistence layer.
      * 
@@ -123,6 +186,71 @@ public interface QueryModelService {
      */
     public String compileQuery(ExecutableQuery executableQuery);
 
+    /**
+     * Asynchronous variant of {@link #getEntityAttributeOperatorValue(String, String, String)}.
+     * The default implementation runs it on the common fork join pool, and cancelling the future doesn't stop it.
+     * @param entityDisplayName the displayable alias of the entity
+     * @param attributeDisplayName the displayable alias of the attribute
+     * @param operatorDisplayName the displayable alias of the operator
+     * @return the future of the PossibleValuesView bean encapsulating the information to display in UI
+     */
+    public default CompletableFuture<PossibleValuesView> getEntityAttributeOperatorValueAsync(String entityDisplayName, String attributeDisplayName, String operatorDisplayName) {
+        return CompletableFuture.supplyAsync(() -> getEntityAttributeOperatorValue(entityDisplayName, attributeDisplayName, operatorDisplayName));
+    }
+
+    /**
+     * Asynchronous variant of {@link #executeQuery(ExecutableQuery)}.
+     * The default implementation runs it on the common fork join pool, and cancelling the future doesn't stop it.
+     * @param executableQuery an instance of {@link org.infiniquery.model.ExecutableQuery} which needs to have filled in (at least) the logical dimension.
+     * @return the future of the {@link org.infiniquery.model.view.QueryResultsView} containing the results of the query execution.
+     */
+    public default CompletableFuture<QueryResultsView> executeQueryAsync(ExecutableQuery executableQuery) {
+        return CompletableFuture.supplyAsync(() -> executeQuery(executableQuery));
+    }
+
+    /**
+     * Asynchronous variant of {@link #executeQuery(ExecutableQuery, int, int)}.
+     * The default implementation runs it on the common fork join pool, and cancelling the future doesn't stop it.
+     * @param executableQuery an instance of {@link org.infiniquery.model.ExecutableQuery} which needs to have filled in (at least) the logical dimension.
+     * @param offset the position of the first result to retrieve, starting with 0
+     * @param limit the maximum number of results to retrieve; a value lower than or equal to zero means only the configured results limit (if any) applies
+     * @return the future of the {@link org.infiniquery.model.view.QueryResultsView} containing the requested page of results.
+     */
+    public default CompletableFuture<QueryResultsView> executeQueryAsync(ExecutableQuery executableQuery, int offset, int limit) {
+        return CompletableFuture.supplyAsync(() -> executeQuery(executableQuery, offset, limit));
+    }
+
+    /**
+     * Asynchronous variant of {@link #executeQuery(ExecutableQuery, Consumer)}. The consumer is called on the thread running the query.
+     * The default implementation runs it on the common fork join pool, and cancelling the future doesn't stop it.
+     * @param executableQuery an instance of {@link org.infiniquery.model.ExecutableQuery} which needs to have filled in (at least) the logical dimension.
+     * @param resultItemConsumer the consumer of the query result items
+     * @return the future completed when all the results were handed to the consumer
+     */
+    public default CompletableFuture<Void> executeQueryAsync(ExecutableQuery executableQuery, Consumer<QueryResultItem> resultItemConsumer) {
+        return CompletableFuture.runAsync(() -> executeQuery(executableQuery, resultItemConsumer));
+    }
+
+    /**
+     * Asynchronous variant of {@link #countQuery(ExecutableQuery)}.
+     * The default implementation runs it on the common fork join pool, and cancelling the future doesn't stop it.
+     * @param executableQuery an instance of {@link org.infiniquery.model.ExecutableQuery} which needs to have filled in (at least) the logical dimension.
+     * @return the future of the number of distinct instances of the requested entity matching the query
+     */
+    public default CompletableFuture<Long> countQueryAsync(ExecutableQuery executableQuery) {
+        return CompletableFuture.supplyAsync(() -> countQuery(executableQuery));
+    }
+
+    /**
+     * Asynchronous variant of {@link #compileQuery(ExecutableQuery)}.
+     * The default implementation runs it on the common fork join pool, and cancelling the future doesn't stop it.
+     * @param executableQuery an instance of {@link org.infiniquery.model.ExecutableQuery} which needs to have filled in (at least) the logical dimension.
+     * @return the future of the compiled query
+     */
+    public default CompletableFuture<String> compileQueryAsync(ExecutableQuery executableQuery) {
+        return CompletableFuture.supplyAsync(() -> compileQuery(executableQuery));
+    }
+
     /**
      * Register a security service with this query model service.
      * For example, you can register your own implementation of {@link org.infiniquery.service.SecurityService} to tell it how to determine the role of the current logged user.
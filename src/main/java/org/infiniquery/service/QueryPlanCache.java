@@ -0,0 +1,142 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.service;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size bounded cache of {@link CompiledQueryPlan}s, keyed by query shape (see {@link QueryShape}).
+ * The least recently used plans are evicted first.
+ *
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+final class QueryPlanCache {
+
+	private final LongAdder hitCount = new LongAdder();
+
+	private final LongAdder missCount = new LongAdder();
+
+	private final LongAdder evictionCount = new LongAdder();
+
+	private volatile int maximumSize;
+
+	private final LinkedHashMap<String, CompiledQueryPlan> plans = new LinkedHashMap<String, CompiledQueryPlan>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CompiledQueryPlan> eldest) {
+			if(size() > maximumSize) {
+				evictionCount.increment();
+				return true;
+			}
+			return false;
+		}
+	};
+
+	/**
+	 * 
+	 * @param maximumSize the maximum number of plans to keep; 0 disables the cache
+	 */
+	QueryPlanCache(int maximumSize) {
+		setMaximumSize(maximumSize);
+	}
+
+	boolean isEnabled() {
+		return maximumSize > 0;
+	}
+
+	/**
+	 * 
+	 * @param shapeKey the key of a query shape
+	 * @return the plan compiled for the given shape, or null if not cached
+	 */
+	CompiledQueryPlan get(String shapeKey) {
+		CompiledQueryPlan plan;
+		synchronized (plans) {
+			plan = plans.get(shapeKey);
+		}
+		if(plan == null) {
+			missCount.increment();
+		} else {
+			hitCount.increment();
+		}
+		return plan;
+	}
+
+	void put(String shapeKey, CompiledQueryPlan plan) {
+		synchronized (plans) {
+			plans.put(shapeKey, plan);
+		}
+	}
+
+	/**
+	 * Remove the plans of the queries on the given entities.
+	 * @param entityDisplayNames the display names of the entities
+	 */
+	void invalidateEntities(Collection<String> entityDisplayNames) {
+		synchronized (plans) {
+			Iterator<CompiledQueryPlan> planIterator = plans.values().iterator();
+			while(planIterator.hasNext()) {
+				if(entityDisplayNames.contains(planIterator.next().getEntity().getDisplayName())) {
+					planIterator.remove();
+				}
+			}
+		}
+	}
+
+	void invalidateAll() {
+		synchronized (plans) {
+			plans.clear();
+		}
+	}
+
+	void setMaximumSize(int maximumSize) {
+		if(maximumSize < 0) {
+			throw new IllegalArgumentException("The maximum size of the cache cannot be negative: " + maximumSize);
+		}
+		synchronized (plans) {
+			this.maximumSize = maximumSize;
+			while(plans.size() > maximumSize) {
+				plans.remove(plans.keySet().iterator().next());
+				evictionCount.increment();
+			}
+		}
+	}
+
+	CacheStatistics getStatistics() {
+		int size;
+		synchronized (plans) {
+			size = plans.size();
+		}
+		return new CacheStatistics(hitCount.sum(), missCount.sum(), evictionCount.sum(), size);
+	}
+}
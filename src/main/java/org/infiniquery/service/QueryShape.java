@@ -0,0 +1,109 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.service;
+
+import org.infiniquery.model.LogicalQueryItem;
+
+/**
+ * Computes the structural shape of a logical query: all its items, except the values of the entity attributes,
+ * of which only the number of comma separated values is considered. Queries having the same shape compile 
+ * to the same JPQL statement, differing only in the values of their parameters.
+ *
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+final class QueryShape {
+
+	private static final char ITEM_SEPARATOR = '\u001E';
+
+	private static final char TYPE_SEPARATOR = '\u001F';
+
+	private QueryShape() {}
+
+	/**
+	 * 
+	 * @param logicalDimension the logical dimension of a query
+	 * @return a String key identifying the shape of the given logical query
+	 */
+	static String keyOf(LogicalQueryItem[] logicalDimension) {
+		StringBuilder key = new StringBuilder(logicalDimension.length * 16);
+		for(LogicalQueryItem logicalQueryItem : logicalDimension) {
+			key.append(logicalQueryItem.getType()).append(TYPE_SEPARATOR);
+			if(LogicalQueryItem.Type.entityAttributeValue.name().equals(logicalQueryItem.getType())) {
+				key.append(countCommaSeparatedValues(logicalQueryItem.getDisplayValue()));
+			} else {
+				key.append(logicalQueryItem.getDisplayValue());
+			}
+			key.append(ITEM_SEPARATOR);
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Describe the shape of a logical query, for the logs and the reports: its items as seen in the UI, 
+	 * with a placeholder instead of the values of the entity attributes, e.g. "find pets having age greater than ?".
+	 * @param logicalDimension the logical dimension of a query
+	 * @return the description of the shape of the given logical query, without its values
+	 */
+	static String describe(LogicalQueryItem[] logicalDimension) {
+		StringBuilder description = new StringBuilder(logicalDimension.length * 16);
+		for(LogicalQueryItem logicalQueryItem : logicalDimension) {
+			if(description.length() > 0) {
+				description.append(' ');
+			}
+			if(LogicalQueryItem.Type.entityAttributeValue.name().equals(logicalQueryItem.getType())) {
+				int count = countCommaSeparatedValues(logicalQueryItem.getDisplayValue());
+				description.append(count == 1 ? "?" : "(" + count + " values)");
+			} else {
+				description.append(logicalQueryItem.getDisplayValue());
+			}
+		}
+		return description.toString();
+	}
+
+	/**
+	 * Count the values of a comma separated list, the same way String.split(",") does (trailing empty values are not counted).
+	 * @param value the comma separated values
+	 * @return the number of values
+	 */
+	static int countCommaSeparatedValues(String value) {
+		if(value == null || value.isEmpty()) {
+			return 1;
+		}
+		int end = value.length();
+		while(end > 0 && value.charAt(end - 1) == ',') {
+			end --;
+		}
+		int count = end == 0 ? 0 : 1;
+		for(int i = 0; i < end; i++) {
+			if(value.charAt(i) == ',') {
+				count ++;
+			}
+		}
+		return count;
+	}
+}
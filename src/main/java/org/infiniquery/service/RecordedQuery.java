@@ -0,0 +1,272 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.infiniquery.model.ExecutableQuery;
+import org.infiniquery.model.LogicalQueryItem;
+
+/**
+ * A request to the {@link QueryModelService}, as recorded by the {@link WorkloadRecorder}: the kind of the request, 
+ * the logical dimension of its query, the roles of the user who sent it, and the page requested, if any.
+ * <p>
+ * Each recorded query is one line of the workload file: tab separated fields, in which the backslashes, tabs, 
+ * line breaks and commas are escaped by a backslash.
+ * <pre>
+ * operation	offset	limit	role,role	type=displayValue	type=displayValue ...
+ * </pre>
+ *
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+public final class RecordedQuery {
+
+	private static final char FIELD_SEPARATOR = '\t';
+
+	private static final char ROLE_SEPARATOR = ',';
+
+	private static final char ITEM_TYPE_SEPARATOR = '=';
+
+	private static final int FIRST_ITEM_FIELD = 4;
+
+	private final QueryMetrics.Operation operation;
+
+	private final int offset;
+
+	private final int limit;
+
+	private final Set<String> roles;
+
+	private final LogicalQueryItem[] logicalDimension;
+
+	/**
+	 * 
+	 * @param operation the kind of the request: EXECUTE, STREAM or COUNT
+	 * @param logicalDimension the logical dimension of the query
+	 * @param roles the roles of the user who sent the request
+	 * @param offset the position of the first result requested, or 0
+	 * @param limit the maximum number of results requested, or 0 if not limited by the request
+	 */
+	public RecordedQuery(QueryMetrics.Operation operation, LogicalQueryItem[] logicalDimension, Set<String> roles, int offset, int limit) {
+		if(operation == null || operation == QueryMetrics.Operation.COMPILE) {
+			throw new IllegalArgumentException("Only the EXECUTE, STREAM and COUNT requests can be recorded: " + operation);
+		}
+		if(logicalDimension == null) {
+			throw new IllegalArgumentException("The logical dimension of the query cannot be null.");
+		}
+		this.operation = operation;
+		this.offset = offset;
+		this.limit = limit;
+		this.roles = roles == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(new LinkedHashSet<>(roles));
+		//copied, since the caller keeps its own items
+		this.logicalDimension = new LogicalQueryItem[logicalDimension.length];
+		for(int i = 0; i < logicalDimension.length; i++) {
+			this.logicalDimension[i] = copyOf(logicalDimension[i].getType(), logicalDimension[i].getDisplayValue());
+		}
+	}
+
+	public QueryMetrics.Operation getOperation() {
+		return operation;
+	}
+
+	public int getOffset() {
+		return offset;
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * 
+	 * @return the roles of the user who sent the request
+	 */
+	public Set<String> getRoles() {
+		return roles;
+	}
+
+	/**
+	 * 
+	 * @return the shape of the query, without its values (e.g. "find pets having age greater than ?")
+	 */
+	public String getLogicalShape() {
+		return QueryShape.describe(logicalDimension);
+	}
+
+	/**
+	 * 
+	 * @return a new {@link ExecutableQuery}, with a copy of the recorded logical dimension, ready to be run again
+	 */
+	public ExecutableQuery toExecutableQuery() {
+		LogicalQueryItem[] items = new LogicalQueryItem[logicalDimension.length];
+		for(int i = 0; i < logicalDimension.length; i++) {
+			items[i] = copyOf(logicalDimension[i].getType(), logicalDimension[i].getDisplayValue());
+		}
+		ExecutableQuery executableQuery = new ExecutableQuery();
+		executableQuery.setLogicalDimension(items);
+		return executableQuery;
+	}
+
+	/**
+	 * 
+	 * @return the line of the workload file representing this recorded query, without the line break
+	 */
+	String format() {
+		StringBuilder line = new StringBuilder(logicalDimension.length * 24);
+		line.append(operation).append(FIELD_SEPARATOR).append(offset).append(FIELD_SEPARATOR).append(limit).append(FIELD_SEPARATOR);
+		boolean firstRole = true;
+		for(String role : roles) {
+			if(!firstRole) {
+				line.append(ROLE_SEPARATOR);
+			}
+			escape(role, line);
+			firstRole = false;
+		}
+		for(LogicalQueryItem item : logicalDimension) {
+			line.append(FIELD_SEPARATOR);
+			escape(item.getType(), line);
+			line.append(ITEM_TYPE_SEPARATOR);
+			escape(item.getDisplayValue(), line);
+		}
+		return line.toString();
+	}
+
+	/**
+	 * 
+	 * @param line a line of the workload file, without the line break
+	 * @return the recorded query read from the given line
+	 */
+	static RecordedQuery parse(String line) {
+		List<String> fields = split(line, FIELD_SEPARATOR);
+		if(fields.size() < FIRST_ITEM_FIELD) {
+			throw new IllegalArgumentException("Invalid recorded query, with only " + fields.size() + " fields: " + line);
+		}
+		try {
+			QueryMetrics.Operation operation = QueryMetrics.Operation.valueOf(fields.get(0));
+			int offset = Integer.parseInt(fields.get(1));
+			int limit = Integer.parseInt(fields.get(2));
+			Set<String> roles = new LinkedHashSet<>();
+			if(!fields.get(3).isEmpty()) {
+				for(String role : split(fields.get(3), ROLE_SEPARATOR)) {
+					roles.add(unescape(role));
+				}
+			}
+			LogicalQueryItem[] logicalDimension = new LogicalQueryItem[fields.size() - FIRST_ITEM_FIELD];
+			for(int i = FIRST_ITEM_FIELD; i < fields.size(); i++) {
+				String field = fields.get(i);
+				int typeEnd = field.indexOf(ITEM_TYPE_SEPARATOR);
+				if(typeEnd < 0) {
+					throw new IllegalArgumentException("Invalid logical query item: " + field);
+				}
+				logicalDimension[i - FIRST_ITEM_FIELD] = copyOf(unescape(field.substring(0, typeEnd)), unescape(field.substring(typeEnd + 1)));
+			}
+			return new RecordedQuery(operation, logicalDimension, roles, offset, limit);
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Invalid recorded query: " + line, e);
+		}
+	}
+
+	private static LogicalQueryItem copyOf(String type, String displayValue) {
+		LogicalQueryItem item = new LogicalQueryItem();
+		item.setType(type);
+		item.setDisplayValue(displayValue);
+		return item;
+	}
+
+	private static void escape(String value, StringBuilder out) {
+		if(value == null) {
+			return;
+		}
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '\\': out.append("\\\\"); break;
+			case '\t': out.append("\\t"); break;
+			case '\n': out.append("\\n"); break;
+			case '\r': out.append("\\r"); break;
+			case ROLE_SEPARATOR: out.append("\\,"); break;
+			default: out.append(c);
+			}
+		}
+	}
+
+	private static String unescape(String value) {
+		if(value.indexOf('\\') < 0) {
+			return value;
+		}
+		StringBuilder out = new StringBuilder(value.length());
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if(c == '\\' && i + 1 < value.length()) {
+				char escaped = value.charAt(++ i);
+				switch (escaped) {
+				case 't': out.append('\t'); break;
+				case 'n': out.append('\n'); break;
+				case 'r': out.append('\r'); break;
+				default: out.append(escaped);
+				}
+			} else {
+				out.append(c);
+			}
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Split a value on the given separator, except where the separator is escaped; the parts are left escaped.
+	 */
+	private static List<String> split(String value, char separator) {
+		List<String> parts = new ArrayList<>();
+		int start = 0;
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if(c == '\\') {
+				i ++;
+			} else if(c == separator) {
+				parts.add(value.substring(start, i));
+				start = i + 1;
+			}
+		}
+		parts.add(value.substring(start));
+		return parts;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "RecordedQuery [operation=" + operation + ", logicalShape=" + getLogicalShape() + ", roles=" + roles 
+				+ ", offset=" + offset + ", limit=" + limit + "]";
+	}
+}
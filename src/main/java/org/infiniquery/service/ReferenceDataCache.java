@@ -0,0 +1,276 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.service;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.infiniquery.model.EntityAttribute;
+
+/**
+ * Size bounded cache of reference data (the possible values of the entity attributes, as read by their possibleValuesQuery), 
+ * keyed by query. Each entry expires after its own time to live. The least recently used entries are evicted first.
+ * <p>
+ * Concurrent misses of the same key are loaded only once, the other callers waiting for that single load.
+ * An entry read when more than three quarters of its time to live have elapsed is refreshed ahead, in the background,
+ * while the callers keep getting the current value, so that frequently read entries never expire in front of a user.
+ *
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+final class ReferenceDataCache {
+
+	/** The separator of the query and of the label attribute qualifying it, in the keys of the entries */
+	private static final String KEY_SEPARATOR = "\n#";
+
+	private final LongAdder hitCount = new LongAdder();
+
+	private final LongAdder missCount = new LongAdder();
+
+	private final LongAdder evictionCount = new LongAdder();
+
+	private volatile int maximumSize;
+
+	private final LinkedHashMap<String, CachedEntry> entries = new LinkedHashMap<String, CachedEntry>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CachedEntry> eldest) {
+			if(size() > maximumSize) {
+				evictionCount.increment();
+				return true;
+			}
+			return false;
+		}
+	};
+
+	/** The loads in progress, by key, for the concurrent misses of a key to wait for the same load */
+	private final ConcurrentHashMap<String, CompletableFuture<String[]>> loads = new ConcurrentHashMap<>();
+
+	private volatile Executor refreshExecutor;
+
+	/**
+	 * 
+	 * @param maximumSize the maximum number of entries to keep; 0 disables the cache
+	 */
+	ReferenceDataCache(int maximumSize) {
+		setMaximumSize(maximumSize);
+	}
+
+	/**
+	 * 
+	 * @param attribute an attribute having a possibleValuesQuery
+	 * @return the key of the reference data of the attribute: its query, qualified by its label attribute, if any, 
+	 * as the label attribute changes the labels prepared from the query results
+	 */
+	static String keyOf(EntityAttribute attribute) {
+		return attribute.getPossibleValueLabelAttribute() == null ? attribute.getPossibleValuesQuery() 
+				: attribute.getPossibleValuesQuery() + KEY_SEPARATOR + attribute.getPossibleValueLabelAttribute();
+	}
+
+	/**
+	 * Get the reference data of the given key, loading it if not cached or expired.
+	 * @param key the key of the reference data (its query)
+	 * @param timeToLiveMillis the time to live of the entry, if loaded; 0 to load it without caching it
+	 * @param loader the loader of the reference data
+	 * @return the reference data (a copy of the cached array, so that callers cannot change the cached entry)
+	 */
+	String[] get(String key, long timeToLiveMillis, Supplier<String[]> loader) {
+		if(timeToLiveMillis <= 0 || maximumSize == 0) {
+			missCount.increment();
+			return loader.get();
+		}
+		CachedEntry entry;
+		synchronized (entries) {
+			entry = entries.get(key);
+		}
+		long now = System.nanoTime();
+		if(entry != null && now - entry.expiresAt < 0) {
+			hitCount.increment();
+			if(now - entry.refreshAt >= 0 && entry.refreshing.compareAndSet(false, true)) {
+				refreshAhead(key, timeToLiveMillis, loader, entry);
+			}
+			return entry.value.clone();
+		}
+		missCount.increment();
+		return load(key, timeToLiveMillis, loader).clone();
+	}
+
+	private String[] load(String key, long timeToLiveMillis, Supplier<String[]> loader) {
+		CompletableFuture<String[]> load = new CompletableFuture<>();
+		CompletableFuture<String[]> loadInProgress = loads.putIfAbsent(key, load);
+		if(loadInProgress != null) {
+			try {
+				return loadInProgress.join();
+			} catch (CompletionException e) {
+				throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+			}
+		}
+		try {
+			String[] value = loader.get();
+			put(key, value, timeToLiveMillis);
+			load.complete(value);
+			return value;
+		} catch (RuntimeException | Error e) {
+			load.completeExceptionally(e);
+			throw e;
+		} finally {
+			loads.remove(key, load);
+		}
+	}
+
+	private void refreshAhead(final String key, final long timeToLiveMillis, final Supplier<String[]> loader, final CachedEntry entry) {
+		try {
+			getRefreshExecutor().execute(() -> {
+				try {
+					load(key, timeToLiveMillis, loader);
+				} catch (RuntimeException e) {
+					//the current value is kept until it expires; the next read will try again
+				} finally {
+					entry.refreshing.set(false);
+				}
+			});
+		} catch (RuntimeException e) {
+			entry.refreshing.set(false);
+		}
+	}
+
+	private void put(String key, String[] value, long timeToLiveMillis) {
+		synchronized (entries) {
+			entries.put(key, new CachedEntry(value, timeToLiveMillis));
+		}
+	}
+
+	/**
+	 * Remove the entries of the given query, whatever their label attribute.
+	 * @param query the query to invalidate
+	 */
+	void invalidateQuery(String query) {
+		synchronized (entries) {
+			Iterator<String> keys = entries.keySet().iterator();
+			while(keys.hasNext()) {
+				String crtKey = keys.next();
+				if(crtKey.equals(query) || crtKey.startsWith(query + KEY_SEPARATOR)) {
+					keys.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Remove the entries of the given keys.
+	 * @param keys the keys to invalidate, as computed by {@link #keyOf(EntityAttribute)}
+	 */
+	void invalidateKeys(Collection<String> keys) {
+		synchronized (entries) {
+			entries.keySet().removeAll(keys);
+		}
+	}
+
+	void invalidateAll() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	void setMaximumSize(int maximumSize) {
+		if(maximumSize < 0) {
+			throw new IllegalArgumentException("The maximum size of the cache cannot be negative: " + maximumSize);
+		}
+		synchronized (entries) {
+			this.maximumSize = maximumSize;
+			while(entries.size() > maximumSize) {
+				entries.remove(entries.keySet().iterator().next());
+				evictionCount.increment();
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @param refreshExecutor the executor to refresh the entries ahead of their expiration on
+	 */
+	void setRefreshExecutor(Executor refreshExecutor) {
+		this.refreshExecutor = refreshExecutor;
+	}
+
+	private Executor getRefreshExecutor() {
+		Executor executor = refreshExecutor;
+		if(executor == null) {
+			synchronized (this) {
+				executor = refreshExecutor;
+				if(executor == null) {
+					ExecutorService singleThreadExecutor = Executors.newSingleThreadExecutor(runnable -> {
+						Thread thread = new Thread(runnable, "infiniquery-reference-data-refresh");
+						thread.setDaemon(true);
+						return thread;
+					});
+					refreshExecutor = executor = singleThreadExecutor;
+				}
+			}
+		}
+		return executor;
+	}
+
+	CacheStatistics getStatistics() {
+		int size;
+		synchronized (entries) {
+			size = entries.size();
+		}
+		return new CacheStatistics(hitCount.sum(), missCount.sum(), evictionCount.sum(), size);
+	}
+
+	private static final class CachedEntry {
+
+		final String[] value;
+
+		final long expiresAt;
+
+		final long refreshAt;
+
+		final AtomicBoolean refreshing = new AtomicBoolean();
+
+		CachedEntry(String[] value, long timeToLiveMillis) {
+			long now = System.nanoTime();
+			long timeToLiveNanos = timeToLiveMillis * 1000000L;
+			this.value = value;
+			this.expiresAt = now + timeToLiveNanos;
+			this.refreshAt = now + timeToLiveNanos / 4 * 3;
+		}
+	}
+}
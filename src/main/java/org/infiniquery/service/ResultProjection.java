@@ -0,0 +1,305 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.infiniquery.model.EntityAttribute;
+import org.infiniquery.model.JpaEntity;
+import org.infiniquery.model.view.QueryResultItem;
+import org.infiniquery.model.view.ResultColumns;
+import org.infiniquery.util.PropertyPathNavigator;
+
+/**
+ * The plan of mapping the results of one query execution: the attributes visible in the results for the current user, 
+ * in the order of their output slots. It is computed once per execution, so the mapping of every row only walks it.
+ * <p>
+ * In tuple mode, the query selects only the id of the requested entity and the paths of the visible attributes 
+ * (joining the to-one relationships leading to their labels), and the rows read are tuples of those columns,
+ * instead of managed entity instances.
+ * <p>
+ * If the projection has a {@link FetchPlan} with secondary queries, the rows are read in batches, and each batch 
+ * is to be prepared by {@link #prepareBatch(List, DatabaseAccessService)} before its rows are mapped. 
+ * Thus, a projection is meant to be used by one query execution, on one thread.
+ *
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+final class ResultProjection {
+
+	private final JpaEntity entity;
+
+	private final EntityAttribute[] attributes;
+
+	private final String[] columnNames;
+
+	private final Class<?>[] columnTypes;
+
+	/** The SELECT clause of the tuple query, or null if this projection reads entity instances */
+	private final String tupleSelectClause;
+
+	/** The joins leading to the labels selected by the tuple query */
+	private final String tupleJoins;
+
+	/** The position, within the tuples, of the column of each output slot (-1 for the slots loaded by label queries) */
+	private final int[] tupleColumns;
+
+	/** The associations to load along with the results, or null if none are to be loaded */
+	private final FetchPlan fetchPlan;
+
+	/** The labels read by the secondary label queries for the current batch, by output slot and key of the result */
+	private List<Map<Object, List<Object>>> batchLabels;
+
+	/**
+	 * 
+	 * @param entity the entity requested by the query
+	 * @param attributes the attributes visible in the results, in the order of their output slots
+	 * @param tupleMode true to read tuples of the visible attributes, if they can all be selected as columns
+	 * @param fetchAssociations true to load, along with the entity instances, the relationships navigated by the visible attributes
+	 */
+	ResultProjection(JpaEntity entity, List<EntityAttribute> attributes, boolean tupleMode, boolean fetchAssociations) {
+		this.entity = entity;
+		this.attributes = attributes.toArray(new EntityAttribute[attributes.size()]);
+		this.columnNames = new String[this.attributes.length];
+		this.columnTypes = new Class<?>[this.attributes.length];
+		for(int i = 0; i < this.attributes.length; i++) {
+			columnNames[i] = this.attributes[i].getDisplayName();
+			columnTypes[i] = resolveColumnType(this.attributes[i]);
+		}
+		if(tupleMode && isSelectable(fetchAssociations)) {
+			StringBuilder selectClause = new StringBuilder("SELECT DISTINCT x.").append(entity.getIdAttributeName());
+			StringBuilder joins = new StringBuilder();
+			Map<String, String> aliasesByJoinPath = new HashMap<>();
+			this.tupleColumns = new int[this.attributes.length];
+			int tupleColumn = 0;
+			for(int slot = 0; slot < this.attributes.length; slot++) {
+				List<String> path = this.attributes[slot].getSelectablePath();
+				if(path == null) {
+					tupleColumns[slot] = -1;
+					continue;
+				}
+				tupleColumns[slot] = ++ tupleColumn;
+				String alias = "x";
+				String joinPath = "";
+				for(int i = 0; i < path.size() - 1; i++) {
+					joinPath = joinPath + '.' + path.get(i);
+					String joinAlias = aliasesByJoinPath.get(joinPath);
+					if(joinAlias == null) {
+						joinAlias = "p" + (aliasesByJoinPath.size() + 1);
+						aliasesByJoinPath.put(joinPath, joinAlias);
+						joins.append(" LEFT JOIN ").append(alias).append('.').append(path.get(i)).append(' ').append(joinAlias);
+					}
+					alias = joinAlias;
+				}
+				selectClause.append(", ").append(alias).append('.').append(path.get(path.size() - 1));
+			}
+			this.tupleSelectClause = selectClause.toString();
+			this.tupleJoins = joins.toString();
+			this.fetchPlan = fetchAssociations ? new FetchPlan(entity, this.attributes, true) : null;
+		} else {
+			this.tupleSelectClause = null;
+			this.tupleJoins = null;
+			this.tupleColumns = null;
+			this.fetchPlan = fetchAssociations ? new FetchPlan(entity, this.attributes, false) : null;
+		}
+	}
+
+	/**
+	 * The attributes can be read as tuples if each of them is either selectable as one column, or loadable by a label query.
+	 */
+	private boolean isSelectable(boolean fetchAssociations) {
+		if(entity.getIdAttributeName() == null) {
+			return false;
+		}
+		for(EntityAttribute attribute : attributes) {
+			if(attribute.getSelectablePath() == null && !(fetchAssociations && FetchPlan.isLoadableByLabelQuery(attribute))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 
+	 * @return true if this projection reads tuples of the visible attributes, instead of entity instances
+	 */
+	boolean isTupleMode() {
+		return tupleSelectClause != null;
+	}
+
+	/**
+	 * 
+	 * @param plan the compiled plan of the query
+	 * @return the JPQL statement reading the rows this projection maps
+	 */
+	String toJpql(CompiledQueryPlan plan) {
+		if(tupleSelectClause != null) {
+			return plan.deriveJpql(tupleSelectClause, tupleJoins);
+		}
+		if(fetchPlan != null && !fetchPlan.getFetchJoins().isEmpty()) {
+			return plan.deriveJpql(plan.getSelectClause(), fetchPlan.getFetchJoins());
+		}
+		return plan.getJpql();
+	}
+
+	/**
+	 * 
+	 * @return the associations to load along with the results, or null if none are to be loaded
+	 */
+	FetchPlan getFetchPlan() {
+		return fetchPlan;
+	}
+
+	/**
+	 * 
+	 * @return true if the rows are to be read in batches, each batch being prepared before its rows are mapped
+	 */
+	boolean isBatched() {
+		return fetchPlan != null && fetchPlan.isBatched();
+	}
+
+	/**
+	 * Run the secondary queries of the fetch plan for the given batch of rows, before the rows are mapped.
+	 * @param batch the rows read by the query
+	 * @param databaseAccessService the service to run the secondary queries through
+	 */
+	void prepareBatch(List<Object> batch, DatabaseAccessService databaseAccessService) {
+		List<Object> keys = batch;
+		if(tupleSelectClause != null) {
+			keys = new ArrayList<>(batch.size());
+			for(Object row : batch) {
+				keys.add(resultKey(row));
+			}
+		}
+		batchLabels = fetchPlan.loadBatch(keys, databaseAccessService);
+	}
+
+	/**
+	 * 
+	 * @return the key identifying a row in the secondary label queries: the entity instance, or its id in tuple mode
+	 */
+	private Object resultKey(Object queryResult) {
+		if(tupleSelectClause != null) {
+			//the first column of the tuple is the id of the entity (or the tuple is only the id, if nothing else is selected)
+			return queryResult instanceof Object[] ? ((Object[]) queryResult)[0] : queryResult;
+		}
+		return queryResult;
+	}
+
+	JpaEntity getEntity() {
+		return entity;
+	}
+
+	/**
+	 * 
+	 * @return the number of output slots
+	 */
+	int size() {
+		return attributes.length;
+	}
+
+	EntityAttribute getAttribute(int slot) {
+		return attributes[slot];
+	}
+
+	String getColumnName(int slot) {
+		return columnNames[slot];
+	}
+
+	/**
+	 * Map a row read by the query (an instance of the requested entity, or a tuple in tuple mode) to a {@link QueryResultItem}.
+	 * @param queryResult the row read by the query
+	 * @return the mapped result item
+	 */
+	QueryResultItem map(Object queryResult) {
+		QueryResultItem virtualInstance = new QueryResultItem();
+		for(int slot = 0; slot < attributes.length; slot++) {
+			virtualInstance.add(columnNames[slot], readSlot(queryResult, slot));
+		}
+		return virtualInstance;
+	}
+
+	/**
+	 * 
+	 * @return new empty columns, matching the output slots of this projection
+	 */
+	ResultColumns createColumns() {
+		return new ResultColumns(columnNames, columnTypes);
+	}
+
+	/**
+	 * Read the values of the output slots from a row read by the query.
+	 * @param queryResult the row read by the query (an instance of the requested entity, or a tuple in tuple mode)
+	 * @param row the array to fill in with the values, one per output slot
+	 * @return the given array
+	 */
+	Object[] readRow(Object queryResult, Object[] row) {
+		for(int slot = 0; slot < attributes.length; slot++) {
+			row[slot] = readSlot(queryResult, slot);
+		}
+		return row;
+	}
+
+	private Object readSlot(Object queryResult, int slot) {
+		if(batchLabels != null && batchLabels.get(slot) != null) {
+			List<Object> labels = batchLabels.get(slot).get(resultKey(queryResult));
+			return labels != null ? labels : new ArrayList<>(0);
+		}
+		if(tupleSelectClause != null) {
+			return ((Object[]) queryResult)[tupleColumns[slot]];
+		}
+		return readAttributeValue(attributes[slot], queryResult);
+	}
+
+	/**
+	 * The attributes shown through a label path, or holding collections, have no known value type in the results.
+	 */
+	private static Class<?> resolveColumnType(EntityAttribute attribute) {
+		if(attribute.getPossibleValueLabelPathNavigator() != null || attribute.isCollectionValued() || attribute.getType() == null) {
+			return Object.class;
+		}
+		return attribute.getType();
+	}
+
+	private Object readAttributeValue(final EntityAttribute attribute, final Object instance) {
+		try {
+			Object value = attribute.getAccessor().read(instance);
+			if(value != null) {
+				PropertyPathNavigator labelPathNavigator = attribute.getPossibleValueLabelPathNavigator();
+				if(labelPathNavigator != null) {
+					value = labelPathNavigator.navigate(value);
+				}
+			}
+			return value;
+		} catch (Exception e) {
+			throw new RuntimeException("Failed to read attribute value from results, for attribute " + attribute.getAttributeName() + " of entity " + entity.getClassName(), e);
+		}
+	}
+}
@@ -0,0 +1,341 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * A {@link QueryMetricsListener} keeping the statistics of the queries by fingerprint, and logging the slow ones.
+ * <p>
+ * The fingerprint of a query is its compiled JPQL statement, normalized so that the queries differing only 
+ * in their values share it: the literals and the parameters become placeholders, the lists of placeholders 
+ * (e.g. of the IN conditions) are collapsed into one, and the whitespace is collapsed. For each fingerprint, 
+ * the histograms of the wall time and of the numbers of results are kept, and can be read at runtime as a 
+ * top-N report through {@link #getTopQueries(int, Ranking)}. The number of fingerprints kept is bounded; 
+ * the queries of the fingerprints over the bound are only counted, as untracked.
+ * <p>
+ * The queries slower than the threshold are logged at WARNING level, through java.util.logging, with the 
+ * entity, the logical shape and the fingerprint of the query; never with its values.
+ * <p>
+ * The wall time of a query is the time spent in its {@link QueryPhase}s: for the streamed results, the time 
+ * spent by their consumer is not counted. The compilations alone (compileQuery) are not recorded.
+ * <p>
+ * To be registered through {@link DefaultQueryModelService#addQueryMetricsListener(QueryMetricsListener)}.
+ *
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+public class SlowQueryLog implements QueryMetricsListener {
+
+	/**
+	 * The orders of the top-N report of the fingerprints, all descending.
+	 */
+	public static enum Ranking {
+		/** the total wall time of the queries */
+		TOTAL_TIME,
+		/** the mean wall time of the queries */
+		MEAN_TIME,
+		/** the 99th percentile of the wall time of the queries */
+		P99_TIME,
+		/** the highest wall time of the queries */
+		MAX_TIME,
+		/** the number of executions */
+		EXECUTIONS,
+		/** the total number of results */
+		RESULTS,
+		/** the number of executions slower than the threshold */
+		SLOW_EXECUTIONS
+	}
+
+	private static final Logger LOGGER = Logger.getLogger(SlowQueryLog.class.getName());
+
+	public static final long DEFAULT_THRESHOLD_MILLIS = 1000;
+
+	public static final int DEFAULT_MAXIMUM_FINGERPRINTS = 1000;
+
+	private static final Pattern PLACEHOLDER_LIST_PATTERN = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\)");
+
+	private final ConcurrentMap<String, QueryFingerprintStatistics> statistics = new ConcurrentHashMap<>();
+
+	private final LongAdder untrackedCount = new LongAdder();
+
+	private volatile long thresholdNanos;
+
+	private volatile int maximumFingerprints;
+
+	/**
+	 * Create a slow query log with a threshold of {@value #DEFAULT_THRESHOLD_MILLIS} milliseconds, 
+	 * keeping the statistics of up to {@value #DEFAULT_MAXIMUM_FINGERPRINTS} fingerprints.
+	 */
+	public SlowQueryLog() {
+		this(DEFAULT_THRESHOLD_MILLIS, DEFAULT_MAXIMUM_FINGERPRINTS);
+	}
+
+	/**
+	 * 
+	 * @param thresholdMillis the wall time, in milliseconds, from which the queries are logged as slow
+	 * @param maximumFingerprints the maximum number of fingerprints to keep the statistics of
+	 */
+	public SlowQueryLog(long thresholdMillis, int maximumFingerprints) {
+		setThresholdMillis(thresholdMillis);
+		setMaximumFingerprints(maximumFingerprints);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.infiniquery.service.QueryMetricsListener#queryCompleted(org.infiniquery.service.QueryMetrics)
+	 */
+	@Override
+	public void queryCompleted(QueryMetrics metrics) {
+		if(metrics.getOperation() == QueryMetrics.Operation.COMPILE || metrics.getJpql() == null) {
+			return;
+		}
+		String fingerprint = fingerprintOf(metrics.getJpql());
+		long wallTimeNanos = metrics.getPhasesWallTimeNanos();
+		boolean slow = wallTimeNanos >= thresholdNanos;
+		QueryFingerprintStatistics fingerprintStatistics = statistics.get(fingerprint);
+		if(fingerprintStatistics == null) {
+			if(statistics.size() >= maximumFingerprints) {
+				untrackedCount.increment();
+			} else {
+				fingerprintStatistics = statistics.computeIfAbsent(fingerprint, 
+						key -> new QueryFingerprintStatistics(key, metrics.getEntityDisplayName(), metrics.getLogicalShape()));
+			}
+		}
+		if(fingerprintStatistics != null) {
+			fingerprintStatistics.record(wallTimeNanos, metrics.getResultCount(), slow, !metrics.isSucceeded());
+		}
+		if(slow && LOGGER.isLoggable(Level.WARNING)) {
+			LOGGER.warning("Slow query on " + metrics.getEntityDisplayName() + ": " + TimeUnit.NANOSECONDS.toMillis(wallTimeNanos) + " ms, " 
+					+ metrics.getResultCount() + " results" + (metrics.isSucceeded() ? "" : ", failed") 
+					+ ". Query: " + metrics.getLogicalShape() + ". Fingerprint: " + fingerprint);
+		}
+	}
+
+	/**
+	 * Normalize a JPQL statement into a fingerprint, shared by the statements differing only in their values: 
+	 * the string and numeric literals and the parameters become ?, the lists of ? are collapsed into (?), 
+	 * and the runs of whitespace into one space.
+	 * @param jpql a JPQL statement
+	 * @return the fingerprint of the statement
+	 */
+	public static String fingerprintOf(String jpql) {
+		StringBuilder fingerprint = new StringBuilder(jpql.length());
+		boolean pendingSpace = false;
+		int length = jpql.length();
+		int i = 0;
+		while(i < length) {
+			char c = jpql.charAt(i);
+			if(Character.isWhitespace(c)) {
+				pendingSpace = fingerprint.length() > 0;
+				i ++;
+				continue;
+			}
+			if(pendingSpace) {
+				fingerprint.append(' ');
+				pendingSpace = false;
+			}
+			if(c == '\'') {
+				//a string literal, in which a quote is escaped by doubling it
+				i ++;
+				while(i < length) {
+					if(jpql.charAt(i) == '\'') {
+						if(i + 1 < length && jpql.charAt(i + 1) == '\'') {
+							i += 2;
+							continue;
+						}
+						break;
+					}
+					i ++;
+				}
+				i ++;
+				fingerprint.append('?');
+			} else if(c == '?' || (c == ':' && i + 1 < length && Character.isJavaIdentifierStart(jpql.charAt(i + 1)))) {
+				//a positional or named parameter
+				i ++;
+				while(i < length && Character.isJavaIdentifierPart(jpql.charAt(i))) {
+					i ++;
+				}
+				fingerprint.append('?');
+			} else if(Character.isDigit(c) && !endsWithIdentifier(fingerprint)) {
+				//a numeric literal, possibly decimal or with a type suffix
+				while(i < length && (Character.isLetterOrDigit(jpql.charAt(i)) || jpql.charAt(i) == '.')) {
+					i ++;
+				}
+				fingerprint.append('?');
+			} else if(Character.isJavaIdentifierPart(c)) {
+				while(i < length && (Character.isJavaIdentifierPart(jpql.charAt(i)) || jpql.charAt(i) == '.')) {
+					fingerprint.append(jpql.charAt(i));
+					i ++;
+				}
+			} else {
+				fingerprint.append(c);
+				i ++;
+			}
+		}
+		return PLACEHOLDER_LIST_PATTERN.matcher(fingerprint).replaceAll("(?)");
+	}
+
+	private static boolean endsWithIdentifier(StringBuilder fingerprint) {
+		if(fingerprint.length() == 0) {
+			return false;
+		}
+		char last = fingerprint.charAt(fingerprint.length() - 1);
+		return Character.isJavaIdentifierPart(last) || last == '.';
+	}
+
+	/**
+	 * 
+	 * @param n the number of fingerprints to report
+	 * @return the statistics of the n fingerprints with the highest total wall time
+	 */
+	public List<QueryFingerprintStatistics> getTopQueries(int n) {
+		return getTopQueries(n, Ranking.TOTAL_TIME);
+	}
+
+	/**
+	 * 
+	 * @param n the number of fingerprints to report
+	 * @param ranking the order of the fingerprints
+	 * @return the statistics of the n first fingerprints in the given order
+	 */
+	public List<QueryFingerprintStatistics> getTopQueries(int n, Ranking ranking) {
+		if(n < 0) {
+			throw new IllegalArgumentException("The number of fingerprints to report must not be negative: " + n);
+		}
+		//the statistics keep changing, so each one is ranked by a value read once
+		List<RankedStatistics> rankedStatistics = new ArrayList<>(statistics.size());
+		for(QueryFingerprintStatistics fingerprintStatistics : statistics.values()) {
+			rankedStatistics.add(new RankedStatistics(fingerprintStatistics, rankOf(fingerprintStatistics, ranking)));
+		}
+		rankedStatistics.sort(Comparator.comparingDouble((RankedStatistics ranked) -> ranked.rank).reversed());
+		List<QueryFingerprintStatistics> topQueries = new ArrayList<>(Math.min(n, rankedStatistics.size()));
+		for(int i = 0; i < n && i < rankedStatistics.size(); i++) {
+			topQueries.add(rankedStatistics.get(i).statistics);
+		}
+		return topQueries;
+	}
+
+	private static double rankOf(QueryFingerprintStatistics fingerprintStatistics, Ranking ranking) {
+		switch (ranking) {
+			case TOTAL_TIME: return fingerprintStatistics.getWallTime().getSum();
+			case MEAN_TIME: return fingerprintStatistics.getWallTime().getMean();
+			case P99_TIME: return fingerprintStatistics.getWallTime().getValueAtPercentile(99);
+			case MAX_TIME: return fingerprintStatistics.getWallTime().getMax();
+			case EXECUTIONS: return fingerprintStatistics.getExecutionCount();
+			case RESULTS: return fingerprintStatistics.getResultCount().getSum();
+			case SLOW_EXECUTIONS: return fingerprintStatistics.getSlowCount();
+			default: throw new IllegalArgumentException("Unsupported ranking: " + ranking);
+		}
+	}
+
+	/**
+	 * 
+	 * @param fingerprint the fingerprint of a query, as computed by {@link #fingerprintOf(String)}
+	 * @return the statistics of the given fingerprint, or null if none are kept
+	 */
+	public QueryFingerprintStatistics getStatistics(String fingerprint) {
+		return statistics.get(fingerprint);
+	}
+
+	/**
+	 * 
+	 * @return the number of queries not kept in the statistics, their fingerprints being over the maximum number of fingerprints
+	 */
+	public long getUntrackedCount() {
+		return untrackedCount.sum();
+	}
+
+	/**
+	 * Forget the statistics of all the fingerprints.
+	 */
+	public void reset() {
+		statistics.clear();
+		untrackedCount.reset();
+	}
+
+	public long getThresholdMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(thresholdNanos);
+	}
+
+	/**
+	 * 
+	 * @param thresholdMillis the wall time, in milliseconds, from which the queries are logged as slow
+	 */
+	public void setThresholdMillis(long thresholdMillis) {
+		if(thresholdMillis < 0) {
+			throw new IllegalArgumentException("The slow query threshold must not be negative: " + thresholdMillis);
+		}
+		this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+	}
+
+	public int getMaximumFingerprints() {
+		return maximumFingerprints;
+	}
+
+	/**
+	 * 
+	 * @param maximumFingerprints the maximum number of fingerprints to keep the statistics of
+	 */
+	public void setMaximumFingerprints(int maximumFingerprints) {
+		if(maximumFingerprints <= 0) {
+			throw new IllegalArgumentException("The maximum number of fingerprints must be positive: " + maximumFingerprints);
+		}
+		this.maximumFingerprints = maximumFingerprints;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "SlowQueryLog [thresholdMillis=" + getThresholdMillis() + ", fingerprints=" + statistics.size() 
+				+ ", untracked=" + getUntrackedCount() + "]";
+	}
+
+	private static final class RankedStatistics {
+
+		private final QueryFingerprintStatistics statistics;
+
+		private final double rank;
+
+		private RankedStatistics(QueryFingerprintStatistics statistics, double rank) {
+			this.statistics = statistics;
+			this.rank = rank;
+		}
+	}
+}
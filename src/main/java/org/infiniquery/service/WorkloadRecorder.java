@@ -0,0 +1,171 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.service;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.infiniquery.model.LogicalQueryItem;
+
+/**
+ * Records the queries run by a {@link DefaultQueryModelService} into a workload file, to be replayed later 
+ * (e.g. by a load test, against another version of the services): the logical dimension of each query, 
+ * with its values, and the roles of the user who sent it. See {@link RecordedQuery} for the format of the file.
+ * <p>
+ * The file holds the values the users searched for, so it is to be handled as the data it was recorded from.
+ * <p>
+ * The queries are appended to the file as they start, from any number of threads. A failure to write the file 
+ * never fails the query: the queries which could not be written are only counted.
+ * <p>
+ * To be set through {@link DefaultQueryModelService#setWorkloadRecorder(WorkloadRecorder)}, and closed when the 
+ * recording ends.
+ *
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+public class WorkloadRecorder implements Closeable {
+
+	/** The first line of the workload files; the lines starting with # are comments */
+	static final String HEADER = "# infiniquery workload, version 1";
+
+	private static final char COMMENT_PREFIX = '#';
+
+	private final Writer writer;
+
+	private final LongAdder recordedCount = new LongAdder();
+
+	private final LongAdder failureCount = new LongAdder();
+
+	private boolean closed;
+
+	/**
+	 * Open the given workload file, appending to it if it already exists.
+	 * @param file the file to record the queries into
+	 * @throws IOException if the file cannot be opened
+	 */
+	public WorkloadRecorder(Path file) throws IOException {
+		boolean empty = !Files.exists(file) || Files.size(file) == 0;
+		this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		if(empty) {
+			writer.write(HEADER);
+			writer.write('\n');
+			writer.flush();
+		}
+	}
+
+	/**
+	 * Record a query. Each query is flushed to the file once written, so the recording survives an abrupt end of the JVM.
+	 * @param operation the kind of the request: EXECUTE, STREAM or COUNT
+	 * @param logicalDimension the logical dimension of the query
+	 * @param roles the roles of the user who sent the request
+	 * @param offset the position of the first result requested, or 0
+	 * @param limit the maximum number of results requested, or 0 if not limited by the request
+	 */
+	public void record(QueryMetrics.Operation operation, LogicalQueryItem[] logicalDimension, Set<String> roles, int offset, int limit) {
+		String line;
+		try {
+			line = new RecordedQuery(operation, logicalDimension, roles, offset, limit).format();
+		} catch (RuntimeException e) {
+			//e.g. a query without logical dimension, which fails anyway
+			failureCount.increment();
+			return;
+		}
+		synchronized (writer) {
+			if(closed) {
+				failureCount.increment();
+				return;
+			}
+			try {
+				writer.write(line);
+				writer.write('\n');
+				writer.flush();
+				recordedCount.increment();
+			} catch (IOException e) {
+				failureCount.increment();
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @return the number of queries written to the file
+	 */
+	public long getRecordedCount() {
+		return recordedCount.sum();
+	}
+
+	/**
+	 * 
+	 * @return the number of queries which could not be written to the file
+	 */
+	public long getFailureCount() {
+		return failureCount.sum();
+	}
+
+	/**
+	 * Close the file. The queries recorded afterwards are counted as failures.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (writer) {
+			if(!closed) {
+				closed = true;
+				writer.close();
+			}
+		}
+	}
+
+	/**
+	 * Read all the queries of a workload file.
+	 * @param file the workload file, as written by a WorkloadRecorder
+	 * @return the recorded queries, in the order they were recorded
+	 * @throws IOException if the file cannot be read
+	 * @throws IllegalArgumentException if a line of the file is not a valid recorded query
+	 */
+	public static List<RecordedQuery> read(Path file) throws IOException {
+		List<RecordedQuery> workload = new ArrayList<>();
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if(!line.isEmpty() && line.charAt(0) != COMMENT_PREFIX) {
+					workload.add(RecordedQuery.parse(line));
+				}
+			}
+		}
+		return workload;
+	}
+}
@@ -0,0 +1,184 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Factory of {@link PropertyAccessor} instances backed by {@link MethodHandle}s bound to public getter methods.
+ *
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+public final class PropertyAccessors {
+
+	private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+	private PropertyAccessors() {}
+
+	/**
+	 * Create an accessor for the public getter of the given property. The getter is searched as "get" or "is"
+	 * followed by the capitalized property name, also in the superclasses of the given class.
+	 * If the getter cannot be resolved, the returned accessor fails, when used, with the reason of the failed resolution.
+	 * This allows properties that are never read (e.g. attributes only used as query filters) to be declared without getters.
+	 *
+	 * @param clazz the class declaring (or inheriting) the getter
+	 * @param propertyName the name of the property
+	 * @return a {@link PropertyAccessor} reading the given property from instances of the given class
+	 */
+	public static PropertyAccessor forProperty(Class<?> clazz, String propertyName) {
+		try {
+			Method getterMethod = resolveGetterMethod(propertyName, clazz);
+			getterMethod.setAccessible(true);
+			MethodHandle handle = MethodHandles.lookup().unreflect(getterMethod).asType(GETTER_TYPE);
+			return new MethodHandleAccessor(handle);
+		} catch (RuntimeException | IllegalAccessException e) {
+			return new UnresolvedAccessor(e.getMessage());
+		}
+	}
+
+	/**
+	 * Create an accessor resolving the public getter of the given property (as {@link #forProperty(Class, String)} does) 
+	 * only when it is first used, so creating it involves no reflective lookups.
+	 *
+	 * @param clazz the class declaring (or inheriting) the getter
+	 * @param propertyName the name of the property
+	 * @return a {@link PropertyAccessor} reading the given property from instances of the given class
+	 */
+	public static PropertyAccessor lazyForProperty(Class<?> clazz, String propertyName) {
+		return new LazyAccessor(clazz, propertyName);
+	}
+
+	/**
+	 * Create an accessor that fails, when used, with the given reason.
+	 * This is used for the properties whose getters are known not to be resolvable (e.g. as recorded in the precompiled query context index).
+	 *
+	 * @param reason the reason why the property cannot be read
+	 * @return a {@link PropertyAccessor} failing with the given reason
+	 */
+	public static PropertyAccessor unresolved(String reason) {
+		return new UnresolvedAccessor(reason);
+	}
+
+	/**
+	 * Resolve the public getter of the given property.
+	 *
+	 * @param propertyName the name of the property
+	 * @param clazz the class declaring (or inheriting) the getter
+	 * @return the getter {@link Method}
+	 * @throws RuntimeException if no getter is found or if the getter found is not public
+	 */
+	public static Method resolveGetterMethod(String propertyName, Class<?> clazz) {
+		final String nonPrefixedGetter = Character.toUpperCase(propertyName.charAt(0)) + propertyName.substring(1);
+		Method getterMethod = findDeclaredMethod(clazz, "get".concat(nonPrefixedGetter));
+		if(getterMethod == null) {
+			getterMethod = findDeclaredMethod(clazz, "is".concat(nonPrefixedGetter));
+		}
+		if(getterMethod == null) {
+			throw new RuntimeException("Could not find public getter method for property " + propertyName + " in class " + clazz.getName());
+		}
+		if(Modifier.isPublic(getterMethod.getModifiers())) {
+			return getterMethod;
+		} else {
+			throw new RuntimeException("Method " + getterMethod + " is not public. Infiniquery exposes, in the results, only entity attributes that are exposed through public getter methods. Please, either make the getter public, or remove this entity attribute from infiniquery config.");
+		}
+	}
+
+	private static Method findDeclaredMethod(Class<?> clazz, String methodName) {
+		for(Class<?> crtClass = clazz; crtClass != null && crtClass != Object.class; crtClass = crtClass.getSuperclass()) {
+			try {
+				return crtClass.getDeclaredMethod(methodName);
+			} catch (NoSuchMethodException e) {
+				//continue with the superclass
+			}
+		}
+		return null;
+	}
+
+	private static final class MethodHandleAccessor implements PropertyAccessor {
+
+		private final MethodHandle handle;
+
+		MethodHandleAccessor(MethodHandle handle) {
+			this.handle = handle;
+		}
+
+		@Override
+		public Object read(Object instance) {
+			try {
+				return (Object) handle.invokeExact(instance);
+			} catch (RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new RuntimeException(e.getMessage(), e);
+			}
+		}
+	}
+
+	private static final class LazyAccessor implements PropertyAccessor {
+
+		private final Class<?> clazz;
+
+		private final String propertyName;
+
+		private volatile PropertyAccessor delegate;
+
+		LazyAccessor(Class<?> clazz, String propertyName) {
+			this.clazz = clazz;
+			this.propertyName = propertyName;
+		}
+
+		@Override
+		public Object read(Object instance) {
+			PropertyAccessor accessor = delegate;
+			if(accessor == null) {
+				//resolving it more than once, concurrently, is harmless
+				accessor = forProperty(clazz, propertyName);
+				delegate = accessor;
+			}
+			return accessor.read(instance);
+		}
+	}
+
+	private static final class UnresolvedAccessor implements PropertyAccessor {
+
+		private final String reason;
+
+		UnresolvedAccessor(String reason) {
+			this.reason = reason;
+		}
+
+		@Override
+		public Object read(Object instance) {
+			throw new RuntimeException(reason);
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/*
+* Copyright (c) 2015, Daniel Doboga
+* All rights reserved.
+* 	
+* Redistribution and use in source and binary forms, with or without modification, 
+* are permitted provided that the following conditions are met:
+* 
+*   1. Redistributions of source code must retain the above copyright notice, this 
+*   list of conditions and the following disclaimer.
+*   
+*   2. Redistributions in binary form must reproduce the above copyright notice, this 
+*   list of conditions and the following disclaimer in the documentation and/or other 
+*   materials provided with the distribution.
+* 
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+* ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+* WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+* IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+* INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+* NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+* WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+* ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+* POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.infiniquery.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compiled form of a dot separated property path (e.g. children.address.street), able to navigate it from a starting value.
+ * The path is split only once, and the getters of every hop are resolved once per runtime class and cached, so walking the
+ * path allocates nothing except the lists collecting the values found beyond collections (or other {@link Collection}s).
+ * <p>
+ * The first fragment of the path denotes the property holding the starting value, thus navigation starts with the second fragment.
+ * String and numeric values are considered already resolved labels, and are returned as they are.
+ *
+ * @author Daniel Doboga
+ * @since 1.4.0
+ */
+public final class PropertyPathNavigator {
+
+	private final List<String> pathFragments;
+
+	private final ClassValue<PropertyAccessor>[] hopAccessors;
+
+	private PropertyPathNavigator(String[] fragments) {
+		this.pathFragments = Collections.unmodifiableList(Arrays.asList(fragments));
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		ClassValue<PropertyAccessor>[] accessors = new ClassValue[fragments.length - 1];
+		this.hopAccessors = accessors;
+		for(int i = 1; i < fragments.length; i++) {
+			final String propertyName = fragments[i];
+			hopAccessors[i - 1] = new ClassValue<PropertyAccessor>() {
+				@Override
+				protected PropertyAccessor computeValue(Class<?> type) {
+					return PropertyAccessors.forProperty(type, propertyName);
+				}
+			};
+		}
+	}
+
+	/**
+	 * Compile a dot separated property path.
+	 *
+	 * @param dotSeparatedPath the path to compile
+	 * @return the navigator of the given path
+	 */
+	public static PropertyPathNavigator compile(String dotSeparatedPath) {
+		return new PropertyPathNavigator(dotSeparatedPath.split("\\."));
+	}
+
+	/**
+	 *
+	 * @return the fragments of the path, including the first one
+	 */
+	public List<String> getPathFragments() {
+		return pathFragments;
+	}
+
+	/**
+	 * Navigate the path, starting with the value of the property denoted by its first fragment.
+	 *
+	 * @param startValue the value of the property denoted by the first fragment of the path
+	 * @return the value found at the end of the path, or a List of such values if collections are encountered on the way
+	 */
+	public Object navigate(Object startValue) {
+		return navigate(startValue, 0);
+	}
+
+	private Object navigate(Object object, int hopIndex) {
+		if(object == null) {
+			return null;
+		}
+		if(object instanceof Collection) {
+			Collection<?> collection = (Collection<?>) object;
+			List<Object> virtualObjects = new ArrayList<>(collection.size());
+			for(Object item : collection) {
+				virtualObjects.add(navigate(item, hopIndex));
+			}
+			return virtualObjects;
+		}
+		if(object instanceof String || object instanceof Number || hopIndex >= hopAccessors.length) {
+			return object;
+		}
+		Object value = hopAccessors[hopIndex].get(object.getClass()).read(object);
+		if(hopIndex == hopAccessors.length - 1) {
+			return value;
+		} else {
+			return navigate(value, hopIndex + 1);
+		}
+	}
+}